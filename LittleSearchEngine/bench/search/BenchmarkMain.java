@@ -0,0 +1,26 @@
+package search;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the GC profiler, which adds allocation rates (bytes allocated
+ * per second and per operation) to every result. Any JMH command line option may be given,
+ * for instance a regular expression to run only some benchmarks, or -p docs=1000 to run
+ * with only some parameter values; with no regular expression, every benchmark runs.
+ *
+ * Usage: BenchmarkMain [JMH options] [regexp]
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args)
+	throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class);
+		if (cmd.getIncludes().isEmpty()) {
+			options.include("search\\..*Benchmark");
+		}
+		new Runner(options.build()).run();
+	}
+}
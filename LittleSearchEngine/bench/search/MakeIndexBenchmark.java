@@ -0,0 +1,70 @@
+package search;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of a whole makeIndex over corpora of several sizes, sequential (threads = 1)
+ * and parallel on a pool of the given number of threads. Each run indexes the corpus from
+ * scratch, so the benchmark is timed one run at a time.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class MakeIndexBenchmark {
+
+	@Param({"500", "5000", "20000"})
+	public int docs;
+
+	@Param({"1", "4", "8"})
+	public int threads;
+
+	/**
+	 * Average number of words of a document.
+	 */
+	static final int WORDS = 300;
+
+	private Path dir;
+	private String docsFile;
+	private String noiseWordsFile;
+	private ExecutorService pool;
+
+	@Setup
+	public void setup()
+	throws IOException {
+		dir = Files.createTempDirectory("lse-bench");
+		ZipfCorpus corpus = new ZipfCorpus(100000, 1.0, 1);
+		docsFile = corpus.write(dir, docs, WORDS, 6);
+		noiseWordsFile = ZipfCorpus.noiseWordsFile(dir);
+		if (threads > 1) {
+			pool = new ForkJoinPool(threads);
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	throws IOException {
+		if (pool != null) {
+			pool.shutdown();
+		}
+		ZipfCorpus.delete(dir);
+	}
+
+	@Benchmark
+	public LittleSearchEngine makeIndex()
+	throws FileNotFoundException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		if (pool == null) {
+			engine.makeIndex(docsFile, noiseWordsFile);
+		} else {
+			engine.makeIndex(docsFile, noiseWordsFile, pool);
+		}
+		return engine;
+	}
+}
@@ -0,0 +1,126 @@
+package search;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of adding occurrences one document at a time: insertLastOccurrence on lists of
+ * several lengths, and mergeKeyWords into an engine that grows over each iteration, as
+ * addDocument does.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MergeBenchmark {
+
+	/**
+	 * An occurrence list in order, with frequencies spread as in a Zipf corpus: most
+	 * documents have a keyword once or twice, a few many times.
+	 */
+	@State(Scope.Thread)
+	public static class SortedList {
+		@Param({"100", "10000", "1000000"})
+		public int length;
+
+		ArrayList<Occurrence> occs;
+		int[] freqs;
+		int next;
+		LittleSearchEngine engine;
+
+		@Setup
+		public void setup() {
+			Random random = new Random(4);
+			freqs = new int[1 << 12];
+			for (int i = 0; i < freqs.length; i++) {
+				freqs[i] = frequency(random);
+			}
+			int[] sorted = new int[length];
+			for (int i = 0; i < length; i++) {
+				sorted[i] = frequency(random);
+			}
+			Arrays.sort(sorted);
+			occs = new ArrayList<Occurrence>(length + 1);
+			for (int i = length - 1; i >= 0; i--) {
+				occs.add(new Occurrence("d" + i, sorted[i]));
+			}
+			engine = new LittleSearchEngine();
+		}
+
+		private static int frequency(Random random) {
+			return 1 + (int)(-Math.log(1 - random.nextDouble()) * 3);
+		}
+	}
+
+	/**
+	 * Keywords of pre-scanned documents, merged into an engine that starts empty at every
+	 * iteration.
+	 */
+	@State(Scope.Thread)
+	public static class Documents {
+		@Param({"300"})
+		public int words;
+
+		String[][] keywords;
+		int[][] freqs;
+		int next;
+		LittleSearchEngine engine;
+
+		@Setup
+		public void setup() {
+			ZipfCorpus corpus = new ZipfCorpus(50000, 1.0, 1);
+			Random random = new Random(5);
+			keywords = new String[1 << 10][];
+			freqs = new int[keywords.length][];
+			for (int d = 0; d < keywords.length; d++) {
+				HashMap<String,Integer> counts = new HashMap<String,Integer>();
+				for (int w = 0; w < words; w++) {
+					String kw = corpus.nextKeyword(random);
+					Integer c = counts.get(kw);
+					counts.put(kw, c == null ? 1 : c + 1);
+				}
+				keywords[d] = counts.keySet().toArray(new String[counts.size()]);
+				freqs[d] = new int[keywords[d].length];
+				for (int i = 0; i < keywords[d].length; i++) {
+					freqs[d][i] = counts.get(keywords[d][i]);
+				}
+			}
+		}
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			engine = new LittleSearchEngine();
+			next = 0;
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public ArrayList<Integer> insertLastOccurrence(SortedList list) {
+		ArrayList<Occurrence> occs = list.occs;
+		occs.add(new Occurrence("new", list.freqs[list.next++ & (list.freqs.length - 1)]));
+		ArrayList<Integer> mids = list.engine.insertLastOccurrence(occs);
+		// taking off the last, lowest occurrence keeps the list in order and of the same length
+		occs.remove(occs.size() - 1);
+		return mids;
+	}
+
+	@Benchmark
+	@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public LittleSearchEngine mergeKeyWords(Documents docs) {
+		int n = docs.next++;
+		int d = n & (docs.keywords.length - 1);
+		String name = "d" + n;
+		HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>(2 * docs.keywords[d].length);
+		for (int i = 0; i < docs.keywords[d].length; i++) {
+			kws.put(docs.keywords[d][i], new Occurrence(name, docs.freqs[d][i]));
+		}
+		docs.engine.mergeKeyWords(kws);
+		return docs.engine;
+	}
+}
@@ -0,0 +1,91 @@
+package search;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of top5search over indexes of several sizes, with keyword pairs drawn with
+ * Zipf's law, so that most queries hit long occurrence lists. An engine is only safe to
+ * search from one thread at a time, so the single-threaded benchmark searches the engine
+ * itself, and the multi-threaded ones search an engine in concurrent mode, whose searches
+ * go to its snapshot.
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+	/**
+	 * An index, and the queries sent to it.
+	 */
+	@State(Scope.Benchmark)
+	public static class Index {
+		@Param({"1000", "10000"})
+		public int docs;
+
+		LittleSearchEngine engine;
+		LittleSearchEngine concurrent;
+		String[][] queries;
+
+		@Setup
+		public void setup()
+		throws IOException {
+			Path dir = Files.createTempDirectory("lse-bench");
+			ZipfCorpus corpus = new ZipfCorpus(100000, 1.0, 1);
+			String docsFile = corpus.write(dir, docs, 300, 7);
+			engine = new LittleSearchEngine();
+			engine.makeIndex(docsFile, ZipfCorpus.noiseWordsFile(dir));
+			concurrent = new LittleSearchEngine();
+			concurrent.makeIndex(docsFile, ZipfCorpus.noiseWordsFile(dir));
+			concurrent.setConcurrent(true);
+			ZipfCorpus.delete(dir);
+
+			Random random = new Random(8);
+			queries = new String[1 << 12][];
+			for (int i = 0; i < queries.length; i++) {
+				queries[i] = new String[] {corpus.nextKeyword(random), corpus.nextKeyword(random)};
+			}
+		}
+	}
+
+	/**
+	 * Position of each thread in the queries.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Benchmark
+	public ArrayList<String> top5search(Index index, Cursor cursor) {
+		String[] q = index.queries[cursor.next++ & (index.queries.length - 1)];
+		return index.engine.top5search(q[0], q[1]);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public ArrayList<String> top5searchSnapshot(Index index, Cursor cursor) {
+		String[] q = index.queries[cursor.next++ & (index.queries.length - 1)];
+		return index.concurrent.top5search(q[0], q[1]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public ArrayList<String> top5searchSnapshot4Threads(Index index, Cursor cursor) {
+		String[] q = index.queries[cursor.next++ & (index.queries.length - 1)];
+		return index.concurrent.top5search(q[0], q[1]);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public ArrayList<String> top5searchSnapshotAllThreads(Index index, Cursor cursor) {
+		String[] q = index.queries[cursor.next++ & (index.queries.length - 1)];
+		return index.concurrent.top5search(q[0], q[1]);
+	}
+}
@@ -0,0 +1,106 @@
+package search;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the keyword test and of scanning a document: getKeyWord on single words,
+ * and loadKeyWords on documents of several lengths.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TokenizeBenchmark {
+
+	/**
+	 * Words as they appear in text, noise words and words that are not keywords included.
+	 */
+	@State(Scope.Benchmark)
+	public static class Words {
+		String[] words;
+		LittleSearchEngine engine;
+		Path dir;
+
+		@Setup
+		public void setup()
+		throws IOException {
+			ZipfCorpus corpus = new ZipfCorpus(50000, 1.0, 1);
+			Random random = new Random(2);
+			words = new String[1 << 12];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = corpus.nextWord(random);
+			}
+			dir = Files.createTempDirectory("lse-bench");
+			corpus.write(dir, 0, 0, 0);
+			engine = new LittleSearchEngine();
+			engine.loadNoiseWords(ZipfCorpus.noiseWordsFile(dir));
+		}
+
+		@TearDown
+		public void tearDown()
+		throws IOException {
+			ZipfCorpus.delete(dir);
+		}
+	}
+
+	/**
+	 * Position of each thread in the words.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	/**
+	 * A document of a given number of words.
+	 */
+	@State(Scope.Benchmark)
+	public static class Document {
+		@Param({"100", "1000", "10000", "100000"})
+		public int words;
+
+		String doc;
+		LittleSearchEngine engine;
+		Path dir;
+
+		@Setup
+		public void setup()
+		throws IOException {
+			dir = Files.createTempDirectory("lse-bench");
+			ZipfCorpus corpus = new ZipfCorpus(50000, 1.0, 1);
+			corpus.write(dir, 0, 0, 0);
+			// exactly the given number of words
+			doc = dir.resolve("doc.txt").toAbsolutePath().toString();
+			Files.write(Paths.get(doc), corpus.nextDocument(new Random(3), words).getBytes(StandardCharsets.UTF_8));
+			engine = new LittleSearchEngine();
+			engine.loadNoiseWords(ZipfCorpus.noiseWordsFile(dir));
+		}
+
+		@TearDown
+		public void tearDown()
+		throws IOException {
+			ZipfCorpus.delete(dir);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String getKeyWord(Words words, Cursor cursor) {
+		String word = words.words[cursor.next++ & (words.words.length - 1)];
+		return words.engine.getKeyWord(word);
+	}
+
+	@Benchmark
+	@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public HashMap<String,Occurrence> loadKeyWords(Document document)
+	throws FileNotFoundException {
+		return document.engine.loadKeyWords(document.doc);
+	}
+}
@@ -0,0 +1,216 @@
+package search;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Generates synthetic corpora for the benchmarks. Words are drawn from a vocabulary by
+ * rank with Zipf's law, the probability of rank r going as 1/r^exponent, which is how words
+ * are spread in natural text: a few keywords are in almost every document and have long
+ * occurrence lists, most are rare. Text also has noise words, capitalized words, trailing
+ * punctuation and words with digits, so every branch of the keyword test is taken.
+ *
+ * The same seed always gives the same corpus.
+ */
+public class ZipfCorpus {
+
+	/**
+	 * Noise words written to the noise words file, and mixed into the text.
+	 */
+	static final String[] NOISE_WORDS = {
+		"a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "had", "has",
+		"have", "he", "her", "his", "in", "is", "it", "its", "not", "of", "on", "or", "she",
+		"that", "the", "their", "there", "they", "this", "to", "was", "were", "which", "with"
+	};
+
+	/**
+	 * Share of the words of the text that are noise words.
+	 */
+	static final double NOISE_SHARE = 0.3;
+
+	private static final String PUNCTUATION = ".,?:;!";
+
+	/**
+	 * Keywords by rank, most frequent first.
+	 */
+	private final String[] vocabulary;
+
+	/**
+	 * Cumulative probability of each rank.
+	 */
+	private final double[] cdf;
+
+	/**
+	 * Initializes a generator.
+	 *
+	 * @param vocabularySize Number of distinct keywords
+	 * @param exponent Zipf exponent, about 1 for natural text
+	 * @param seed Seed the vocabulary is made from
+	 */
+	public ZipfCorpus(int vocabularySize, double exponent, long seed) {
+		Random random = new Random(seed);
+		HashSet<String> noise = new HashSet<String>(Arrays.asList(NOISE_WORDS));
+		LinkedHashSet<String> words = new LinkedHashSet<String>();
+		while (words.size() < vocabularySize) {
+			// shorter words are the more frequent ones, as in natural text
+			int length = 2 + (int)Math.min(12, Math.log(words.size() + 2) + random.nextInt(4));
+			StringBuilder sb = new StringBuilder(length);
+			for (int i = 0; i < length; i++) {
+				sb.append((char)('a' + random.nextInt(26)));
+			}
+			if (!noise.contains(sb.toString())) {
+				words.add(sb.toString());
+			}
+		}
+		vocabulary = words.toArray(new String[vocabularySize]);
+		cdf = new double[vocabularySize];
+		double sum = 0;
+		for (int r = 0; r < vocabularySize; r++) {
+			sum += 1 / Math.pow(r + 1, exponent);
+			cdf[r] = sum;
+		}
+		for (int r = 0; r < vocabularySize; r++) {
+			cdf[r] /= sum;
+		}
+	}
+
+	/**
+	 * Returns the number of distinct keywords.
+	 *
+	 * @return Vocabulary size
+	 */
+	public int vocabularySize() {
+		return vocabulary.length;
+	}
+
+	/**
+	 * Returns the keyword of a rank.
+	 *
+	 * @param rank Rank, 0 for the most frequent
+	 * @return Keyword, in lower case
+	 */
+	public String keyword(int rank) {
+		return vocabulary[rank];
+	}
+
+	/**
+	 * Draws a rank.
+	 *
+	 * @param random Source of randomness
+	 * @return Rank, 0..vocabularySize()-1, drawn with Zipf's law
+	 */
+	public int nextRank(Random random) {
+		int i = Arrays.binarySearch(cdf, random.nextDouble());
+		return Math.min(i < 0 ? -i - 1 : i, vocabulary.length - 1);
+	}
+
+	/**
+	 * Draws a keyword.
+	 *
+	 * @param random Source of randomness
+	 * @return Keyword, in lower case
+	 */
+	public String nextKeyword(Random random) {
+		return vocabulary[nextRank(random)];
+	}
+
+	/**
+	 * Draws a word as it appears in text: a keyword or a noise word, sometimes capitalized,
+	 * sometimes followed by punctuation, and now and then with a digit in it.
+	 *
+	 * @param random Source of randomness
+	 * @return Word
+	 */
+	public String nextWord(Random random) {
+		String word = random.nextDouble() < NOISE_SHARE
+				? NOISE_WORDS[random.nextInt(NOISE_WORDS.length)] : nextKeyword(random);
+		int dice = random.nextInt(100);
+		if (dice < 10) {
+			word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+		} else if (dice < 11) {
+			word = word + random.nextInt(10);
+		}
+		if (random.nextInt(8) == 0) {
+			word = word + PUNCTUATION.charAt(random.nextInt(PUNCTUATION.length()));
+		}
+		return word;
+	}
+
+	/**
+	 * Draws the text of a document.
+	 *
+	 * @param random Source of randomness
+	 * @param words Number of words
+	 * @return Text, about a dozen words a line
+	 */
+	public String nextDocument(Random random, int words) {
+		StringBuilder sb = new StringBuilder(words * 8);
+		for (int i = 0; i < words; i++) {
+			sb.append(nextWord(random)).append(i % 12 == 11 ? '\n' : ' ');
+		}
+		return sb.append('\n').toString();
+	}
+
+	/**
+	 * Writes a corpus: documents d0.txt, d1.txt, ..., a document list file docs.txt naming
+	 * them by absolute path, and a noise words file noisewords.txt.
+	 *
+	 * @param dir Directory to write to
+	 * @param docs Number of documents
+	 * @param words Average number of words of a document; lengths vary from half to one and a half times that
+	 * @param seed Seed the documents are drawn from
+	 * @return Name of the document list file
+	 * @throws IOException If a file cannot be written
+	 */
+	public String write(Path dir, int docs, int words, long seed)
+	throws IOException {
+		Random random = new Random(seed);
+		Files.createDirectories(dir);
+		Path list = dir.resolve("docs.txt");
+		BufferedWriter names = Files.newBufferedWriter(list, StandardCharsets.UTF_8);
+		try {
+			for (int d = 0; d < docs; d++) {
+				Path doc = dir.resolve("d" + d + ".txt").toAbsolutePath();
+				int length = words / 2 + random.nextInt(words + 1);
+				Files.write(doc, nextDocument(random, length).getBytes(StandardCharsets.UTF_8));
+				names.write(doc.toString());
+				names.newLine();
+			}
+		} finally {
+			names.close();
+		}
+		Files.write(dir.resolve("noisewords.txt"), Arrays.asList(NOISE_WORDS), StandardCharsets.UTF_8);
+		return list.toString();
+	}
+
+	/**
+	 * Returns the noise words file of a corpus written by write.
+	 *
+	 * @param dir Directory the corpus was written to
+	 * @return Name of the noise words file
+	 */
+	public static String noiseWordsFile(Path dir) {
+		return dir.resolve("noisewords.txt").toString();
+	}
+
+	/**
+	 * Deletes a corpus written by write, and its directory.
+	 *
+	 * @param dir Directory the corpus was written to
+	 * @throws IOException If a file cannot be deleted
+	 */
+	public static void delete(Path dir)
+	throws IOException {
+		DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+		try {
+			for (Path file: files) {
+				Files.delete(file);
+			}
+		} finally {
+			files.close();
+		}
+		Files.delete(dir);
+	}
+}
@@ -0,0 +1,332 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Keyword suggestions for a prefix, precomputed: a radix trie of the keywords, in which
+ * every node keeps the K keywords of its subtree with the highest weights, best first. A
+ * prefix is answered by walking down to the node the prefix ends in and reading its list,
+ * so the cost depends on the length of the prefix alone, not on how many keywords have it.
+ *
+ * A node's list is made from its own keyword and the lists of its children, so a change of
+ * weight, or a new keyword, is handled by remaking the lists on the keyword's path from the
+ * bottom up. Keywords are never taken out of the trie; a keyword of weight 0 is left out of
+ * the lists instead.
+ *
+ * Weights are typically the number of documents a keyword occurs in (see
+ * LittleSearchEngine.suggest). Keywords of equal weight are listed in alphabetical order.
+ */
+class Autocomplete {
+
+	/**
+	 * Number of keywords kept at each node, and so the most that can be suggested.
+	 */
+	static final int K = 10;
+
+	private static final int[] NONE = new int[0];
+
+	/**
+	 * A node of the trie. The keyword of the node is the labels on the path from the root,
+	 * down to and including its own.
+	 */
+	private static class Node {
+		String label;
+
+		/**
+		 * Children, in order of the first character of their labels, none of which are empty.
+		 */
+		Node[] children;
+
+		/**
+		 * Id of the keyword that ends at this node, or -1.
+		 */
+		int term = -1;
+
+		/**
+		 * Ids of the best keywords of the subtree, best first.
+		 */
+		int[] top = NONE;
+
+		Node(String label) {
+			this.label = label;
+			children = new Node[0];
+		}
+	}
+
+	private final Node root;
+
+	/**
+	 * Keywords and their weights, by id.
+	 */
+	private final ArrayList<String> terms;
+	private int[] weights;
+
+	/**
+	 * Id of every keyword.
+	 */
+	private final HashMap<String,Integer> ids;
+
+	private Autocomplete() {
+		root = new Node("");
+		terms = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+		weights = new int[16];
+	}
+
+	/**
+	 * Builds the trie of a set of keywords.
+	 *
+	 * @param keywords Keywords, in alphabetical order, without duplicates
+	 * @param weights Weight of each keyword
+	 * @return Trie
+	 */
+	public static Autocomplete build(String[] keywords, int[] weights) {
+		Autocomplete trie = new Autocomplete();
+		trie.weights = Arrays.copyOf(weights, Math.max(16, keywords.length));
+		for (int i = 0; i < keywords.length; i++) {
+			trie.terms.add(keywords[i]);
+			trie.ids.put(keywords[i], i);
+		}
+		if (keywords.length > 0) {
+			ArrayList<Node> children = new ArrayList<Node>();
+			int i = keywords[0].isEmpty() ? 1 : 0;
+			if (i == 1) {
+				trie.root.term = 0;
+			}
+			while (i < keywords.length) {
+				int j = run(keywords, i, keywords.length, 0);
+				children.add(trie.build(keywords, i, j, 0));
+				i = j;
+			}
+			trie.root.children = children.toArray(new Node[children.size()]);
+			trie.best(trie.root);
+		}
+		return trie;
+	}
+
+	/**
+	 * Builds the subtree of a range of sorted keywords that have the same character at a
+	 * depth, and share at least the characters before it with the other keywords.
+	 */
+	private Node build(String[] keywords, int lo, int hi, int depth) {
+		// in a sorted range, the prefix all share is the one the first and last share
+		String first = keywords[lo], last = keywords[hi - 1];
+		int end = depth;
+		int max = Math.min(first.length(), last.length());
+		while (end < max && first.charAt(end) == last.charAt(end)) {
+			end++;
+		}
+		Node node = new Node(first.substring(depth, end));
+		int i = lo;
+		if (first.length() == end) {
+			node.term = lo;
+			i++;
+		}
+		ArrayList<Node> children = new ArrayList<Node>();
+		while (i < hi) {
+			int j = run(keywords, i, hi, end);
+			children.add(build(keywords, i, j, end));
+			i = j;
+		}
+		node.children = children.toArray(new Node[children.size()]);
+		best(node);
+		return node;
+	}
+
+	/**
+	 * Returns the end of the run of keywords, starting at from, with the same character at
+	 * a depth.
+	 */
+	private static int run(String[] keywords, int from, int hi, int depth) {
+		char c = keywords[from].charAt(depth);
+		int j = from + 1;
+		while (j < hi && keywords[j].charAt(depth) == c) {
+			j++;
+		}
+		return j;
+	}
+
+	/**
+	 * Returns the number of keywords in the trie, including those of weight 0.
+	 *
+	 * @return Number of keywords
+	 */
+	public int size() {
+		return terms.size();
+	}
+
+	/**
+	 * Sets the weight of a keyword, adding it to the trie if it is new.
+	 *
+	 * @param keyword Keyword
+	 * @param weight Weight, 0 to leave the keyword out of the suggestions
+	 */
+	public void set(String keyword, int weight) {
+		Integer id = ids.get(keyword);
+		if (id == null) {
+			if (weight == 0) {
+				return;
+			}
+			id = terms.size();
+			terms.add(keyword);
+			ids.put(keyword, id);
+			if (id == weights.length) {
+				weights = Arrays.copyOf(weights, 2 * weights.length);
+			}
+		} else if (weights[id] == weight) {
+			return;
+		}
+		weights[id] = weight;
+		ArrayList<Node> path = path(keyword, id);
+		for (int i = path.size() - 1; i >= 0; i--) {
+			best(path.get(i));
+		}
+	}
+
+	/**
+	 * Returns the best keywords that start with a prefix.
+	 *
+	 * @param prefix Prefix
+	 * @param k Maximum number of keywords, at most K
+	 * @return Keywords that start with the prefix, by decreasing weight
+	 */
+	public ArrayList<String> suggest(String prefix, int k) {
+		Node node = root;
+		int depth = 0;
+		while (depth < prefix.length()) {
+			Node child = child(node, prefix.charAt(depth));
+			if (child == null) {
+				return new ArrayList<String>();
+			}
+			String label = child.label;
+			int n = Math.min(label.length(), prefix.length() - depth);
+			if (!prefix.regionMatches(depth, label, 0, n)) {
+				return new ArrayList<String>();
+			}
+			depth += n;
+			node = child;
+		}
+		int n = Math.min(k, node.top.length);
+		ArrayList<String> result = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++) {
+			result.add(terms.get(node.top[i]));
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the path from the root to the node of a keyword, splitting a node or adding one
+	 * if the keyword is not in the trie yet.
+	 *
+	 * @return Nodes from the root to the keyword's node
+	 */
+	private ArrayList<Node> path(String keyword, int id) {
+		ArrayList<Node> path = new ArrayList<Node>();
+		Node node = root;
+		path.add(node);
+		int depth = 0;
+		while (depth < keyword.length()) {
+			Node child = child(node, keyword.charAt(depth));
+			if (child == null) {
+				Node leaf = new Node(keyword.substring(depth));
+				leaf.term = id;
+				insert(node, leaf);
+				path.add(leaf);
+				return path;
+			}
+			String label = child.label;
+			int shared = 0;
+			int max = Math.min(label.length(), keyword.length() - depth);
+			while (shared < max && label.charAt(shared) == keyword.charAt(depth + shared)) {
+				shared++;
+			}
+			if (shared < label.length()) {
+				// the keyword leaves or ends inside the label: split the child
+				Node split = new Node(label.substring(0, shared));
+				child.label = label.substring(shared);
+				split.children = new Node[] {child};
+				replace(node, child, split);
+				split.top = child.top;
+				child = split;
+			}
+			depth += shared;
+			node = child;
+			path.add(node);
+		}
+		node.term = id;
+		return path;
+	}
+
+	private static Node child(Node node, char c) {
+		Node[] children = node.children;
+		int lo = 0, hi = children.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			char m = children[mid].label.charAt(0);
+			if (m < c) {
+				lo = mid + 1;
+			} else if (m > c) {
+				hi = mid - 1;
+			} else {
+				return children[mid];
+			}
+		}
+		return null;
+	}
+
+	private static void insert(Node node, Node child) {
+		Node[] children = node.children;
+		char c = child.label.charAt(0);
+		int i = 0;
+		while (i < children.length && children[i].label.charAt(0) < c) {
+			i++;
+		}
+		Node[] more = new Node[children.length + 1];
+		System.arraycopy(children, 0, more, 0, i);
+		more[i] = child;
+		System.arraycopy(children, i, more, i + 1, children.length - i);
+		node.children = more;
+	}
+
+	private static void replace(Node node, Node child, Node with) {
+		for (int i = 0; i < node.children.length; i++) {
+			if (node.children[i] == child) {
+				node.children[i] = with;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remakes the list of a node from its own keyword and its children's lists.
+	 */
+	private void best(Node node) {
+		int[] best = new int[K];
+		int n = 0;
+		if (node.term >= 0 && weights[node.term] > 0) {
+			best[n++] = node.term;
+		}
+		for (Node child: node.children) {
+			for (int id: child.top) {
+				if (n == K && !better(id, best[K - 1])) {
+					// the rest of the child's list is no better
+					break;
+				}
+				int i = n < K ? n++ : K - 1;
+				while (i > 0 && better(id, best[i - 1])) {
+					best[i] = best[i - 1];
+					i--;
+				}
+				best[i] = id;
+			}
+		}
+		node.top = n == 0 ? NONE : Arrays.copyOf(best, n);
+	}
+
+	private boolean better(int a, int b) {
+		if (weights[a] != weights[b]) {
+			return weights[a] > weights[b];
+		}
+		return terms.get(a).compareTo(terms.get(b)) < 0;
+	}
+}
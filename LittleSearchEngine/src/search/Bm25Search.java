@@ -0,0 +1,198 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Ranked retrieval with BM25. The score of a document for a query is the sum over the
+ * query keywords in it of
+ * <pre>
+ *   idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength))
+ *   idf = ln(1 + (N - df + 0.5) / (df + 0.5))
+ * </pre>
+ * where tf is the frequency of the keyword in the document, df the number of documents
+ * it occurs in, N the number of documents, and lengths are counted in keyword occurrences.
+ *
+ * The search is the threshold algorithm. Occurrence lists are read from their heads (highest
+ * frequency first), always from the list with the highest bound on what is left in it, and
+ * each new document is scored in full by looking up its frequency for the other keywords in
+ * their document order views. The sum of the bounds of all lists bounds the score of every
+ * document not seen yet, so the search stops as soon as the k-th best score reaches it.
+ * The bound of a list comes from its blocks: the score of a block's highest frequency in its
+ * shortest document is at least the score of anything in the block (see Bounds).
+ */
+class Bm25Search {
+
+	/**
+	 * Term frequency saturation.
+	 */
+	static final double K1 = 1.2;
+
+	/**
+	 * Strength of document length normalization.
+	 */
+	static final double B = 0.75;
+
+	/**
+	 * Per-block statistics of a keyword's occurrences in descending order of frequency,
+	 * from which score bounds are worked out at query time. They do not depend on the
+	 * number or average length of documents, so they stay good until the keyword's own
+	 * occurrences change.
+	 */
+	static class Bounds {
+		/**
+		 * Highest frequency and shortest document length in each block of PostingList.BLOCK.
+		 */
+		final int[] maxFrequency;
+		final int[] minLength;
+
+		/**
+		 * Number of occurrences.
+		 */
+		final int size;
+
+		/**
+		 * Computes the statistics of a keyword.
+		 *
+		 * @param cursor Cursor over the keyword's occurrences, or null if there are none
+		 * @param docs Document table with the document lengths
+		 */
+		Bounds(PostingCursor cursor, DocumentTable docs) {
+			int[] maxF = new int[4];
+			int[] minL = new int[4];
+			int n = 0;
+			while (cursor != null && cursor.next()) {
+				int b = n / PostingList.BLOCK;
+				if (b == maxF.length) {
+					maxF = Arrays.copyOf(maxF, 2 * b);
+					minL = Arrays.copyOf(minL, 2 * b);
+				}
+				int len = docs.length(docs.id(cursor.document()));
+				if (n % PostingList.BLOCK == 0) {
+					maxF[b] = cursor.frequency();
+					minL[b] = len;
+				} else {
+					minL[b] = Math.min(minL[b], len);
+				}
+				n++;
+			}
+			int blocks = (n + PostingList.BLOCK - 1) / PostingList.BLOCK;
+			maxFrequency = Arrays.copyOf(maxF, blocks);
+			minLength = Arrays.copyOf(minL, blocks);
+			size = n;
+		}
+	}
+
+	/**
+	 * Finds the top k documents for a query.
+	 *
+	 * @param engine Engine whose index is searched
+	 * @param keywords Keywords, in lower case
+	 * @param k Maximum number of documents to return
+	 * @return Matching documents, best first, ties in document id order, each paired with its score
+	 */
+	public static ArrayList<Map.Entry<String,Double>> search(LittleSearchEngine engine,
+			List<String> keywords, int k) {
+		DocumentTable docs = engine.documents;
+		double n = docs.indexed();
+		double avgLength = docs.averageLength();
+		ArrayList<String> terms = new ArrayList<String>(new LinkedHashSet<String>(keywords));
+		int m = terms.size();
+
+		PostingCursor[] cursors = new PostingCursor[m];
+		DocIdPostings[] views = new DocIdPostings[m];
+		double[] idf = new double[m];
+		double[][] suffixBound = new double[m][];
+		int[] read = new int[m];
+		int[] size = new int[m];
+		for (int t = 0; t < m; t++) {
+			Bounds bounds = engine.scoreBounds(terms.get(t));
+			size[t] = bounds.size;
+			if (size[t] == 0) {
+				continue;
+			}
+			cursors[t] = engine.cursor(terms.get(t));
+			views[t] = engine.docOrder(terms.get(t));
+			idf[t] = Math.log(1 + (n - size[t] + 0.5) / (size[t] + 0.5));
+			int blocks = bounds.maxFrequency.length;
+			suffixBound[t] = new double[blocks + 1];
+			for (int b = blocks - 1; b >= 0; b--) {
+				double bound = score(idf[t], bounds.maxFrequency[b], bounds.minLength[b], avgLength);
+				suffixBound[t][b] = Math.max(bound, suffixBound[t][b + 1]);
+			}
+		}
+
+		// min-heap of the best k so far, worst on top
+		PriorityQueue<double[]> best = new PriorityQueue<double[]>(Math.max(1, Math.min(k, 1024)),
+				new Comparator<double[]>() {
+					public int compare(double[] a, double[] b) {
+						if (a[0] != b[0]) {
+							return a[0] < b[0] ? -1 : 1;
+						}
+						return Double.compare(b[1], a[1]);
+					}
+				});
+		HashSet<Integer> seen = new HashSet<Integer>();
+		while (k > 0) {
+			double threshold = 0;
+			int next = -1;
+			for (int t = 0; t < m; t++) {
+				if (read[t] < size[t]) {
+					double bound = suffixBound[t][read[t] / PostingList.BLOCK];
+					threshold += bound;
+					if (next < 0 || bound > suffixBound[next][read[next] / PostingList.BLOCK]) {
+						next = t;
+					}
+				}
+			}
+			if (next < 0 || (best.size() == k && best.peek()[0] >= threshold)) {
+				break;
+			}
+			cursors[next].next();
+			read[next]++;
+			int doc = docs.id(cursors[next].document());
+			if (!seen.add(doc)) {
+				continue;
+			}
+			double score = 0;
+			for (int t = 0; t < m; t++) {
+				int tf = t == next ? cursors[next].frequency() : frequency(views[t], doc);
+				if (tf > 0) {
+					score += score(idf[t], tf, docs.length(doc), avgLength);
+				}
+			}
+			if (best.size() < k) {
+				best.add(new double[] {score, doc});
+			} else if (score > best.peek()[0] || (score == best.peek()[0] && doc < best.peek()[1])) {
+				best.poll();
+				best.add(new double[] {score, doc});
+			}
+		}
+
+		ArrayList<Map.Entry<String,Double>> result = new ArrayList<Map.Entry<String,Double>>(best.size());
+		while (!best.isEmpty()) {
+			double[] e = best.poll();
+			result.add(new AbstractMap.SimpleEntry<String,Double>(docs.name((int)e[1]), e[0]));
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * BM25 contribution of one keyword to a document's score.
+	 */
+	static double score(double idf, int tf, int length, double avgLength) {
+		double norm = avgLength > 0 ? 1 - B + B * length / avgLength : 1;
+		return idf * tf * (K1 + 1) / (tf + K1 * norm);
+	}
+
+	/**
+	 * Looks up the frequency of a keyword in a document through its document order view.
+	 */
+	private static int frequency(DocIdPostings view, int doc) {
+		if (view == null) {
+			return 0;
+		}
+		int i = view.advance(0, doc);
+		return i < view.size() && view.docs[i] == doc ? view.freqs[i] : 0;
+	}
+}
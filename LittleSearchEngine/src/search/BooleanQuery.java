@@ -0,0 +1,408 @@
+package search;
+
+import java.util.*;
+
+/**
+ * A boolean keyword query. The query language is:
+ * <pre>
+ *   query   := and ( "OR" and )*
+ *   and     := unary ( ["AND"] unary )*
+ *   unary   := "NOT" unary | "(" query ")" | keyword
+ * </pre>
+ * Operators are upper case, and two terms next to each other are ANDed. A NOT must be
+ * ANDed with something that is not negated ("data AND NOT heap" is fine, "NOT heap" and
+ * "data OR NOT heap" are not), since there is no list of all documents to subtract from.
+ *
+ * A query is run on the document order view of each keyword (see DocIdPostings). ANDs
+ * leapfrog: the list with the fewest documents leads, and the others jump to each candidate
+ * over their skip pointers, so an AND costs about as much as its shortest list. Matches
+ * rank by the highest frequency of any matched keyword, as in top5search.
+ */
+class BooleanQuery {
+
+	/**
+	 * Parsed query tree.
+	 */
+	private abstract static class Node {
+	}
+
+	private static class Term extends Node {
+		final String keyword;
+		Term(String keyword) { this.keyword = keyword; }
+	}
+
+	private static class Not extends Node {
+		final Node child;
+		Not(Node child) { this.child = child; }
+	}
+
+	private static class And extends Node {
+		final ArrayList<Node> children = new ArrayList<Node>();
+	}
+
+	private static class Or extends Node {
+		final ArrayList<Node> children = new ArrayList<Node>();
+	}
+
+	/**
+	 * Root of the parsed query.
+	 */
+	private final Node root;
+
+	/**
+	 * Tokens of the query, and the parse position.
+	 */
+	private final ArrayList<String> tokens;
+	private int pos;
+
+	/**
+	 * Parses a query.
+	 *
+	 * @param query Query text
+	 * @throws IllegalArgumentException If the query is not well formed
+	 */
+	public BooleanQuery(String query) {
+		tokens = tokenize(query);
+		pos = 0;
+		if (tokens.isEmpty()) {
+			throw new IllegalArgumentException("Empty query");
+		}
+		root = parseOr();
+		if (pos < tokens.size()) {
+			throw new IllegalArgumentException("Unexpected '" + tokens.get(pos) + "' in query");
+		}
+		if (root instanceof Not) {
+			throw new IllegalArgumentException("A query cannot be only negated keywords");
+		}
+	}
+
+	/**
+	 * Returns the keywords of the query, negated or not.
+	 *
+	 * @return Keywords, in lower case
+	 */
+	public Set<String> keywords() {
+		HashSet<String> keywords = new HashSet<String>();
+		collect(root, keywords);
+		return keywords;
+	}
+
+	/**
+	 * Runs the query.
+	 *
+	 * @param engine Engine whose index is searched
+	 * @param k Maximum number of documents to return
+	 * @return Occurrences of the matching documents, each with the frequency it ranks by,
+	 *         best first, ties in document id order; empty if no document matches
+	 */
+	public ArrayList<Occurrence> run(LittleSearchEngine engine, int k) {
+		DocIterator it = iterator(root, engine);
+		// min-heap of the best k so far, worst on top
+		PriorityQueue<long[]> best = new PriorityQueue<long[]>(Math.max(1, Math.min(k, 1024)),
+				new Comparator<long[]>() {
+					public int compare(long[] a, long[] b) {
+						if (a[1] != b[1]) {
+							return a[1] < b[1] ? -1 : 1;
+						}
+						return a[0] > b[0] ? -1 : a[0] < b[0] ? 1 : 0;
+					}
+				});
+		for (int doc = it.next(); doc != DocIterator.END; doc = it.next()) {
+			int score = it.score();
+			if (best.size() < k) {
+				best.add(new long[] {doc, score});
+			} else if (k > 0 && (score > best.peek()[1] || (score == best.peek()[1] && doc < best.peek()[0]))) {
+				best.poll();
+				best.add(new long[] {doc, score});
+			}
+		}
+		ArrayList<Occurrence> result = new ArrayList<Occurrence>(best.size());
+		while (!best.isEmpty()) {
+			long[] e = best.poll();
+			result.add(new Occurrence(engine.documents.name((int)e[0]), (int)e[1]));
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	private static void collect(Node node, Set<String> keywords) {
+		if (node instanceof Term) {
+			keywords.add(((Term)node).keyword);
+		} else if (node instanceof Not) {
+			collect(((Not)node).child, keywords);
+		} else {
+			ArrayList<Node> children = node instanceof And ? ((And)node).children : ((Or)node).children;
+			for (Node child: children) {
+				collect(child, keywords);
+			}
+		}
+	}
+
+	private static ArrayList<String> tokenize(String query) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		StringTokenizer st = new StringTokenizer(query, " \t\n\r\f()", true);
+		while (st.hasMoreTokens()) {
+			String t = st.nextToken();
+			if (!t.trim().isEmpty()) {
+				tokens.add(t);
+			}
+		}
+		return tokens;
+	}
+
+	private Node parseOr() {
+		Node first = parseAnd();
+		if (!peek("OR")) {
+			return first;
+		}
+		Or or = new Or();
+		or.children.add(first);
+		while (peek("OR")) {
+			pos++;
+			or.children.add(parseAnd());
+		}
+		for (Node child: or.children) {
+			if (child instanceof Not) {
+				throw new IllegalArgumentException("NOT cannot be an alternative of OR");
+			}
+		}
+		return or;
+	}
+
+	private Node parseAnd() {
+		Node first = parseUnary();
+		if (pos == tokens.size() || peek("OR") || peek(")")) {
+			return first;
+		}
+		And and = new And();
+		and.children.add(first);
+		while (pos < tokens.size() && !peek("OR") && !peek(")")) {
+			if (peek("AND")) {
+				pos++;
+			}
+			and.children.add(parseUnary());
+		}
+		boolean positive = false;
+		for (Node child: and.children) {
+			positive |= !(child instanceof Not);
+		}
+		if (!positive) {
+			throw new IllegalArgumentException("AND needs at least one keyword that is not negated");
+		}
+		return and;
+	}
+
+	private Node parseUnary() {
+		if (pos == tokens.size()) {
+			throw new IllegalArgumentException("Query ends too early");
+		}
+		String t = tokens.get(pos++);
+		if (t.equals("NOT")) {
+			Node child = parseUnary();
+			if (child instanceof Not) {
+				return ((Not)child).child;
+			}
+			return new Not(child);
+		}
+		if (t.equals("(")) {
+			Node inner = parseOr();
+			if (!peek(")")) {
+				throw new IllegalArgumentException("Missing ')' in query");
+			}
+			pos++;
+			return inner;
+		}
+		if (t.equals(")") || t.equals("AND") || t.equals("OR")) {
+			throw new IllegalArgumentException("Unexpected '" + t + "' in query");
+		}
+		return new Term(t.toLowerCase());
+	}
+
+	private boolean peek(String token) {
+		return pos < tokens.size() && tokens.get(pos).equals(token);
+	}
+
+	/**
+	 * Builds the iterator for a query tree. NOT nodes only appear as children of an AND.
+	 */
+	private static DocIterator iterator(Node node, LittleSearchEngine engine) {
+		if (node instanceof Term) {
+			return new TermIterator(engine.docOrder(((Term)node).keyword));
+		}
+		if (node instanceof Or) {
+			ArrayList<DocIterator> children = new ArrayList<DocIterator>();
+			for (Node child: ((Or)node).children) {
+				children.add(iterator(child, engine));
+			}
+			return new OrIterator(children);
+		}
+		ArrayList<DocIterator> positive = new ArrayList<DocIterator>();
+		ArrayList<DocIterator> negative = new ArrayList<DocIterator>();
+		for (Node child: ((And)node).children) {
+			if (child instanceof Not) {
+				negative.add(iterator(((Not)child).child, engine));
+			} else {
+				positive.add(iterator(child, engine));
+			}
+		}
+		return new AndIterator(positive, negative);
+	}
+
+	/**
+	 * Walks the documents that match part of a query, in increasing order of id.
+	 */
+	abstract static class DocIterator {
+		static final int END = Integer.MAX_VALUE;
+
+		/**
+		 * Current document, -1 before the first call, END when done.
+		 */
+		int doc = -1;
+
+		/**
+		 * Moves to the first matching document with id at least target; target must be
+		 * greater than the current document.
+		 *
+		 * @return The new current document, or END
+		 */
+		abstract int advance(int target);
+
+		/**
+		 * Moves to the next matching document.
+		 *
+		 * @return The new current document, or END
+		 */
+		int next() {
+			return advance(doc + 1);
+		}
+
+		/**
+		 * Returns the highest frequency of a matched keyword in the current document.
+		 */
+		abstract int score();
+
+		/**
+		 * Returns an upper bound on the number of matching documents.
+		 */
+		abstract int cost();
+	}
+
+	private static class TermIterator extends DocIterator {
+		private final DocIdPostings postings;
+		private int i = -1;
+
+		TermIterator(DocIdPostings postings) {
+			this.postings = postings;
+		}
+
+		int advance(int target) {
+			i = postings.advance(Math.max(i, 0), target);
+			doc = i < postings.size() ? postings.docs[i] : END;
+			return doc;
+		}
+
+		int score() {
+			return postings.freqs[i];
+		}
+
+		int cost() {
+			return postings.size();
+		}
+	}
+
+	private static class AndIterator extends DocIterator {
+		private final DocIterator[] positive;
+		private final DocIterator[] negative;
+
+		AndIterator(ArrayList<DocIterator> positive, ArrayList<DocIterator> negative) {
+			this.positive = positive.toArray(new DocIterator[positive.size()]);
+			this.negative = negative.toArray(new DocIterator[negative.size()]);
+			Arrays.sort(this.positive, new Comparator<DocIterator>() {
+				public int compare(DocIterator a, DocIterator b) {
+					return Integer.compare(a.cost(), b.cost());
+				}
+			});
+		}
+
+		int advance(int target) {
+			while (true) {
+				int d = positive[0].doc >= target ? positive[0].doc : positive[0].advance(target);
+				if (d == END) {
+					return doc = END;
+				}
+				boolean all = true;
+				for (int j = 1; j < positive.length && all; j++) {
+					int other = positive[j].doc >= d ? positive[j].doc : positive[j].advance(d);
+					if (other != d) {
+						target = other;
+						all = false;
+					}
+				}
+				if (!all) {
+					if (target == END) {
+						return doc = END;
+					}
+					continue;
+				}
+				boolean excluded = false;
+				for (DocIterator n: negative) {
+					if ((n.doc >= d ? n.doc : n.advance(d)) == d) {
+						excluded = true;
+						break;
+					}
+				}
+				if (!excluded) {
+					return doc = d;
+				}
+				target = d + 1;
+			}
+		}
+
+		int score() {
+			int max = 0;
+			for (DocIterator p: positive) {
+				max = Math.max(max, p.score());
+			}
+			return max;
+		}
+
+		int cost() {
+			return positive[0].cost();
+		}
+	}
+
+	private static class OrIterator extends DocIterator {
+		private final DocIterator[] children;
+
+		OrIterator(ArrayList<DocIterator> children) {
+			this.children = children.toArray(new DocIterator[children.size()]);
+		}
+
+		int advance(int target) {
+			int min = END;
+			for (DocIterator c: children) {
+				int d = c.doc >= target ? c.doc : c.advance(target);
+				min = Math.min(min, d);
+			}
+			return doc = min;
+		}
+
+		int score() {
+			int max = 0;
+			for (DocIterator c: children) {
+				if (c.doc == doc) {
+					max = Math.max(max, c.score());
+				}
+			}
+			return max;
+		}
+
+		int cost() {
+			long sum = 0;
+			for (DocIterator c: children) {
+				sum += c.cost();
+			}
+			return (int)Math.min(sum, Integer.MAX_VALUE);
+		}
+	}
+}
@@ -0,0 +1,464 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Merges the keywords of many documents at once, for makeIndex and mergeDocuments. Occurrences
+ * are appended to their keyword's list in the engine as documents come in, and the new ones
+ * are put in their places once at the end, instead of with one insertLastOccurrence per
+ * document, which shifts on average half the list each time and so costs time quadratic in
+ * the length of the list. Only the new occurrences are sorted; they are then merged into the
+ * list in place, from the back, so the part of the list in front of the first of them is
+ * neither copied nor looked at beyond a binary search per distinct frequency.
+ *
+ * The order is exactly the one insertLastOccurrence would have built, ties included. Where
+ * insertLastOccurrence puts an occurrence among others of the same frequency depends only on
+ * how many occurrences of higher, equal and lower frequency the list had at the time, so the
+ * binary search can be replayed from counts alone (see places). That gives, for every new
+ * occurrence, the place it was inserted at among its equals; working backwards from the last
+ * one inserted, the place of each in the final run of equals is the one it took among the
+ * places left free by the occurrences inserted after it, and the occurrences that were in the
+ * list before fill the places left over, in the order they were in.
+ */
+class BulkMerge {
+
+	/**
+	 * Lists with at least this many new occurrences have their frequencies sorted with
+	 * Arrays.parallelSort.
+	 */
+	static final int PARALLEL_SORT = 1 << 13;
+
+	/**
+	 * Runs of equals that get at most this many new occurrences keep the places taken in a
+	 * sorted array rather than in a Fenwick tree as long as the run.
+	 */
+	private static final int FEW = 32;
+
+	/**
+	 * Engine the lists are merged into.
+	 */
+	private final LittleSearchEngine engine;
+
+	/**
+	 * By term id (see TermIndex), the list of every keyword touched since the last clear,
+	 * or null, and the number of occurrences at the front of it that were already in the
+	 * engine, in order.
+	 */
+	private ArrayList<Occurrence>[] lists;
+	private int[] sorted;
+
+	/**
+	 * By term id, where to note the changes to each list for the engine's next snapshot, or
+	 * null if there is nowhere to note them.
+	 */
+	private IndexSnapshot.Edits[] edits;
+
+	/**
+	 * Term ids of the keywords touched since the last clear; count of them are in use.
+	 */
+	private int[] touched;
+	private int count;
+
+	/**
+	 * Initializes an empty merge.
+	 *
+	 * @param engine Engine whose lists new occurrences are added to
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public BulkMerge(LittleSearchEngine engine) {
+		this.engine = engine;
+		lists = new ArrayList[1024];
+		sorted = new int[1024];
+		edits = new IndexSnapshot.Edits[1024];
+		touched = new int[1024];
+	}
+
+	/**
+	 * Adds the keywords of a document. The occurrences are appended to the engine's lists,
+	 * which are out of order until every stripe has been sorted.
+	 *
+	 * @param kws Keywords hash table for a document
+	 */
+	public void add(HashMap<String,Occurrence> kws) {
+		for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+			int id = engine.termIndex.find(e.getKey());
+			if (id < 0 || id >= lists.length || lists[id] == null) {
+				id = engine.mergeTarget(e.getKey());
+				touch(id, e.getKey());
+			}
+			lists[id].add(e.getValue());
+		}
+	}
+
+	/**
+	 * Takes the list of a keyword into the merge.
+	 */
+	private void touch(int id, String keyword) {
+		if (id >= lists.length) {
+			int n = Math.max(2 * lists.length, id + 1);
+			lists = Arrays.copyOf(lists, n);
+			sorted = Arrays.copyOf(sorted, n);
+			edits = Arrays.copyOf(edits, n);
+		}
+		if (count == touched.length) {
+			touched = Arrays.copyOf(touched, 2 * count);
+		}
+		lists[id] = engine.termIndex.list(id);
+		sorted[id] = lists[id].size();
+		edits[id] = engine.edits(keyword);
+		touched[count++] = id;
+	}
+
+	/**
+	 * Puts the lists of one stripe of keywords in order. Different stripes can be sorted by
+	 * different threads at the same time.
+	 *
+	 * @param stripe Stripe to sort
+	 * @param stripes Number of stripes; a keyword is in the stripe its term id gives modulo stripes
+	 */
+	public void sortStripe(int stripe, int stripes) {
+		for (int i = 0; i < count; i++) {
+			int id = touched[i];
+			if (id % stripes == stripe) {
+				sort(lists[id], sorted[id], edits[id]);
+			}
+		}
+	}
+
+	/**
+	 * Forgets every list, to start the next merge.
+	 */
+	public void clear() {
+		for (int i = 0; i < count; i++) {
+			lists[touched[i]] = null;
+			edits[touched[i]] = null;
+		}
+		count = 0;
+	}
+
+	/**
+	 * Puts a list in the order insertLastOccurrence leaves it in when called after each
+	 * occurrence past the first few is added.
+	 *
+	 * @param occs Occurrences, the first ones in order and the rest in the order they were added
+	 * @param sorted Number of occurrences at the front of the list that are already in order
+	 */
+	static void sort(ArrayList<Occurrence> occs, int sorted) {
+		sort(occs, sorted, null);
+	}
+
+	/**
+	 * Same as sort, noting where the new occurrences went.
+	 *
+	 * @param occs Occurrences, the first ones in order and the rest in the order they were added
+	 * @param sorted Number of occurrences at the front of the list that are already in order
+	 * @param edits Where to note the places of the new occurrences, or null
+	 */
+	static void sort(ArrayList<Occurrence> occs, int sorted, IndexSnapshot.Edits edits) {
+		int n = occs.size();
+		int p = Math.max(sorted, 1);
+		int m = n - p;
+		if (m <= 0) {
+			return;
+		}
+		Occurrence[] added = new Occurrence[m];
+		int[] freqs = new int[m];
+		for (int i = 0; i < m; i++) {
+			added[i] = occs.get(p + i);
+			freqs[i] = added[i].frequency;
+		}
+		int[] distinct = distinct(freqs, m);
+		int d = distinct.length;
+		int[] above = new int[d];
+		int[] equal = new int[d];
+		for (int r = 0; r < d; r++) {
+			above[r] = firstAtOrBelow(occs, p, distinct[r]);
+			equal[r] = firstAtOrBelow(occs, p, distinct[r] - 1) - above[r];
+		}
+		int[] to = places(freqs, m, distinct, above, equal, p);
+
+		// merge from the back, each old occurrence moving down by the new ones placed after it
+		long[] byPlace = new long[m];
+		for (int i = 0; i < m; i++) {
+			byPlace[i] = (long)to[i] << 32 | i;
+		}
+		Arrays.sort(byPlace);
+		int old = p - 1;
+		for (int j = m - 1; j >= 0; j--) {
+			int place = (int)(byPlace[j] >>> 32);
+			while (old >= 0 && old + j + 1 > place) {
+				occs.set(old + j + 1, occs.get(old));
+				old--;
+			}
+			occs.set(place, added[(int)byPlace[j]]);
+		}
+		if (edits != null) {
+			int[] at = new int[m];
+			for (int i = 0; i < m; i++) {
+				at[i] = (int)(byPlace[i] >>> 32);
+			}
+			edits.inserted(at, m);
+		}
+	}
+
+	/**
+	 * Works out the order insertLastOccurrence would put a list in, from the frequencies alone.
+	 *
+	 * @param freqs Frequencies, the first ones in order and the rest in the order they were added
+	 * @param n Number of frequencies
+	 * @param sorted Number of frequencies at the front that are already in order
+	 * @return Index in freqs of the occurrence at each place of the ordered list
+	 */
+	static int[] order(int[] freqs, int n, int sorted) {
+		int[] order = new int[n];
+		int p = Math.min(n, Math.max(sorted, 1));
+		int m = n - p;
+		int[] added = Arrays.copyOfRange(freqs, p, n);
+		int[] distinct = distinct(added, m);
+		int d = distinct.length;
+		int[] above = new int[d];
+		int[] equal = new int[d];
+		for (int r = 0; r < d; r++) {
+			above[r] = firstAtOrBelow(freqs, p, distinct[r]);
+			equal[r] = firstAtOrBelow(freqs, p, distinct[r] - 1) - above[r];
+		}
+		int[] to = places(added, m, distinct, above, equal, p);
+		boolean[] taken = new boolean[n];
+		for (int i = 0; i < m; i++) {
+			order[to[i]] = p + i;
+			taken[to[i]] = true;
+		}
+		int old = 0;
+		for (int j = 0; j < n; j++) {
+			if (!taken[j]) {
+				order[j] = old++;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Works out where insertLastOccurrence puts occurrences added one by one to a list that
+	 * is in order.
+	 *
+	 * @param added Frequencies of the added occurrences, in the order they were added
+	 * @param m Number of added occurrences
+	 * @param distinct Distinct frequencies of the added occurrences, highest first
+	 * @param above For each distinct frequency, the number of occurrences of higher frequency
+	 *        in the list before any were added
+	 * @param equal For each distinct frequency, the number of occurrences of that frequency
+	 *        in the list before any were added
+	 * @param size Length of the list before any were added, at least 1
+	 * @return Index of each added occurrence in the final list
+	 */
+	static int[] places(int[] added, int m, int[] distinct, int[] above, int[] equal, int size) {
+		int d = distinct.length;
+		int[] rank = new int[m];
+		for (int i = 0; i < m; i++) {
+			rank[i] = rankOf(distinct, d, added[i]);
+		}
+
+		// replay the insertions, keeping count of the added occurrences of each rank so far
+		int[] higher = new int[d + 1];
+		int[] count = new int[d];
+		int[] place = new int[m];
+		for (int i = 0; i < m; i++) {
+			int r = rank[i];
+			place[i] = replay(above[r] + sum(higher, r), equal[r] + count[r], size + i);
+			count[r]++;
+			add(higher, r, 1);
+		}
+
+		// final place of each added occurrence among its equals, from the last one inserted back
+		int[] start = new int[d];
+		int before = 0;
+		for (int r = 0; r < d; r++) {
+			start[r] = above[r] + before;
+			before += count[r];
+		}
+		int[][] free = new int[d][];
+		int[] takenCount = new int[d];
+		int[] to = new int[m];
+		for (int i = m - 1; i >= 0; i--) {
+			int r = rank[i];
+			int slot;
+			if (count[r] <= FEW) {
+				// few places are taken: skip over them in a sorted array
+				if (free[r] == null) {
+					free[r] = new int[count[r]];
+				}
+				slot = skipTaken(free[r], takenCount[r], place[i]);
+				takenCount[r]++;
+			} else {
+				if (free[r] == null) {
+					free[r] = allFree(equal[r] + count[r]);
+				}
+				slot = nth(free[r], place[i] + 1);
+				add(free[r], slot, -1);
+			}
+			to[i] = start[r] + slot;
+		}
+		return to;
+	}
+
+	/**
+	 * Returns the free place with a given number of free places before it, and marks it taken.
+	 *
+	 * @param taken Places taken so far, in increasing order; one more is inserted
+	 * @param count Number of places taken so far
+	 * @param k Number of free places before the one wanted
+	 * @return Place
+	 */
+	private static int skipTaken(int[] taken, int count, int k) {
+		int slot = k;
+		int j = 0;
+		while (j < count && taken[j] <= slot) {
+			slot++;
+			j++;
+		}
+		System.arraycopy(taken, j, taken, j + 1, count - j);
+		taken[j] = slot;
+		return slot;
+	}
+
+	/**
+	 * Returns the distinct values of an array, highest first.
+	 */
+	private static int[] distinct(int[] freqs, int n) {
+		int[] ascending = Arrays.copyOf(freqs, n);
+		if (n >= PARALLEL_SORT) {
+			Arrays.parallelSort(ascending);
+		} else {
+			Arrays.sort(ascending);
+		}
+		int[] distinct = new int[n];
+		int d = 0;
+		for (int i = n - 1; i >= 0; i--) {
+			if (d == 0 || ascending[i] != distinct[d - 1]) {
+				distinct[d++] = ascending[i];
+			}
+		}
+		return Arrays.copyOf(distinct, d);
+	}
+
+	/**
+	 * Returns the number of occurrences at the front of a list in order that have a higher
+	 * frequency than a given one.
+	 */
+	private static int firstAtOrBelow(ArrayList<Occurrence> occs, int n, int freq) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (occs.get(mid).frequency > freq) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Same as firstAtOrBelow, on frequencies.
+	 */
+	private static int firstAtOrBelow(int[] freqs, int n, int freq) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (freqs[mid] > freq) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns a Fenwick tree of n entries of 1.
+	 */
+	private static int[] allFree(int n) {
+		int[] tree = new int[n + 1];
+		for (int i = 1; i <= n; i++) {
+			tree[i] = i & -i;
+		}
+		return tree;
+	}
+
+	/**
+	 * Replays the binary search of insertLastOccurrence.
+	 *
+	 * @param above Number of occurrences in the list of higher frequency
+	 * @param equal Number of occurrences in the list of the same frequency
+	 * @param size Length of the list
+	 * @return Place among the occurrences of the same frequency at which the new one goes
+	 */
+	static int replay(int above, int equal, int size) {
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = lo + (hi - lo) / 2;
+			if (mid < above) {
+				lo = mid + 1;
+			} else if (mid >= above + equal) {
+				hi = mid - 1;
+			} else {
+				return mid + 1 - above;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the place of a frequency among the distinct frequencies, highest first.
+	 */
+	static int rankOf(int[] distinct, int d, int freq) {
+		int lo = 0;
+		int hi = d - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (distinct[mid] > freq) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Adds to entry i of a Fenwick tree (tree[0] unused).
+	 */
+	static void add(int[] tree, int i, int v) {
+		for (i++; i < tree.length; i += i & -i) {
+			tree[i] += v;
+		}
+	}
+
+	/**
+	 * Returns the sum of entries 0..i-1 of a Fenwick tree.
+	 */
+	static int sum(int[] tree, int i) {
+		int s = 0;
+		for (; i > 0; i -= i & -i) {
+			s += tree[i];
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the smallest i such that entries 0..i of a Fenwick tree add up to at least k.
+	 */
+	private static int nth(int[] tree, int k) {
+		int i = 0;
+		for (int step = Integer.highestOneBit(tree.length); step > 0; step >>= 1) {
+			if (i + step < tree.length && tree[i + step] < k) {
+				i += step;
+				k -= tree[i];
+			}
+		}
+		return i;
+	}
+}
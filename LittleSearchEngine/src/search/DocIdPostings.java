@@ -0,0 +1,132 @@
+package search;
+
+/**
+ * The occurrences of a keyword in increasing order of document id, for queries that
+ * need to line up several keywords document by document. The ids are cut into blocks of
+ * SKIP, and the last id of every block is kept as a skip pointer, so that a cursor can
+ * move ahead to a given document by jumping over whole blocks.
+ */
+class DocIdPostings {
+
+	/**
+	 * Number of ids between skip pointers.
+	 */
+	static final int SKIP = 64;
+
+	/**
+	 * Document ids, in increasing order.
+	 */
+	final int[] docs;
+
+	/**
+	 * Frequencies, parallel to docs.
+	 */
+	final int[] freqs;
+
+	/**
+	 * Last document id of each block.
+	 */
+	final int[] skips;
+
+	/**
+	 * Builds the document order view of a keyword's occurrences.
+	 *
+	 * @param cursor Cursor over the occurrences, or null if there are none
+	 * @param table Table that gives documents their ids
+	 */
+	public DocIdPostings(PostingCursor cursor, DocumentTable table) {
+		int[] d = new int[16];
+		int[] f = new int[16];
+		int n = 0;
+		while (cursor != null && cursor.next()) {
+			if (n == d.length) {
+				d = grow(d);
+				f = grow(f);
+			}
+			d[n] = table.id(cursor.document());
+			f[n] = cursor.frequency();
+			n++;
+		}
+		long[] pairs = new long[n];
+		for (int i = 0; i < n; i++) {
+			pairs[i] = ((long)d[i] << 32) | f[i];
+		}
+		java.util.Arrays.sort(pairs);
+		docs = new int[n];
+		freqs = new int[n];
+		for (int i = 0; i < n; i++) {
+			docs[i] = (int)(pairs[i] >>> 32);
+			freqs[i] = (int)pairs[i];
+		}
+		skips = new int[(n + SKIP - 1) / SKIP];
+		for (int b = 0; b < skips.length; b++) {
+			skips[b] = docs[Math.min(n, (b + 1) * SKIP) - 1];
+		}
+	}
+
+	/**
+	 * Returns the number of documents.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return docs.length;
+	}
+
+	/**
+	 * Finds the first position at or after from whose document id is at least target.
+	 * Blocks that end before target are skipped through their skip pointers, then the one
+	 * block that can hold target is binary searched.
+	 *
+	 * @param from Position to start at
+	 * @param target Document id to look for
+	 * @return Position, or size() if every remaining id is less than target
+	 */
+	public int advance(int from, int target) {
+		int n = docs.length;
+		if (from >= n || docs[from] >= target) {
+			return from;
+		}
+		int b = from / SKIP;
+		if (skips[b] < target) {
+			// gallop over the skip pointers, then binary search the bracketed range
+			int step = 1;
+			int lo = b + 1, hi = b + 1;
+			while (hi < skips.length && skips[hi] < target) {
+				lo = hi + 1;
+				hi += step;
+				step <<= 1;
+			}
+			hi = Math.min(hi, skips.length - 1);
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (skips[mid] < target) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			if (lo >= skips.length || skips[lo] < target) {
+				return n;
+			}
+			b = lo;
+			from = b * SKIP;
+		}
+		int lo = from, hi = Math.min(n, (b + 1) * SKIP) - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (docs[mid] < target) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static int[] grow(int[] a) {
+		int[] bigger = new int[2 * a.length];
+		System.arraycopy(a, 0, bigger, 0, a.length);
+		return bigger;
+	}
+}
@@ -0,0 +1,123 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+
+/**
+ * Feeds the text of a document file to a keyword tokenizer. Small files are read through
+ * a Reader. Files at or above a size threshold are memory mapped a window at a time and
+ * decoded straight from the mapped bytes into a small reusable char buffer, so the file
+ * contents are never copied onto the heap as a whole. Text is decoded with the platform
+ * default charset, the same one Scanner uses, and malformed input is replaced.
+ */
+class DocumentScanner {
+
+	/**
+	 * Number of bytes of a file mapped at once.
+	 */
+	static final int MAP_WINDOW = 64 << 20;
+
+	/**
+	 * Number of characters decoded at a time.
+	 */
+	static final int CHAR_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Scans a document, passing all its text to the tokenizer, and finishing the tokenizer.
+	 *
+	 * @param docFile Name of the document file
+	 * @param tokenizer Tokenizer to feed
+	 * @param mapThreshold Size in bytes at or above which the file is memory mapped
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws UncheckedIOException If the document file cannot be read
+	 */
+	public static void scan(String docFile, KeywordTokenizer tokenizer, long mapThreshold)
+	throws FileNotFoundException {
+		FileInputStream in = new FileInputStream(docFile);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() >= mapThreshold) {
+				scanMapped(channel, tokenizer);
+			} else {
+				scanReader(new InputStreamReader(in), tokenizer);
+			}
+			tokenizer.finish();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error reading " + docFile, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing was lost, the document has been read
+			}
+		}
+	}
+
+	/**
+	 * Scans text from a Reader, passing all of it to the tokenizer, and finishing the tokenizer.
+	 *
+	 * @param in Text to scan, read to the end but not closed
+	 * @param tokenizer Tokenizer to feed
+	 * @throws IOException If the text cannot be read
+	 */
+	public static void scan(Reader in, KeywordTokenizer tokenizer)
+	throws IOException {
+		scanReader(in, tokenizer);
+		tokenizer.finish();
+	}
+
+	private static void scanReader(Reader in, KeywordTokenizer tokenizer)
+	throws IOException {
+		char[] buf = new char[8192];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			tokenizer.feed(buf, 0, n);
+		}
+	}
+
+	/**
+	 * Maps the file one window after another. A multi-byte character cut off at the end of
+	 * a window is left undecoded, and the next window starts at its first byte.
+	 */
+	private static void scanMapped(FileChannel channel, KeywordTokenizer tokenizer)
+	throws IOException {
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+		long size = channel.size();
+		long pos = 0;
+		while (true) {
+			long len = Math.min(MAP_WINDOW, size - pos);
+			boolean last = pos + len == size;
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+			decode(decoder, bytes, chars, last, tokenizer);
+			if (last) {
+				break;
+			}
+			pos += bytes.position();
+		}
+		while (decoder.flush(chars) == CoderResult.OVERFLOW) {
+			drain(chars, tokenizer);
+		}
+		drain(chars, tokenizer);
+	}
+
+	private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars,
+			boolean last, KeywordTokenizer tokenizer) {
+		while (decoder.decode(bytes, chars, last) == CoderResult.OVERFLOW) {
+			drain(chars, tokenizer);
+		}
+		drain(chars, tokenizer);
+	}
+
+	private static void drain(CharBuffer chars, KeywordTokenizer tokenizer) {
+		chars.flip();
+		tokenizer.feed(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+		chars.clear();
+	}
+}
@@ -0,0 +1,143 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Numbers documents, so that compact posting lists can refer to a document with a small
+ * int instead of a String reference. Ids are handed out in order starting at 0, and a
+ * document keeps its id for the life of the table.
+ *
+ * The table also keeps the length of every document that is in the index, counted in
+ * keyword occurrences, for ranking functions that normalize by document length. A document
+ * that has been removed from the index keeps its id but has length 0.
+ */
+class DocumentTable {
+
+	/**
+	 * Document names, by id.
+	 */
+	private final ArrayList<String> names;
+
+	/**
+	 * Ids, by document name.
+	 */
+	private final HashMap<String,Integer> ids;
+
+	/**
+	 * Document lengths, by id.
+	 */
+	private int[] lengths;
+
+	/**
+	 * Number of documents with a length, and the sum of their lengths.
+	 */
+	private int indexed;
+	private long totalLength;
+
+	/**
+	 * Initializes an empty table.
+	 */
+	public DocumentTable() {
+		names = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+		lengths = new int[16];
+	}
+
+	/**
+	 * Returns the id of a document, giving it the next free id if it does not have one yet.
+	 *
+	 * @param name Document name
+	 * @return Document id
+	 */
+	public int id(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			names.add(name);
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a document without giving it one.
+	 *
+	 * @param name Document name
+	 * @return Document id, or -1 if the document has no id
+	 */
+	public int find(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Sets the length of a document, 0 when it leaves the index.
+	 *
+	 * @param id Document id
+	 * @param length Number of keyword occurrences in the document
+	 */
+	public void setLength(int id, int length) {
+		if (id >= lengths.length) {
+			int[] bigger = new int[Math.max(2 * lengths.length, id + 1)];
+			System.arraycopy(lengths, 0, bigger, 0, lengths.length);
+			lengths = bigger;
+		}
+		if (lengths[id] > 0) {
+			indexed--;
+			totalLength -= lengths[id];
+		}
+		lengths[id] = length;
+		if (length > 0) {
+			indexed++;
+			totalLength += length;
+		}
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param id Document id
+	 * @return Number of keyword occurrences in the document, 0 if it is not in the index
+	 */
+	public int length(int id) {
+		return id < lengths.length ? lengths[id] : 0;
+	}
+
+	/**
+	 * Returns the number of documents in the index.
+	 *
+	 * @return Number of documents with a length
+	 */
+	public int indexed() {
+		return indexed;
+	}
+
+	/**
+	 * Returns the average length of the documents in the index.
+	 *
+	 * @return Average number of keyword occurrences per document, 0 if there are none
+	 */
+	public double averageLength() {
+		return indexed == 0 ? 0 : (double)totalLength / indexed;
+	}
+
+	/**
+	 * Returns the number of documents that have ids.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return names.size();
+	}
+}
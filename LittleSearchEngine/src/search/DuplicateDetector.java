@@ -0,0 +1,333 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Finds documents that are near duplicates of documents already indexed, so that the engine
+ * can collapse them into one canonical document (see LittleSearchEngine.setDeduplication).
+ *
+ * A document is seen as the set of its (keyword, frequency) pairs, and two documents are
+ * near duplicates if the Jaccard similarity of their sets is at or above a threshold. The set
+ * is summed up by a MinHash signature of BINS values, made with one hash per pair (one
+ * permutation hashing): the top bits of a pair's hash pick a bin, and each bin keeps the
+ * smallest hash that falls in it. Empty bins borrow the value of the next bin that is not
+ * empty, offset by how far away it is, so that all BINS values mean the same for every
+ * document. The fraction of bins two signatures agree on estimates their Jaccard similarity.
+ *
+ * Signatures are cut into bands of ROWS values, and every canonical document is put in one
+ * bucket per band, keyed by the band's values (locality sensitive hashing). The candidates
+ * for a new document are the documents it shares a bucket with, which finds documents at a
+ * similarity of 0.8 with a probability of 0.9998, and ones at 0.3 with a probability of only
+ * 0.12; the candidates are then checked against the threshold with their signatures.
+ *
+ * The signatures of collapsed documents are kept too, so that when a canonical document is
+ * removed its duplicates can be checked again without being scanned: the first of them
+ * takes its place, and the others are collapsed into that one, or another canonical
+ * document, or become canonical themselves. The engine then indexes the ones that became
+ * canonical.
+ */
+class DuplicateDetector {
+
+	/**
+	 * Number of values in a signature.
+	 */
+	static final int BINS = 64;
+
+	/**
+	 * Number of signature values in a band; there are BINS / ROWS bands.
+	 */
+	static final int ROWS = 4;
+
+	private static final int BIN_BITS = 6;
+
+	/**
+	 * Smallest estimated similarity of a near duplicate.
+	 */
+	private final double threshold;
+
+	/**
+	 * Signature of each document, canonical or collapsed.
+	 */
+	private final HashMap<String,long[]> signatures;
+
+	/**
+	 * Canonical documents by band key.
+	 */
+	private final HashMap<Long,ArrayList<String>> buckets;
+
+	/**
+	 * Canonical document of each document collapsed into one.
+	 */
+	private final HashMap<String,String> canonical;
+
+	/**
+	 * Documents collapsed into each canonical document, in the order they were found.
+	 */
+	private final HashMap<String,ArrayList<String>> duplicates;
+
+	/**
+	 * Initializes a detector with no documents.
+	 *
+	 * @param threshold Smallest similarity of a near duplicate, in (0, 1]
+	 */
+	public DuplicateDetector(double threshold) {
+		if (!(threshold > 0 && threshold <= 1)) {
+			throw new IllegalArgumentException("Similarity threshold must be in (0, 1]: " + threshold);
+		}
+		this.threshold = threshold;
+		signatures = new HashMap<String,long[]>();
+		buckets = new HashMap<Long,ArrayList<String>>();
+		canonical = new HashMap<String,String>();
+		duplicates = new HashMap<String,ArrayList<String>>();
+	}
+
+	/**
+	 * Returns the similarity threshold.
+	 *
+	 * @return Smallest similarity of a near duplicate
+	 */
+	public double threshold() {
+		return threshold;
+	}
+
+	/**
+	 * Checks a document against the canonical documents. A near duplicate is recorded as
+	 * collapsed into the most similar one; any other document becomes canonical itself.
+	 * A document that became canonical when its canonical document was removed (see remove)
+	 * stays canonical, with the signature of its keywords as they are now.
+	 *
+	 * @param doc Name of the document, which must not be in the detector already, unless it
+	 *        became canonical through remove
+	 * @param kws Keywords hash table for the document, not empty
+	 * @return Canonical document that doc was collapsed into, or null if doc is canonical
+	 */
+	public String add(String doc, Map<String,Occurrence> kws) {
+		long[] sig = signature(kws);
+		long[] old = signatures.get(doc);
+		if (old != null && !canonical.containsKey(doc)) {
+			unbucket(doc, old);
+			signatures.put(doc, sig);
+			bucket(doc, sig);
+			return null;
+		}
+		return place(doc, sig);
+	}
+
+	/**
+	 * Collapses a document into the most similar canonical document, or makes it canonical.
+	 *
+	 * @param doc Name of the document
+	 * @param sig Signature of the document
+	 * @return Canonical document that doc was collapsed into, or null if doc is canonical
+	 */
+	private String place(String doc, long[] sig) {
+		String best = null;
+		double bestSimilarity = threshold;
+		HashSet<String> checked = new HashSet<String>();
+		for (long key: bandKeys(sig)) {
+			ArrayList<String> bucket = buckets.get(key);
+			if (bucket == null) {
+				continue;
+			}
+			for (String candidate: bucket) {
+				if (!checked.add(candidate)) {
+					continue;
+				}
+				double s = similarity(sig, signatures.get(candidate));
+				if (s > bestSimilarity || s == bestSimilarity && best == null) {
+					best = candidate;
+					bestSimilarity = s;
+				}
+			}
+		}
+		signatures.put(doc, sig);
+		if (best != null) {
+			canonical.put(doc, best);
+			ArrayList<String> dups = duplicates.get(best);
+			if (dups == null) {
+				dups = new ArrayList<String>(2);
+				duplicates.put(best, dups);
+			}
+			dups.add(doc);
+			return best;
+		}
+		bucket(doc, sig);
+		return null;
+	}
+
+	/**
+	 * Forgets a document. The documents collapsed into a canonical document are checked
+	 * again, in the order they were found: the first takes its place, and each of the others
+	 * is collapsed into the most similar canonical document, the first included, or becomes
+	 * canonical if there is none.
+	 *
+	 * @param doc Name of the document
+	 * @param promoted Gets the documents that were collapsed into doc and are canonical now,
+	 *        which have to be indexed, in order
+	 * @return True if doc had been collapsed into a canonical document
+	 */
+	public boolean remove(String doc, List<String> promoted) {
+		long[] sig = signatures.remove(doc);
+		String into = canonical.remove(doc);
+		if (into != null) {
+			ArrayList<String> dups = duplicates.get(into);
+			dups.remove(doc);
+			if (dups.isEmpty()) {
+				duplicates.remove(into);
+			}
+			return true;
+		}
+		if (sig != null) {
+			unbucket(doc, sig);
+			ArrayList<String> dups = duplicates.remove(doc);
+			if (dups != null) {
+				for (String dup: dups) {
+					canonical.remove(dup);
+				}
+				for (String dup: dups) {
+					if (place(dup, signatures.get(dup)) == null) {
+						promoted.add(dup);
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Puts a canonical document in the bucket of each band of its signature.
+	 */
+	private void bucket(String doc, long[] sig) {
+		for (long key: bandKeys(sig)) {
+			ArrayList<String> bucket = buckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<String>(1);
+				buckets.put(key, bucket);
+			}
+			bucket.add(doc);
+		}
+	}
+
+	/**
+	 * Takes a canonical document out of the buckets of its signature.
+	 */
+	private void unbucket(String doc, long[] sig) {
+		for (long key: bandKeys(sig)) {
+			ArrayList<String> bucket = buckets.get(key);
+			bucket.remove(doc);
+			if (bucket.isEmpty()) {
+				buckets.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the canonical document a document was collapsed into.
+	 *
+	 * @param doc Name of the document
+	 * @return Canonical document, or null if doc was not collapsed
+	 */
+	public String canonical(String doc) {
+		return canonical.get(doc);
+	}
+
+	/**
+	 * Returns the documents collapsed into a canonical document.
+	 *
+	 * @param doc Name of the canonical document
+	 * @return Collapsed documents, in the order they were found; empty if there are none
+	 */
+	public ArrayList<String> duplicates(String doc) {
+		ArrayList<String> dups = duplicates.get(doc);
+		return dups == null ? new ArrayList<String>() : new ArrayList<String>(dups);
+	}
+
+	/**
+	 * Returns the number of documents collapsed into canonical ones.
+	 *
+	 * @return Number of near duplicates found
+	 */
+	public int duplicateCount() {
+		return canonical.size();
+	}
+
+	/**
+	 * Forgets every document.
+	 */
+	public void clear() {
+		signatures.clear();
+		buckets.clear();
+		canonical.clear();
+		duplicates.clear();
+	}
+
+	/**
+	 * Makes the MinHash signature of a document.
+	 *
+	 * @param kws Keywords hash table for the document, not empty
+	 * @return Signature of BINS values
+	 */
+	static long[] signature(Map<String,Occurrence> kws) {
+		long[] sig = new long[BINS];
+		Arrays.fill(sig, Long.MAX_VALUE);
+		for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+			long h = mix(((long)e.getKey().hashCode() << 32) ^ e.getValue().frequency);
+			int bin = (int)(h >>> (64 - BIN_BITS));
+			long value = h & (-1L >>> BIN_BITS);
+			if (value < sig[bin]) {
+				sig[bin] = value;
+			}
+		}
+		// an empty bin takes the next full bin's value, shifted by the distance to it
+		long[] dense = new long[BINS];
+		for (int i = 0; i < BINS; i++) {
+			int d = 0;
+			while (sig[(i + d) % BINS] == Long.MAX_VALUE) {
+				d++;
+			}
+			dense[i] = d == 0 ? sig[i] : mix(sig[(i + d) % BINS] + d);
+		}
+		return dense;
+	}
+
+	/**
+	 * Estimates the Jaccard similarity of two documents.
+	 *
+	 * @param a Signature
+	 * @param b Signature
+	 * @return Fraction of the signature values that are equal
+	 */
+	static double similarity(long[] a, long[] b) {
+		int same = 0;
+		for (int i = 0; i < BINS; i++) {
+			if (a[i] == b[i]) {
+				same++;
+			}
+		}
+		return (double)same / BINS;
+	}
+
+	/**
+	 * Returns the bucket key of each band of a signature.
+	 */
+	private static long[] bandKeys(long[] sig) {
+		long[] keys = new long[BINS / ROWS];
+		for (int band = 0; band < keys.length; band++) {
+			long key = band;
+			for (int r = 0; r < ROWS; r++) {
+				key = mix(key * 31 + sig[band * ROWS + r]);
+			}
+			keys[band] = key;
+		}
+		return keys;
+	}
+
+	/**
+	 * Scrambles the bits of a long (the finalizer of SplitMix64).
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
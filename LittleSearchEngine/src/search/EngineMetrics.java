@@ -0,0 +1,401 @@
+package search;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Counters and histograms of what an engine does, turned on with
+ * LittleSearchEngine.setMetrics. With metrics off, the engine pays one null check per
+ * document scanned, document merged and search.
+ *
+ * Counted as they happen:
+ * - documents and keyword occurrences (tokens) indexed, and their rates since the metrics
+ *   were turned on or last reset
+ * - words scanned, and how many of them were noise words
+ * - latency of topKSearch, and so top5search, in a Histogram
+ *
+ * Kept up to date by the indexing thread, and read by any thread from an immutable copy
+ * made at the end of every change to the index:
+ * - the distribution of occurrence list lengths, counted for the whole index when the metrics
+ *   are turned on or an index file is loaded, and then adjusted by the lengths of the keywords
+ *   that changed
+ *
+ * Read from the engine when asked for:
+ * - the counters of the result cache, if there is one
+ *
+ * The metrics can be registered as an MBean (see EngineMetricsMBean), and handed to a
+ * MetricsReporter at a fixed rate.
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+
+	private final LittleSearchEngine engine;
+
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder words = new LongAdder();
+	private final LongAdder noise = new LongAdder();
+	private final Histogram searchLatency = new Histogram();
+	private volatile long started;
+
+	/**
+	 * Number of keywords with each occurrence list length. Only the indexing thread uses it.
+	 */
+	private final HashMap<Integer,Integer> lengths = new HashMap<Integer,Integer>();
+
+	/**
+	 * Occurrence list length, before the change, of every keyword changed since the lengths
+	 * were last adjusted. Only the indexing thread uses it.
+	 */
+	private final HashMap<String,Integer> lengthsBefore = new HashMap<String,Integer>();
+
+	/**
+	 * Lengths of the occurrence lists as of the end of the last change to the index.
+	 */
+	private volatile Histogram postingSizes;
+
+	/**
+	 * Name the metrics are registered under, or null.
+	 */
+	private ObjectName name;
+
+	/**
+	 * Thread the reporter is called on, or null.
+	 */
+	private ScheduledExecutorService reporting;
+
+	/**
+	 * Initializes the metrics of an engine.
+	 *
+	 * @param engine Engine measured
+	 */
+	EngineMetrics(LittleSearchEngine engine) {
+		this.engine = engine;
+		started = System.nanoTime();
+		countLengths();
+	}
+
+	/**
+	 * Counts the words of a scanned document.
+	 *
+	 * @param tokenizer Tokenizer that scanned the document
+	 */
+	void scanned(KeywordTokenizer tokenizer) {
+		words.add(tokenizer.words());
+		noise.add(tokenizer.noiseWords());
+	}
+
+	/**
+	 * Counts a document merged into the index.
+	 *
+	 * @param kws Keywords hash table for the document
+	 */
+	void indexed(Map<String,Occurrence> kws) {
+		long n = 0;
+		for (Occurrence occ: kws.values()) {
+			n += occ.frequency;
+		}
+		documents.increment();
+		tokens.add(n);
+	}
+
+	/**
+	 * Records the latency of a search.
+	 *
+	 * @param nanos Time the search took, in nanoseconds
+	 */
+	void searched(long nanos) {
+		searchLatency.record(nanos);
+	}
+
+	/**
+	 * Returns the search latencies.
+	 *
+	 * @return Histogram of topKSearch latencies in nanoseconds
+	 */
+	public Histogram searchLatency() {
+		return searchLatency;
+	}
+
+	/**
+	 * Returns the lengths of the occurrence lists.
+	 *
+	 * @return Histogram with the number of occurrences of each keyword, as of the end of the
+	 *         last change to the index; it does not change afterwards
+	 */
+	public Histogram postingSizes() {
+		return postingSizes;
+	}
+
+	/**
+	 * Counts the occurrence list lengths of the whole index. Called by the indexing thread.
+	 */
+	void countLengths() {
+		lengths.clear();
+		lengthsBefore.clear();
+		for (String kw: engine.keywords()) {
+			count(engine.documentCount(kw), 1);
+		}
+		publishLengths();
+	}
+
+	/**
+	 * Remembers the occurrence list length of a keyword that is about to change, unless it
+	 * has changed already since the lengths were last adjusted. Called by the indexing thread.
+	 *
+	 * @param keyword Keyword whose occurrences are about to change
+	 */
+	void changing(String keyword) {
+		if (!lengthsBefore.containsKey(keyword)) {
+			lengthsBefore.put(keyword, engine.documentCount(keyword));
+		}
+	}
+
+	/**
+	 * Adjusts the occurrence list lengths by those of the keywords that changed, once the
+	 * change to the index is complete. Called by the indexing thread.
+	 */
+	void changed() {
+		if (lengthsBefore.isEmpty()) {
+			return;
+		}
+		for (Map.Entry<String,Integer> e: lengthsBefore.entrySet()) {
+			count(e.getValue(), -1);
+			count(engine.documentCount(e.getKey()), 1);
+		}
+		lengthsBefore.clear();
+		publishLengths();
+	}
+
+	private void count(int length, int keywords) {
+		if (length == 0) {
+			return;
+		}
+		Integer n = lengths.get(length);
+		int now = (n == null ? 0 : n) + keywords;
+		if (now == 0) {
+			lengths.remove(length);
+		} else {
+			lengths.put(length, now);
+		}
+	}
+
+	private void publishLengths() {
+		Histogram sizes = new Histogram();
+		for (Map.Entry<Integer,Integer> e: lengths.entrySet()) {
+			sizes.record(e.getKey(), e.getValue());
+		}
+		postingSizes = sizes;
+	}
+
+	private double seconds() {
+		return Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1e3;
+	}
+
+	public long getDocumentsIndexed() {
+		return documents.sum();
+	}
+
+	public long getTokensIndexed() {
+		return tokens.sum();
+	}
+
+	public double getDocumentsPerSecond() {
+		return documents.sum() / seconds();
+	}
+
+	public double getTokensPerSecond() {
+		return tokens.sum() / seconds();
+	}
+
+	public long getWordsScanned() {
+		return words.sum();
+	}
+
+	public long getNoiseWordHits() {
+		return noise.sum();
+	}
+
+	public double getNoiseWordHitRate() {
+		long n = words.sum();
+		return n == 0 ? 0 : (double)noise.sum() / n;
+	}
+
+	public long getSearches() {
+		return searchLatency.count();
+	}
+
+	public double getSearchLatencyMeanMicros() {
+		return searchLatency.mean() / 1e3;
+	}
+
+	public double getSearchLatencyP50Micros() {
+		return micros(searchLatency.percentile(50));
+	}
+
+	public double getSearchLatencyP90Micros() {
+		return micros(searchLatency.percentile(90));
+	}
+
+	public double getSearchLatencyP99Micros() {
+		return micros(searchLatency.percentile(99));
+	}
+
+	public double getSearchLatencyP999Micros() {
+		return micros(searchLatency.percentile(99.9));
+	}
+
+	public double getSearchLatencyMaxMicros() {
+		return micros(searchLatency.max());
+	}
+
+	public long getKeywords() {
+		return postingSizes().count();
+	}
+
+	public double getPostingListSizeMean() {
+		return postingSizes().mean();
+	}
+
+	public long getPostingListSizeP50() {
+		return postingSizes().percentile(50);
+	}
+
+	public long getPostingListSizeP90() {
+		return postingSizes().percentile(90);
+	}
+
+	public long getPostingListSizeP99() {
+		return postingSizes().percentile(99);
+	}
+
+	public long getPostingListSizeMax() {
+		return postingSizes().max();
+	}
+
+	public long getCacheHits() {
+		QueryCache cache = engine.getQueryCache();
+		return cache == null ? 0 : cache.hits();
+	}
+
+	public long getCacheMisses() {
+		QueryCache cache = engine.getQueryCache();
+		return cache == null ? 0 : cache.misses();
+	}
+
+	public double getCacheHitRate() {
+		long hits = getCacheHits();
+		long lookups = hits + getCacheMisses();
+		return lookups == 0 ? 0 : (double)hits / lookups;
+	}
+
+	public long getCacheEvictions() {
+		QueryCache cache = engine.getQueryCache();
+		return cache == null ? 0 : cache.evictions();
+	}
+
+	public long getCacheInvalidations() {
+		QueryCache cache = engine.getQueryCache();
+		return cache == null ? 0 : cache.invalidations();
+	}
+
+	public int getCacheSize() {
+		QueryCache cache = engine.getQueryCache();
+		return cache == null ? 0 : cache.size();
+	}
+
+	/**
+	 * Sets every counter and histogram back to zero, and starts the rates over. The cache
+	 * counters belong to the cache, and the occurrence list lengths to the index, so neither
+	 * is reset.
+	 */
+	public void reset() {
+		documents.reset();
+		tokens.reset();
+		words.reset();
+		noise.reset();
+		searchLatency.reset();
+		started = System.nanoTime();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, as
+	 * search:type=LittleSearchEngine,name=name.
+	 *
+	 * @param name Name that tells this engine from others in the JVM
+	 * @throws JMException If the metrics cannot be registered, for instance because the name is taken
+	 */
+	public synchronized void register(String name)
+	throws JMException {
+		unregister();
+		ObjectName objectName = new ObjectName("search:type=LittleSearchEngine,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.name = objectName;
+	}
+
+	/**
+	 * Unregisters the metrics from the platform MBean server, if they are registered.
+	 *
+	 * @throws JMException If the metrics cannot be unregistered
+	 */
+	public synchronized void unregister()
+	throws JMException {
+		if (name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	/**
+	 * Starts handing the metrics to a reporter at a fixed rate, on a thread of their own,
+	 * instead of any reporter handed them before.
+	 *
+	 * @param reporter Reporter
+	 * @param period Time between reports
+	 * @param unit Unit of period
+	 */
+	public synchronized void startReporting(final MetricsReporter reporter, long period, TimeUnit unit) {
+		stopReporting();
+		reporting = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporting.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					reporter.report(EngineMetrics.this);
+				} catch (RuntimeException e) {
+					// a failed report must not stop the next ones
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops handing the metrics to the reporter.
+	 */
+	public synchronized void stopReporting() {
+		if (reporting != null) {
+			reporting.shutdown();
+			reporting = null;
+		}
+	}
+
+	public String toString() {
+		return String.format("EngineMetrics[documents=%d (%.1f/s), tokens=%d (%.1f/s), noise=%.1f%%, "
+				+ "searches=%d, latency us p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f, cache hits=%.1f%%]",
+				getDocumentsIndexed(), getDocumentsPerSecond(), getTokensIndexed(), getTokensPerSecond(),
+				100 * getNoiseWordHitRate(), getSearches(), getSearchLatencyP50Micros(),
+				getSearchLatencyP90Micros(), getSearchLatencyP99Micros(), getSearchLatencyP999Micros(),
+				getSearchLatencyMaxMicros(), 100 * getCacheHitRate());
+	}
+}
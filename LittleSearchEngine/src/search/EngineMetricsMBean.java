@@ -0,0 +1,62 @@
+package search;
+
+/**
+ * Management interface of EngineMetrics, as JMX sees it. Times are in microseconds, rates
+ * per second since the metrics were turned on or last reset.
+ */
+public interface EngineMetricsMBean {
+
+	long getDocumentsIndexed();
+
+	long getTokensIndexed();
+
+	double getDocumentsPerSecond();
+
+	double getTokensPerSecond();
+
+	long getWordsScanned();
+
+	long getNoiseWordHits();
+
+	double getNoiseWordHitRate();
+
+	long getSearches();
+
+	double getSearchLatencyMeanMicros();
+
+	double getSearchLatencyP50Micros();
+
+	double getSearchLatencyP90Micros();
+
+	double getSearchLatencyP99Micros();
+
+	double getSearchLatencyP999Micros();
+
+	double getSearchLatencyMaxMicros();
+
+	long getKeywords();
+
+	double getPostingListSizeMean();
+
+	long getPostingListSizeP50();
+
+	long getPostingListSizeP90();
+
+	long getPostingListSizeP99();
+
+	long getPostingListSizeMax();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	double getCacheHitRate();
+
+	long getCacheEvictions();
+
+	long getCacheInvalidations();
+
+	int getCacheSize();
+
+	void reset();
+}
@@ -0,0 +1,515 @@
+package search;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Builds an index file for a corpus whose index does not fit in memory, in the manner of
+ * single-pass in-memory indexing (SPIMI). Occurrences are gathered in a block in memory,
+ * keyword by keyword, until the block reaches the memory budget; the block is then written
+ * to a run file in the temporary directory, with its keywords in IndexSegment.TERM_ORDER and
+ * each keyword's occurrences in document order, and a new block is started.
+ *
+ * At the end, the runs are merged a keyword at a time, by a heap of one reader per run,
+ * straight into an index file (see IndexSegment.Writer). Runs are merged FAN_IN at a time
+ * into bigger runs first, if there are more, so that only so many files are open at once.
+ * Since runs hold documents in the order they were added, and keywords with the same name
+ * come off the heap in run order, each keyword's occurrences reach the index file in document
+ * order, and are put in exactly the order makeIndex would give them (see BulkMerge.order).
+ *
+ * A keyword's occurrences are put in that order in memory if that takes no more than the
+ * memory budget, and otherwise in a scratch file mapped into memory (see mergeLarge), which
+ * the operating system pages in and out as it needs. So besides the block, only the keywords,
+ * the document names and at most a budget's worth of one keyword's occurrences are ever held
+ * in memory, however many documents a keyword occurs in.
+ */
+class ExternalIndexBuilder implements Closeable {
+
+	/**
+	 * Largest number of runs merged at once.
+	 */
+	static final int FAN_IN = 64;
+
+	/**
+	 * Estimated bytes a keyword takes in a block besides its occurrences and its characters:
+	 * its share of the term table, the Postings and the occurrence array header.
+	 */
+	private static final int KEYWORD_OVERHEAD = 72;
+
+	/**
+	 * Estimated bytes an occurrence takes while BulkMerge.order puts a keyword's occurrences
+	 * in order in memory: its document id and frequency, and the arrays order works with.
+	 */
+	private static final int ORDER_OVERHEAD = 48;
+
+	/**
+	 * Occurrences of a keyword in a block, as (document id, frequency) pairs.
+	 */
+	private static class Postings {
+		int[] pairs = new int[4];
+		int size;
+	}
+
+	/**
+	 * An int array of any positive length in a file of the run directory, mapped into memory.
+	 * The file is deleted as soon as it is mapped, and goes away with the array.
+	 */
+	private static class Scratch {
+
+		/**
+		 * Number of ints in a mapped part of the file is 2 to this power.
+		 */
+		private static final int PART_BITS = 28;
+		private static final int PART_MASK = (1 << PART_BITS) - 1;
+
+		private final IntBuffer[] parts;
+
+		Scratch(Path file, long length)
+		throws IOException {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			try {
+				parts = new IntBuffer[(int)((length - 1) >>> PART_BITS) + 1];
+				for (int i = 0; i < parts.length; i++) {
+					long from = (long)i << PART_BITS;
+					long ints = Math.min(length - from, 1L << PART_BITS);
+					parts[i] = channel.map(FileChannel.MapMode.READ_WRITE, 4 * from, 4 * ints).asIntBuffer();
+				}
+			} finally {
+				channel.close();
+			}
+		}
+
+		int get(long i) {
+			return parts[(int)(i >>> PART_BITS)].get((int)i & PART_MASK);
+		}
+
+		void set(long i, int v) {
+			parts[(int)(i >>> PART_BITS)].put((int)i & PART_MASK, v);
+		}
+
+		/**
+		 * Makes the Fenwick tree at tree[1..n] all ones (tree[0] unused).
+		 */
+		void allFree(long tree, int n) {
+			for (int i = 1; i <= n; i++) {
+				set(tree + i, i & -i);
+			}
+		}
+
+		/**
+		 * Returns the smallest i such that entries 0..i of the Fenwick tree at tree[1..n] add
+		 * up to at least k, and takes 1 off entry i.
+		 */
+		int take(long tree, int n, int k) {
+			int i = 0;
+			for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+				if (i + step <= n && get(tree + i + step) < k) {
+					i += step;
+					k -= get(tree + i);
+				}
+			}
+			for (int j = i + 1; j <= n; j += j & -j) {
+				set(tree + j, get(tree + j) - 1);
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * A run file being read, positioned just after the header of its current keyword.
+	 */
+	private static class Run implements Comparable<Run> {
+		final DataInputStream in;
+		final int index;
+		byte[] term;
+		int count;
+
+		Run(Path file, int index)
+		throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+			this.index = index;
+		}
+
+		/**
+		 * Moves to the next keyword, whose occurrences must have been read.
+		 *
+		 * @return False if there are no more keywords
+		 */
+		boolean next()
+		throws IOException {
+			int len = in.readInt();
+			if (len < 0) {
+				term = null;
+				return false;
+			}
+			term = new byte[len];
+			in.readFully(term);
+			count = in.readInt();
+			return true;
+		}
+
+		public int compareTo(Run other) {
+			int c = IndexSegment.TERM_ORDER.compare(term, other.term);
+			return c != 0 ? c : index - other.index;
+		}
+	}
+
+	/**
+	 * Bytes of occurrences, roughly, to hold in memory before writing a run.
+	 */
+	private final long memoryBudget;
+
+	/**
+	 * Directory the run files are written to, created for this builder.
+	 */
+	private final Path runDir;
+
+	/**
+	 * Run files not yet merged, in the order their documents were added.
+	 */
+	private final ArrayList<Path> runs;
+	private int runsWritten;
+
+	/**
+	 * Ids of the documents added so far.
+	 */
+	private final DocumentTable documents;
+
+	/**
+	 * Block being filled: its keywords, the occurrences of each by term id, and its
+	 * estimated size in bytes.
+	 */
+	private final TermTable terms;
+	private Postings[] block;
+	private long used;
+
+	/**
+	 * Initializes a builder.
+	 *
+	 * @param memoryBudget Bytes of occurrences, roughly, to hold in memory before writing a run
+	 * @param tempDir Directory to write run files under, or null for the system temporary directory
+	 * @throws IOException If the run directory cannot be created
+	 */
+	public ExternalIndexBuilder(long memoryBudget, String tempDir)
+	throws IOException {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+		}
+		this.memoryBudget = memoryBudget;
+		runDir = tempDir == null ? Files.createTempDirectory("lse-runs")
+				: Files.createTempDirectory(Paths.get(tempDir), "lse-runs");
+		runs = new ArrayList<Path>();
+		documents = new DocumentTable();
+		terms = new TermTable(1024, false);
+		block = new Postings[1024];
+	}
+
+	/**
+	 * Adds the keywords of a document, writing a run if the block is full.
+	 *
+	 * @param kws Keywords hash table for a document
+	 * @throws IOException If a run file cannot be written
+	 */
+	public void add(HashMap<String,Occurrence> kws)
+	throws IOException {
+		if (kws.isEmpty()) {
+			return;
+		}
+		int doc = documents.id(kws.values().iterator().next().document);
+		for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+			int id = terms.add(e.getKey());
+			if (id == block.length) {
+				block = Arrays.copyOf(block, 2 * block.length);
+			}
+			Postings p = block[id];
+			if (p == null) {
+				p = new Postings();
+				block[id] = p;
+				used += KEYWORD_OVERHEAD + e.getKey().length() + 4 * p.pairs.length;
+			}
+			if (2 * p.size + 2 > p.pairs.length) {
+				used += 4 * p.pairs.length;
+				p.pairs = Arrays.copyOf(p.pairs, 2 * p.pairs.length);
+			}
+			p.pairs[2 * p.size] = doc;
+			p.pairs[2 * p.size + 1] = e.getValue().frequency;
+			p.size++;
+		}
+		if (used >= memoryBudget) {
+			writeRun();
+		}
+	}
+
+	/**
+	 * Writes the block to a run file and empties it.
+	 */
+	private void writeRun()
+	throws IOException {
+		if (terms.size() == 0) {
+			return;
+		}
+		Integer[] ids = new Integer[terms.size()];
+		for (int id = 0; id < ids.length; id++) {
+			ids[id] = id;
+		}
+		Arrays.sort(ids, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return terms.compare(a, b);
+			}
+		});
+		Path file = newRun();
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+		try {
+			for (int id: ids) {
+				byte[] term = terms.bytes(id);
+				Postings p = block[id];
+				out.writeInt(term.length);
+				out.write(term);
+				out.writeInt(p.size);
+				for (int i = 0; i < 2 * p.size; i++) {
+					out.writeInt(p.pairs[i]);
+				}
+			}
+			out.writeInt(-1);
+		} finally {
+			out.close();
+		}
+		runs.add(file);
+		terms.clear();
+		Arrays.fill(block, null);
+		used = 0;
+	}
+
+	private Path newRun() {
+		return runDir.resolve("run" + runsWritten++);
+	}
+
+	/**
+	 * Writes the index file from all the documents added.
+	 *
+	 * @param indexFile Name of the index file
+	 * @param noiseWords Noise words to write
+	 * @throws IOException If a run file cannot be read or written, or the index file cannot be written
+	 */
+	public void finish(String indexFile, Collection<String> noiseWords)
+	throws IOException {
+		writeRun();
+		while (runs.size() > FAN_IN) {
+			ArrayList<Path> merged = new ArrayList<Path>();
+			for (int from = 0; from < runs.size(); from += FAN_IN) {
+				List<Path> group = runs.subList(from, Math.min(from + FAN_IN, runs.size()));
+				if (group.size() == 1) {
+					merged.add(group.get(0));
+					continue;
+				}
+				Path file = newRun();
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+				try {
+					merge(group, out, null);
+					out.writeInt(-1);
+				} finally {
+					out.close();
+				}
+				for (Path run: group) {
+					Files.delete(run);
+				}
+				merged.add(file);
+			}
+			runs.clear();
+			runs.addAll(merged);
+		}
+
+		IndexSegment.Writer writer = new IndexSegment.Writer(indexFile);
+		try {
+			merge(runs, null, writer);
+			ArrayList<String> names = new ArrayList<String>(documents.size());
+			for (int id = 0; id < documents.size(); id++) {
+				names.add(documents.name(id));
+			}
+			writer.finish(names, noiseWords);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Merges runs, either into a bigger run or into an index file.
+	 *
+	 * @param files Runs, in the order their documents were added
+	 * @param run Where to write the merged run, or null
+	 * @param index Where to write the index, if run is null
+	 */
+	private void merge(List<Path> files, DataOutputStream run, IndexSegment.Writer index)
+	throws IOException {
+		PriorityQueue<Run> heads = new PriorityQueue<Run>(Math.max(1, files.size()));
+		ArrayList<Run> open = new ArrayList<Run>(files.size());
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				Run r = new Run(files.get(i), i);
+				open.add(r);
+				if (r.next()) {
+					heads.add(r);
+				}
+			}
+			ArrayList<Run> same = new ArrayList<Run>();
+			while (!heads.isEmpty()) {
+				same.clear();
+				same.add(heads.poll());
+				byte[] term = same.get(0).term;
+				int total = same.get(0).count;
+				while (!heads.isEmpty() && Arrays.equals(heads.peek().term, term)) {
+					same.add(heads.poll());
+					total += same.get(same.size() - 1).count;
+				}
+
+				if (run != null) {
+					run.writeInt(term.length);
+					run.write(term);
+					run.writeInt(total);
+					byte[] buf = new byte[1 << 13];
+					for (Run r: same) {
+						for (long left = 8L * r.count; left > 0; ) {
+							int n = (int)Math.min(left, buf.length);
+							r.in.readFully(buf, 0, n);
+							run.write(buf, 0, n);
+							left -= n;
+						}
+					}
+				} else if ((long)total * ORDER_OVERHEAD > memoryBudget) {
+					mergeLarge(term, same, total, index);
+				} else {
+					int[] docs = new int[total];
+					int[] freqs = new int[total];
+					int n = 0;
+					for (Run r: same) {
+						for (int i = 0; i < r.count; i++, n++) {
+							docs[n] = r.in.readInt();
+							freqs[n] = r.in.readInt();
+						}
+					}
+					int[] order = BulkMerge.order(freqs, total, 0);
+					index.term(term);
+					for (int j = 0; j < total; j++) {
+						index.posting(docs[order[j]], freqs[order[j]]);
+					}
+				}
+
+				for (Run r: same) {
+					if (r.next()) {
+						heads.add(r);
+					}
+				}
+			}
+		} finally {
+			for (Run r: open) {
+				r.in.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes a keyword's occurrences from its runs to the index file, in the order of
+	 * BulkMerge.order, working in a scratch file instead of in memory. This is what order and
+	 * BulkMerge.places do, a pass at a time: the occurrences are read into the file, keeping
+	 * count of each frequency; then the place insertLastOccurrence would put each occurrence
+	 * at among the occurrences of its frequency, as they come, is worked out; then, from the
+	 * last occurrence back, the place each ends up at, in a Fenwick tree per frequency.
+	 *
+	 * @param term Keyword
+	 * @param same Runs that have the keyword, in the order their documents were added
+	 * @param total Number of occurrences in all those runs
+	 * @param index Where to write the occurrences
+	 */
+	private void mergeLarge(byte[] term, List<Run> same, int total, IndexSegment.Writer index)
+	throws IOException {
+		HashMap<Integer,int[]> counts = new HashMap<Integer,int[]>();
+		long n = total;
+		// document ids at [0, n), frequencies and then their ranks at [n, 2n), places at
+		// [2n, 3n), document ids in order at [3n, 4n), and a tree per frequency from 4n on
+		Scratch s = new Scratch(runDir.resolve("order"), 6 * n);
+		long g = 0;
+		for (Run r: same) {
+			for (int i = 0; i < r.count; i++, g++) {
+				s.set(g, r.in.readInt());
+				int freq = r.in.readInt();
+				s.set(n + g, freq);
+				int[] count = counts.get(freq);
+				if (count == null) {
+					count = new int[1];
+					counts.put(freq, count);
+				}
+				count[0]++;
+			}
+		}
+
+		// distinct frequencies, highest first, with where each one's occurrences start
+		int d = counts.size();
+		int[] ascending = new int[d];
+		int k = 0;
+		for (int freq: counts.keySet()) {
+			ascending[k++] = freq;
+		}
+		Arrays.sort(ascending);
+		int[] distinct = new int[d];
+		for (int r = 0; r < d; r++) {
+			distinct[r] = ascending[d - 1 - r];
+		}
+		int[] size = new int[d];
+		int[] start = new int[d];
+		long[] tree = new long[d];
+		for (int r = 0, at = 0; r < d; r++) {
+			size[r] = counts.get(distinct[r])[0];
+			start[r] = at;
+			at += size[r];
+			tree[r] = r == 0 ? 4 * n : tree[r - 1] + size[r - 1] + 1;
+			s.allFree(tree[r], size[r]);
+		}
+
+		int[] higher = new int[d + 1];
+		int[] seen = new int[d];
+		for (int i = 0; i < total; i++) {
+			int r = BulkMerge.rankOf(distinct, d, s.get(n + i));
+			s.set(n + i, r);
+			s.set(2 * n + i, BulkMerge.replay(BulkMerge.sum(higher, r), seen[r], i));
+			seen[r]++;
+			BulkMerge.add(higher, r, 1);
+		}
+		for (int i = total - 1; i >= 0; i--) {
+			int r = s.get(n + i);
+			int slot = s.take(tree[r], size[r], s.get(2 * n + i) + 1);
+			s.set(3 * n + start[r] + slot, s.get(i));
+		}
+
+		index.term(term);
+		for (int r = 0; r < d; r++) {
+			for (int i = 0; i < size[r]; i++) {
+				index.posting(s.get(3 * n + start[r] + i), distinct[r]);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the run files and their directory.
+	 *
+	 * @throws IOException If a run file cannot be deleted
+	 */
+	public void close()
+	throws IOException {
+		DirectoryStream<Path> files = Files.newDirectoryStream(runDir);
+		try {
+			for (Path file: files) {
+				Files.delete(file);
+			}
+		} finally {
+			files.close();
+		}
+		runs.clear();
+		Files.delete(runDir);
+	}
+}
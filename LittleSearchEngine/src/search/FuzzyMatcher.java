@@ -0,0 +1,201 @@
+package search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Finds the keywords within a small edit distance (Levenshtein: insertions, deletions and
+ * substitutions) of a word, by walking a Levenshtein automaton over a sorted dictionary.
+ *
+ * The automaton is run in its dynamic programming form: a row of distances for every prefix
+ * of the keyword being read, one row per byte. Only the band of each row within the maximum
+ * distance of the diagonal is computed, since the entries outside it are over the maximum
+ * anyway, so a byte costs O(maximum distance) whatever the length of the word. Keywords are
+ * read in order, so a keyword shares a prefix with the one before, and only the rows past that
+ * prefix are computed. As soon as every entry of a row is above the maximum distance, no
+ * keyword with that prefix can match, and the walk jumps with one dictionary lookup (see
+ * TermDictionary.Reader.skipTo) to the next prefix the automaton can take. The keywords read
+ * are therefore only those whose prefixes are all still within reach of the word, and that
+ * number depends on the word and the distance, barely on the size of the dictionary.
+ *
+ * Distances are counted in bytes of UTF-8, which is in characters for keywords, since those
+ * are all ASCII letters.
+ */
+class FuzzyMatcher {
+
+	/**
+	 * Largest supported distance.
+	 */
+	static final int MAX_EDITS = 2;
+
+	/**
+	 * Finds the keywords of a dictionary within a distance of a word.
+	 *
+	 * @param dict Dictionary
+	 * @param word Word, in lower case
+	 * @param maxEdits Largest distance, 0..MAX_EDITS
+	 * @return Matching keywords by distance: element d holds the keywords at distance d,
+	 *         in dictionary order
+	 */
+	public static ArrayList<ArrayList<String>> match(TermDictionary dict, String word, int maxEdits) {
+		if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+			throw new IllegalArgumentException("Edit distance must be 0.." + MAX_EDITS + ": " + maxEdits);
+		}
+		ArrayList<ArrayList<String>> result = new ArrayList<ArrayList<String>>(maxEdits + 1);
+		for (int d = 0; d <= maxEdits; d++) {
+			result.add(new ArrayList<String>());
+		}
+		byte[] q = word.getBytes(StandardCharsets.UTF_8);
+		int m = q.length;
+
+		// rows[j] holds the distances between the first j bytes of the keyword and each prefix
+		// of q, capped at over = maxEdits + 1; only entries i with |i - j| <= maxEdits are
+		// computed, and the ones just outside that band are set to over
+		int over = maxEdits + 1;
+		int[][] rows = new int[16][m + 2];
+		for (int i = 0; i <= m; i++) {
+			rows[0][i] = Math.min(i, over);
+		}
+		byte[] current = new byte[16];
+		int computed = 0;
+
+		TermDictionary.Reader r = dict.reader(0);
+		boolean more = r.next();
+		walk:
+		while (more) {
+			byte[] t = r.bytes();
+			int len = r.length();
+			int shared = 0;
+			while (shared < computed && shared < len && current[shared] == t[shared]) {
+				shared++;
+			}
+			computed = shared;
+			if (len >= rows.length) {
+				int n = rows.length;
+				rows = Arrays.copyOf(rows, Math.max(2 * n, len + 1));
+				for (int j = n; j < rows.length; j++) {
+					rows[j] = new int[m + 2];
+				}
+				current = Arrays.copyOf(current, rows.length);
+			}
+			for (int j = computed + 1; j <= len; j++) {
+				byte b = t[j - 1];
+				current[j - 1] = b;
+				int[] prev = rows[j - 1];
+				int[] row = rows[j];
+				int lo = Math.max(1, j - maxEdits);
+				int hi = Math.min(m, j + maxEdits);
+				row[0] = Math.min(j, over);
+				if (lo > 1) {
+					row[lo - 1] = over;
+				}
+				int min = row[0];
+				for (int i = lo; i <= hi; i++) {
+					int v = prev[i - 1] + (q[i - 1] == b ? 0 : 1);
+					v = Math.min(v, prev[i] + 1);
+					v = Math.min(v, row[i - 1] + 1);
+					v = Math.min(v, over);
+					row[i] = v;
+					min = Math.min(min, v);
+				}
+				row[hi + 1] = over;
+				if (min > maxEdits) {
+					// no keyword that starts with t[0..j) can match: jump to the next prefix
+					// the automaton can take
+					computed = j - 1;
+					byte[] next = nextPrefix(rows, current, j, q, maxEdits);
+					more = next != null && r.skipTo(next);
+					continue walk;
+				}
+				computed = j;
+			}
+			int d = Math.abs(len - m) <= maxEdits ? rows[len][m] : over;
+			if (d <= maxEdits) {
+				result.get(d).add(r.term());
+			}
+			more = r.next();
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the smallest key after every string that starts with a dead prefix, from which
+	 * the automaton can go on. At depth k, the byte after prefix[0..k-1) keeps row k within
+	 * reach whatever it is if row k-1 is below the maximum somewhere (an insertion or a
+	 * substitution then costs one more); otherwise it has to match q at a place where row k-1
+	 * is within reach. The key is prefix[0..k-1) followed by the smallest such byte after
+	 * prefix[k-1], for the deepest k that has one.
+	 *
+	 * @param rows Rows of the prefix, computed up to depth-1
+	 * @param prefix Buffer holding the prefix
+	 * @param depth Length of the prefix, whose last row is dead
+	 * @return Key, or null if no string after the prefix can match
+	 */
+	private static byte[] nextPrefix(int[][] rows, byte[] prefix, int depth, byte[] q, int maxEdits) {
+		int m = q.length;
+		for (int k = depth; k > 0; k--) {
+			int[] prev = rows[k - 1];
+			int after = prefix[k - 1] & 0xff;
+			int c = Integer.MAX_VALUE;
+			int min = Math.min(k - 1, maxEdits + 1);
+			for (int i = Math.max(0, k - 1 - maxEdits); i <= Math.min(m, k - 1 + maxEdits); i++) {
+				min = Math.min(min, prev[i]);
+			}
+			if (min < maxEdits || k <= maxEdits) {
+				if (after < 0xff) {
+					c = after + 1;
+				}
+			} else {
+				for (int i = Math.max(1, k - maxEdits); i <= Math.min(m, k + maxEdits); i++) {
+					int qb = q[i - 1] & 0xff;
+					if (prev[i - 1] <= maxEdits && qb > after && qb < c) {
+						c = qb;
+					}
+				}
+			}
+			if (c != Integer.MAX_VALUE) {
+				byte[] next = Arrays.copyOf(prefix, k);
+				next[k - 1] = (byte)c;
+				return next;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Computes the distance between two words, giving up once it is over a limit.
+	 *
+	 * @param a First word
+	 * @param b Second word
+	 * @param maxEdits Limit
+	 * @return Distance, or maxEdits + 1 if it is over the limit
+	 */
+	public static int distance(String a, String b, int maxEdits) {
+		if (Math.abs(a.length() - b.length()) > maxEdits) {
+			return maxEdits + 1;
+		}
+		int[] prev = new int[b.length() + 1];
+		int[] row = new int[b.length() + 1];
+		for (int i = 0; i <= b.length(); i++) {
+			prev[i] = i;
+		}
+		for (int j = 1; j <= a.length(); j++) {
+			row[0] = j;
+			int min = j;
+			for (int i = 1; i <= b.length(); i++) {
+				int v = prev[i - 1] + (a.charAt(j - 1) == b.charAt(i - 1) ? 0 : 1);
+				v = Math.min(v, prev[i] + 1);
+				v = Math.min(v, row[i - 1] + 1);
+				row[i] = v;
+				min = Math.min(min, v);
+			}
+			if (min > maxEdits) {
+				return maxEdits + 1;
+			}
+			int[] swap = prev;
+			prev = row;
+			row = swap;
+		}
+		return Math.min(prev[b.length()], maxEdits + 1);
+	}
+}
@@ -0,0 +1,180 @@
+package search;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, with buckets laid
+ * out as in HdrHistogram: values below SUB_BUCKETS each have a bucket of their own, and above
+ * that every power of two is split into SUB_BUCKETS/2 buckets of equal width. Any value is
+ * then known to within 1/32 of itself (about 3%), from one nanosecond to hours, with a fixed
+ * BUCKETS counters. Recording a value takes a few atomic additions, with no allocation and
+ * no lock, so any number of threads may record at once.
+ *
+ * Percentiles are read off the counters, as the highest value of the bucket the percentile
+ * falls in, the way HdrHistogram reports them.
+ */
+public class Histogram {
+
+	/**
+	 * Buckets per power of two is SUB_BUCKETS/2, above the first SUB_BUCKETS values.
+	 */
+	static final int SUB_BUCKETS = 64;
+
+	private static final int SUB_BITS = 6;
+
+	/**
+	 * Number of buckets, enough for any long value.
+	 */
+	static final int BUCKETS = (64 - SUB_BITS + 1) * (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final LongAccumulator max;
+
+	/**
+	 * Initializes an empty histogram.
+	 */
+	public Histogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new LongAccumulator(new LongBinaryOperator() {
+			public long applyAsLong(long a, long b) {
+				return Math.max(a, b);
+			}
+		}, 0);
+	}
+
+	/**
+	 * Returns the bucket of a value.
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int)value;
+		}
+		// value has its highest bit at e >= SUB_BITS; its top SUB_BITS bits pick the bucket
+		int e = 63 - Long.numberOfLeadingZeros(value);
+		int top = (int)(value >>> (e - SUB_BITS + 1));
+		return (e - SUB_BITS + 1) * (SUB_BUCKETS / 2) + top;
+	}
+
+	/**
+	 * Returns the highest value that falls in a bucket.
+	 */
+	static long highest(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / (SUB_BUCKETS / 2) - 1;
+		long top = bucket % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+		long low = top << shift;
+		return low + (1L << shift) - 1;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value Value, negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Records a value a number of times.
+	 *
+	 * @param value Value, negative values are counted as 0
+	 * @param times Number of times, at least 1
+	 */
+	public void record(long value, long times) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.addAndGet(bucket(value), times);
+		count.add(times);
+		sum.add(value * times);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 *
+	 * @return Count
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the mean of the values recorded.
+	 *
+	 * @return Mean, 0 if there are none
+	 */
+	public double mean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double)sum.sum() / n;
+	}
+
+	/**
+	 * Returns the largest value recorded.
+	 *
+	 * @return Largest value, exactly, 0 if there are none
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns a percentile of the values recorded.
+	 *
+	 * @param percentile Percentile, 0..100
+	 * @return Value that percentile of the values are at or below, to within about 3%;
+	 *         0 if there are none
+	 */
+	public long percentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			snapshot[b] = counts.get(b);
+			total += snapshot[b];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(Math.min(100, percentile) / 100 * total));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += snapshot[b];
+			if (seen >= rank) {
+				return Math.min(highest(b), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every value.
+	 */
+	public void reset() {
+		for (int b = 0; b < BUCKETS; b++) {
+			counts.set(b, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	public String toString() {
+		return "Histogram[count=" + count() + ", mean=" + Math.round(mean())
+				+ ", p50=" + percentile(50) + ", p90=" + percentile(90) + ", p99=" + percentile(99)
+				+ ", p99.9=" + percentile(99.9) + ", max=" + max() + "]";
+	}
+}
@@ -0,0 +1,576 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A read-only keyword index stored in a file. The file is memory mapped when it is opened,
+ * and nothing else is read until a keyword is looked up, so opening takes the same short
+ * time whatever the size of the index. Looking up a keyword is a binary search of the sorted
+ * term dictionary, followed by decoding just that keyword's postings.
+ *
+ * A file larger than 2GB is mapped in parts of 1GB, each overlapping the next by a few bytes
+ * so that every number lies whole in one part.
+ *
+ * File layout (all numbers big endian):
+ * <pre>
+ *   header     MAGIC, VERSION
+ *   postings   for each keyword, in dictionary order: (document id, frequency) pairs,
+ *              in descending order of frequency
+ *   documents  for each document id: name length, name in UTF-8, document length
+ *              (number of keyword occurrences)
+ *   noise      for each noise word: length, word in UTF-8
+ *   terms      for each keyword, in UTF-8 byte order: length, keyword in UTF-8,
+ *              postings offset (long), number of postings
+ *   offsets    offset (long) of each document name, then of each noise word,
+ *              then of each terms entry
+ *   footer     offsets position (long), document count, noise word count, term count, MAGIC
+ * </pre>
+ */
+class IndexSegment {
+
+	/**
+	 * First and last int of every index file.
+	 */
+	static final int MAGIC = 0x4C534549;
+
+	/**
+	 * Version of the file layout written by this class. Version 3 files may be larger than
+	 * 2GB; version 2 files, which may not, have the same layout and are read as well.
+	 */
+	static final int VERSION = 3;
+
+	/**
+	 * Size of the footer in bytes.
+	 */
+	private static final int FOOTER_SIZE = 8 + 4 * 4;
+
+	/**
+	 * Number of bytes in a part of the file is 2 to this power.
+	 */
+	private static final int PART_BITS = 30;
+	private static final int PART_MASK = (1 << PART_BITS) - 1;
+
+	/**
+	 * The mapped file, in parts: part i starts at byte i * 2^PART_BITS, and runs 8 bytes into
+	 * the next part, if there is one.
+	 */
+	private final ByteBuffer[] parts;
+
+	/**
+	 * Position of the offsets table.
+	 */
+	private final long offsets;
+
+	/**
+	 * Number of documents, noise words and keywords.
+	 */
+	private final int docCount, noiseCount, termCount;
+
+	/**
+	 * Document names decoded so far, by document id.
+	 */
+	private final String[] docNames;
+
+	/**
+	 * Maps an index file.
+	 *
+	 * @param indexFile Name of the index file
+	 * @throws IOException If the file cannot be read, or is not an index file of this version
+	 */
+	public IndexSegment(String indexFile)
+	throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ);
+		long end;
+		try {
+			end = channel.size();
+			if (end < 8 + FOOTER_SIZE) {
+				throw new IOException(indexFile + " is not an index file");
+			}
+			parts = new ByteBuffer[(int)((end - 1) >>> PART_BITS) + 1];
+			for (int i = 0; i < parts.length; i++) {
+				long from = (long)i << PART_BITS;
+				parts[i] = channel.map(FileChannel.MapMode.READ_ONLY, from,
+						Math.min(end - from, (1L << PART_BITS) + 8));
+			}
+		} finally {
+			channel.close();
+		}
+		if (getInt(0) != MAGIC || getInt(end - 4) != MAGIC) {
+			throw new IOException(indexFile + " is not an index file");
+		}
+		int version = getInt(4);
+		if (version != VERSION && version != 2) {
+			throw new IOException(indexFile + " has unsupported index version " + version);
+		}
+		long footer = end - FOOTER_SIZE;
+		offsets = getLong(footer);
+		docCount = getInt(footer + 8);
+		noiseCount = getInt(footer + 12);
+		termCount = getInt(footer + 16);
+		docNames = new String[docCount];
+	}
+
+	/**
+	 * Returns the number of keywords in this index.
+	 *
+	 * @return Number of keywords
+	 */
+	public int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns the keyword at the given position of the term dictionary.
+	 *
+	 * @param t Position in the term dictionary, 0..termCount()-1
+	 * @return Keyword
+	 */
+	public String term(int t) {
+		return string(termEntry(t));
+	}
+
+	/**
+	 * Returns the names of all documents in this index.
+	 *
+	 * @return Document names, by document id
+	 */
+	public ArrayList<String> documents() {
+		ArrayList<String> names = new ArrayList<String>(docCount);
+		for (int id = 0; id < docCount; id++) {
+			names.add(docName(id));
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param id Document id, 0..documents().size()-1
+	 * @return Number of keyword occurrences in the document
+	 */
+	public int documentLength(int id) {
+		long pos = getLong(offsets + 8L * id);
+		return getInt(pos + 4 + getInt(pos));
+	}
+
+	/**
+	 * Returns the noise words stored in this index.
+	 *
+	 * @return Noise words
+	 */
+	public ArrayList<String> noiseWords() {
+		ArrayList<String> words = new ArrayList<String>(noiseCount);
+		for (int i = 0; i < noiseCount; i++) {
+			words.add(string(getLong(offsets + 8L * (docCount + i))));
+		}
+		return words;
+	}
+
+	/**
+	 * Looks up a keyword in the term dictionary.
+	 *
+	 * @param keyword Keyword
+	 * @return Position of the keyword in the term dictionary, or -1 if it is not there
+	 */
+	public int find(String keyword) {
+		byte[] key = keyword.getBytes(StandardCharsets.UTF_8);
+		int lo = 0, hi = termCount - 1;
+		while (lo <= hi) {
+			int mid = lo + (hi - lo) / 2;
+			int c = compare(termEntry(mid), key);
+			if (c == 0) {
+				return mid;
+			}
+			if (c < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes the occurrences of a keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Occurrences in descending order of frequency, or null if the keyword is not in the index
+	 */
+	public ArrayList<Occurrence> postings(String keyword) {
+		int t = find(keyword);
+		return t < 0 ? null : postings(t);
+	}
+
+	/**
+	 * Returns the number of occurrences of the keyword at a position in the term dictionary.
+	 *
+	 * @param t Position in the term dictionary
+	 * @return Number of documents the keyword occurs in
+	 */
+	public int count(int t) {
+		long entry = termEntry(t);
+		return getInt(entry + 4 + getInt(entry) + 8);
+	}
+
+	/**
+	 * Decodes the occurrences of the keyword at a position in the term dictionary.
+	 *
+	 * @param t Position in the term dictionary
+	 * @return Occurrences in descending order of frequency
+	 */
+	public ArrayList<Occurrence> postings(int t) {
+		long entry = termEntry(t);
+		long pos = entry + 4 + getInt(entry);
+		long p = getLong(pos);
+		int count = getInt(pos + 8);
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(count);
+		for (int i = 0; i < count; i++, p += 8) {
+			occs.add(new Occurrence(docName(getInt(p)), getInt(p + 4)));
+		}
+		return occs;
+	}
+
+	/**
+	 * Returns a cursor that reads the occurrences of the keyword at a position in the term
+	 * dictionary straight from the file, as it goes. Cursors may be read on several threads.
+	 *
+	 * @param t Position in the term dictionary
+	 * @return Cursor over the occurrences in descending order of frequency
+	 */
+	public PostingCursor cursor(int t) {
+		long entry = termEntry(t);
+		long pos = entry + 4 + getInt(entry);
+		return new Cursor(getLong(pos), getInt(pos + 8));
+	}
+
+	/**
+	 * Cursor over (document id, frequency) pairs in the mapped file.
+	 */
+	private class Cursor implements PostingCursor {
+		private final long end;
+		private long p;
+
+		Cursor(long start, int count) {
+			end = start + 8L * count;
+			p = start - 8;
+		}
+
+		public boolean next() {
+			if (p + 8 >= end) {
+				p = end;
+				return false;
+			}
+			p += 8;
+			return true;
+		}
+
+		public String document() {
+			return docName(getInt(p));
+		}
+
+		public int frequency() {
+			return getInt(p + 4);
+		}
+	}
+
+	/**
+	 * Returns the name of a document, decoding it on first use. Racing threads may both
+	 * decode the same name, which is harmless.
+	 */
+	private String docName(int id) {
+		String name = docNames[id];
+		if (name == null) {
+			name = string(getLong(offsets + 8L * id));
+			docNames[id] = name;
+		}
+		return name;
+	}
+
+	private long termEntry(int t) {
+		return getLong(offsets + 8L * (docCount + noiseCount + t));
+	}
+
+	/**
+	 * Reads the int at a position of the file. Absolute gets keep the shared buffers'
+	 * positions untouched, so lookups may run on several threads.
+	 */
+	private int getInt(long pos) {
+		return parts[(int)(pos >>> PART_BITS)].getInt((int)pos & PART_MASK);
+	}
+
+	private long getLong(long pos) {
+		return parts[(int)(pos >>> PART_BITS)].getLong((int)pos & PART_MASK);
+	}
+
+	private byte get(long pos) {
+		return parts[(int)(pos >>> PART_BITS)].get((int)pos & PART_MASK);
+	}
+
+	/**
+	 * Decodes a length-prefixed UTF-8 string.
+	 */
+	private String string(long pos) {
+		byte[] bytes = new byte[getInt(pos)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = get(pos + 4 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares the length-prefixed UTF-8 string at pos with key, as unsigned bytes.
+	 */
+	private int compare(long pos, byte[] key) {
+		int len = getInt(pos);
+		int n = Math.min(len, key.length);
+		for (int i = 0; i < n; i++) {
+			int c = (get(pos + 4 + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - key.length;
+	}
+
+	/**
+	 * Order of terms in the dictionary: UTF-8 bytes compared as unsigned numbers.
+	 */
+	static final Comparator<byte[]> TERM_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++) {
+				int c = (a[i] & 0xff) - (b[i] & 0xff);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+
+	/**
+	 * Writes an index file. The file is written under a temporary name and then moved in
+	 * place, so an index that is being read is never seen half written.
+	 *
+	 * @param indexFile Name of the index file
+	 * @param keywords Keywords to write
+	 * @param index Where the occurrences of the keywords are read from
+	 * @param noiseWords Noise words to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(String indexFile, Collection<String> keywords, PostingSource index,
+			Collection<String> noiseWords)
+	throws IOException {
+		ArrayList<byte[]> terms = new ArrayList<byte[]>(keywords.size());
+		for (String keyword: keywords) {
+			terms.add(keyword.getBytes(StandardCharsets.UTF_8));
+		}
+		Collections.sort(terms, TERM_ORDER);
+
+		Writer out = new Writer(indexFile);
+		try {
+			HashMap<String,Integer> docIds = new HashMap<String,Integer>();
+			ArrayList<String> docs = new ArrayList<String>();
+			for (byte[] term: terms) {
+				PostingCursor c = index.cursor(new String(term, StandardCharsets.UTF_8));
+				out.term(term);
+				while (c != null && c.next()) {
+					Integer id = docIds.get(c.document());
+					if (id == null) {
+						id = docs.size();
+						docIds.put(c.document(), id);
+						docs.add(c.document());
+					}
+					out.posting(id, c.frequency());
+				}
+			}
+			out.finish(docs, noiseWords);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes an index file one keyword at a time, so that the occurrences never have to be
+	 * in memory all at once; only the keywords, document names and lengths are kept until
+	 * the end. Keywords must come in TERM_ORDER, each followed by its occurrences in descending
+	 * order of frequency. The file is written under a temporary name, and only moved in place
+	 * by finish; closing the writer without finishing leaves no file behind.
+	 */
+	static class Writer implements Closeable {
+
+		private final Path target;
+		private final Path temp;
+		private final CountingStream counter;
+		private final DataOutputStream out;
+
+		/**
+		 * Keywords written so far, with the offset and number of their postings.
+		 */
+		private final ArrayList<byte[]> terms;
+		private long[] postingsAt;
+		private int[] postingsCount;
+
+		/**
+		 * Sum of the frequencies written for each document id.
+		 */
+		private int[] docLengths;
+
+		private boolean finished;
+
+		/**
+		 * Starts an index file.
+		 *
+		 * @param indexFile Name of the index file
+		 * @throws IOException If the temporary file cannot be created
+		 */
+		public Writer(String indexFile)
+		throws IOException {
+			target = Paths.get(indexFile).toAbsolutePath();
+			temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			counter = new CountingStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+			out = new DataOutputStream(counter);
+			terms = new ArrayList<byte[]>();
+			postingsAt = new long[64];
+			postingsCount = new int[64];
+			docLengths = new int[64];
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		/**
+		 * Starts the occurrences of the next keyword.
+		 *
+		 * @param term Keyword in UTF-8, after the previous one in TERM_ORDER
+		 * @throws IOException If the file cannot be written
+		 */
+		public void term(byte[] term)
+		throws IOException {
+			int t = terms.size();
+			if (t > 0 && TERM_ORDER.compare(terms.get(t - 1), term) >= 0) {
+				throw new IllegalArgumentException("Keywords out of order: " 
+						+ new String(term, StandardCharsets.UTF_8));
+			}
+			if (t == postingsAt.length) {
+				postingsAt = Arrays.copyOf(postingsAt, 2 * t);
+				postingsCount = Arrays.copyOf(postingsCount, 2 * t);
+			}
+			terms.add(term);
+			postingsAt[t] = counter.count;
+		}
+
+		/**
+		 * Writes an occurrence of the current keyword.
+		 *
+		 * @param doc Document id
+		 * @param freq Frequency
+		 * @throws IOException If the file cannot be written
+		 */
+		public void posting(int doc, int freq)
+		throws IOException {
+			if (doc >= docLengths.length) {
+				docLengths = Arrays.copyOf(docLengths, Math.max(2 * docLengths.length, doc + 1));
+			}
+			docLengths[doc] += freq;
+			out.writeInt(doc);
+			out.writeInt(freq);
+			postingsCount[terms.size() - 1]++;
+		}
+
+		/**
+		 * Writes the rest of the file and moves it in place.
+		 *
+		 * @param docs Document names, by the ids the occurrences were written with
+		 * @param noiseWords Noise words to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void finish(List<String> docs, Collection<String> noiseWords)
+		throws IOException {
+			long[] at = new long[docs.size() + noiseWords.size() + terms.size()];
+			int i = 0;
+			for (int d = 0; d < docs.size(); d++) {
+				at[i++] = counter.count;
+				writeBytes(out, docs.get(d).getBytes(StandardCharsets.UTF_8));
+				out.writeInt(d < docLengths.length ? docLengths[d] : 0);
+			}
+			for (String word: noiseWords) {
+				at[i++] = counter.count;
+				writeBytes(out, word.getBytes(StandardCharsets.UTF_8));
+			}
+			for (int t = 0; t < terms.size(); t++) {
+				at[i++] = counter.count;
+				writeBytes(out, terms.get(t));
+				out.writeLong(postingsAt[t]);
+				out.writeInt(postingsCount[t]);
+			}
+
+			long offsetsAt = counter.count;
+			for (long a: at) {
+				out.writeLong(a);
+			}
+			out.writeLong(offsetsAt);
+			out.writeInt(docs.size());
+			out.writeInt(noiseWords.size());
+			out.writeInt(terms.size());
+			out.writeInt(MAGIC);
+			out.close();
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			finished = true;
+		}
+
+		/**
+		 * Closes the file, and deletes it if it was not finished.
+		 *
+		 * @throws IOException If the file cannot be closed or deleted
+		 */
+		public void close()
+		throws IOException {
+			out.close();
+			if (!finished) {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/**
+	 * Output stream that counts the bytes written through it, as DataOutputStream.size stops
+	 * doing at 2GB.
+	 */
+	private static class CountingStream extends FilterOutputStream {
+		long count;
+
+		CountingStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b)
+		throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len)
+		throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Writes a length-prefixed byte string.
+	 */
+	private static void writeBytes(DataOutputStream out, byte[] bytes)
+	throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+}
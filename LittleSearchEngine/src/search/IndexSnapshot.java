@@ -0,0 +1,423 @@
+package search;
+
+import java.util.*;
+
+/**
+ * An immutable version of an engine's index, which any number of threads can search while
+ * the engine goes on indexing. A reader that holds on to a snapshot keeps seeing the same
+ * documents, each either completely in it or not at all.
+ *
+ * Each occurrence list is published as an array of chunks of about CHUNK occurrences, which
+ * never change once published. The engine notes where its lists change between two versions
+ * (see Edits), and the next version shares every chunk that was not touched, copying only
+ * the touched chunks and the array of chunk references, so that adding an occurrence to a
+ * long list costs about a CHUNK-th of the list rather than the whole of it. The lists are
+ * kept by term id, as the engine numbers its keywords (see TermIndex), in pages of PAGE term
+ * ids, and the next version copies only the pages of the keywords that changed and shares the
+ * rest (copy on write). A keyword is looked up in a read-only view of the engine's term table
+ * as it was when the version was built (see TermTable.view).
+ *
+ * Keywords of an index file that have not changed since it was loaded are not copied at all:
+ * they are read straight from the file's IndexSegment, which never changes either.
+ *
+ * Snapshots are published by the engine in concurrent mode (see
+ * LittleSearchEngine.setConcurrent); they take no locks, and searching one never blocks.
+ */
+public class IndexSnapshot implements PostingSource {
+
+	/**
+	 * Number of term ids in a page of lists.
+	 */
+	static final int PAGE = 256;
+
+	/**
+	 * Number of occurrences in a chunk of a list when it is cut up; a chunk that occurrences
+	 * are added to grows up to twice this before it is cut up again.
+	 */
+	static final int CHUNK = 64;
+
+	/**
+	 * A published occurrence list, in chunks.
+	 */
+	static final class Postings extends AbstractList<Occurrence> implements RandomAccess {
+
+		/**
+		 * Chunks, none of them empty, in order.
+		 */
+		final Occurrence[][] chunks;
+
+		/**
+		 * Index in the list just past each chunk.
+		 */
+		private final int[] ends;
+
+		Postings(Occurrence[][] chunks) {
+			this.chunks = chunks;
+			ends = new int[chunks.length];
+			int end = 0;
+			for (int c = 0; c < chunks.length; c++) {
+				end += chunks[c].length;
+				ends[c] = end;
+			}
+		}
+
+		public int size() {
+			return ends.length == 0 ? 0 : ends[ends.length - 1];
+		}
+
+		public Occurrence get(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+			}
+			int lo = 0;
+			int hi = ends.length - 1;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (ends[mid] <= index) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return chunks[lo][index - (ends[lo] - chunks[lo].length)];
+		}
+
+		/**
+		 * Returns a cursor that walks the chunks.
+		 */
+		PostingCursor cursor() {
+			return new PostingCursor() {
+				private int chunk = 0;
+				private int index = -1;
+				private Occurrence current;
+
+				public boolean next() {
+					index++;
+					while (chunk < chunks.length && index >= chunks[chunk].length) {
+						chunk++;
+						index = 0;
+					}
+					current = chunk < chunks.length ? chunks[chunk][index] : null;
+					return current != null;
+				}
+
+				public String document() {
+					return current.document;
+				}
+
+				public int frequency() {
+					return current.frequency;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Where a published list has changed since, kept by the engine for the next version:
+	 * the current number of occurrences in each chunk of the published list, and whether
+	 * anything was inserted into or removed from the chunk. An occurrence inserted between
+	 * two chunks counts as inserted into the first.
+	 */
+	static final class Edits {
+		private final Postings from;
+		private final int[] sizes;
+		private final boolean[] touched;
+
+		Edits(Postings from) {
+			this.from = from;
+			sizes = new int[from.chunks.length];
+			for (int c = 0; c < sizes.length; c++) {
+				sizes[c] = from.chunks[c].length;
+			}
+			touched = new boolean[sizes.length];
+		}
+
+		/**
+		 * Notes that an occurrence was inserted into the list.
+		 *
+		 * @param at Index of the new occurrence in the list
+		 */
+		void inserted(int at) {
+			int c = 0;
+			int end = sizes[0];
+			while (at > end && c + 1 < sizes.length) {
+				end += sizes[++c];
+			}
+			sizes[c]++;
+			touched[c] = true;
+		}
+
+		/**
+		 * Notes that occurrences were inserted into the list, all at once.
+		 *
+		 * @param at Index of each new occurrence in the list, in increasing order
+		 * @param n Number of new occurrences
+		 */
+		void inserted(int[] at, int n) {
+			int c = 0;
+			int end = sizes[0];
+			for (int i = 0; i < n; i++) {
+				while (at[i] > end && c + 1 < sizes.length) {
+					end += sizes[++c];
+				}
+				sizes[c]++;
+				touched[c] = true;
+				end++;
+			}
+		}
+
+		/**
+		 * Notes that an occurrence was removed from the list.
+		 *
+		 * @param at Index the occurrence had in the list
+		 */
+		void removed(int at) {
+			int c = 0;
+			int end = sizes[0];
+			while (at >= end) {
+				end += sizes[++c];
+			}
+			sizes[c]--;
+			touched[c] = true;
+		}
+	}
+
+	/**
+	 * Shared empty list, which hides a keyword of the index file that has no occurrences left.
+	 */
+	private static final Postings NONE = new Postings(new Occurrence[0][]);
+
+	/**
+	 * Term ids of the keywords that changed since the index file was loaded, or null if none
+	 * has.
+	 */
+	private final TermTable terms;
+
+	/**
+	 * Occurrences of every keyword that changed since the index file was loaded, in descending
+	 * order of frequency, by term id: the list of term id t is pages[t / PAGE][t % PAGE], or
+	 * a missing page or null if the keyword has no occurrences. The pages are never changed
+	 * once the snapshot is published.
+	 */
+	private final Postings[][] pages;
+
+	/**
+	 * Index file the other keywords are read from, or null.
+	 */
+	private final IndexSegment segment;
+
+	/**
+	 * Number of the version, 0 for the first one published.
+	 */
+	private final long version;
+
+	/**
+	 * Number of keywords, over all tables and the index file.
+	 */
+	private final int size;
+
+	private IndexSnapshot(TermTable terms, Postings[][] pages, IndexSegment segment, long version, int size) {
+		this.terms = terms;
+		this.pages = pages;
+		this.segment = segment;
+		this.version = version;
+		this.size = size;
+	}
+
+	/**
+	 * Returns a snapshot of just an index file, from which a whole index is published.
+	 *
+	 * @param version Version number of the snapshot; the one built from it has the next number
+	 * @param segment Index file whose keywords are read in place, or null for none
+	 * @return Snapshot with the keywords of the index file, if any
+	 */
+	static IndexSnapshot empty(long version, IndexSegment segment) {
+		return new IndexSnapshot(null, new Postings[0][], segment, version, segment == null ? 0 : segment.termCount());
+	}
+
+	/**
+	 * Returns where the published list of a keyword is to be noted as changing, before the
+	 * engine first changes it after this version.
+	 *
+	 * @param keyword Keyword
+	 * @return Edits to note the changes in, or null if the list is not published in chunks
+	 *         that can be shared, so that the next version has to copy it whole
+	 */
+	Edits edits(String keyword) {
+		Postings p = find(keyword);
+		return p == null || p.chunks.length == 0 ? null : new Edits(p);
+	}
+
+	/**
+	 * Builds the next version, with new occurrences for some keywords. The pages of the
+	 * other keywords are shared with this version, which does not change.
+	 *
+	 * @param terms View of the engine's term table, which has every changed keyword and
+	 *        every keyword of this version (see TermIndex.terms)
+	 * @param changes New occurrences of the changed keywords, in descending order of frequency;
+	 *        an empty list or null takes the keyword out
+	 * @param edits Where each changed list changed since this version (see edits), or null
+	 *        for every list to be copied whole
+	 * @return Next version
+	 * @throws IllegalStateException If a changed keyword is not in the term table
+	 */
+	IndexSnapshot with(TermTable terms, Map<String,? extends List<Occurrence>> changes, Map<String,Edits> edits) {
+		Postings[][] next = Arrays.copyOf(pages, (terms.size() + PAGE - 1) / PAGE);
+		boolean[] copied = new boolean[next.length];
+		int n = size;
+		for (Map.Entry<String,? extends List<Occurrence>> e: changes.entrySet()) {
+			String keyword = e.getKey();
+			int id = terms.find(keyword);
+			if (id < 0) {
+				throw new IllegalStateException("Keyword has no term id: " + keyword);
+			}
+			int p = id / PAGE;
+			if (!copied[p]) {
+				next[p] = next[p] == null ? new Postings[PAGE] : next[p].clone();
+				copied[p] = true;
+			}
+			Postings old = next[p][id % PAGE];
+			boolean inFile = segment != null && (old == null || old.size() == 0) && segment.find(keyword) >= 0;
+			if (old == null ? inFile : old.size() > 0) {
+				n--;
+			}
+			List<Occurrence> occs = e.getValue();
+			if (occs == null || occs.isEmpty()) {
+				next[p][id % PAGE] = inFile ? NONE : null;
+			} else {
+				next[p][id % PAGE] = postings(occs, edits == null ? null : edits.get(keyword));
+				n++;
+			}
+		}
+		return new IndexSnapshot(terms, next, segment, version + 1, n);
+	}
+
+	/**
+	 * Cuts a list into chunks, sharing the chunks of the published list that were not touched.
+	 *
+	 * @param occs Occurrences, in descending order of frequency
+	 * @param edits Changes since the published list, or null to cut up the whole list
+	 * @return Published list
+	 */
+	private static Postings postings(List<Occurrence> occs, Edits edits) {
+		ArrayList<Occurrence[]> chunks = new ArrayList<Occurrence[]>();
+		if (edits == null) {
+			cut(occs, 0, occs.size(), chunks);
+		} else {
+			int at = 0;
+			for (int c = 0; c < edits.sizes.length; c++) {
+				if (edits.touched[c]) {
+					cut(occs, at, at + edits.sizes[c], chunks);
+				} else {
+					chunks.add(edits.from.chunks[c]);
+				}
+				at += edits.sizes[c];
+			}
+			if (at != occs.size()) {
+				throw new IllegalStateException("List of " + occs.size() + " occurrences changed to " + at);
+			}
+		}
+		return new Postings(chunks.toArray(new Occurrence[chunks.size()][]));
+	}
+
+	/**
+	 * Copies a part of a list as one chunk, or as chunks of CHUNK if it is longer than two.
+	 */
+	private static void cut(List<Occurrence> occs, int from, int to, ArrayList<Occurrence[]> chunks) {
+		while (to - from > 2 * CHUNK) {
+			chunks.add(occs.subList(from, from + CHUNK).toArray(new Occurrence[CHUNK]));
+			from += CHUNK;
+		}
+		if (to > from) {
+			chunks.add(occs.subList(from, to).toArray(new Occurrence[to - from]));
+		}
+	}
+
+	/**
+	 * Returns the published list of a keyword that changed since the index file was loaded.
+	 *
+	 * @return List, empty if it hides a keyword of the index file, or null if the keyword
+	 *         has not changed or has no occurrences
+	 */
+	private Postings find(String keyword) {
+		int id = terms == null ? -1 : terms.find(keyword);
+		if (id < 0) {
+			return null;
+		}
+		Postings[] page = pages[id / PAGE];
+		return page == null ? null : page[id % PAGE];
+	}
+
+	/**
+	 * Returns the version number of this snapshot. Every version the engine publishes has
+	 * a higher number than the one before.
+	 *
+	 * @return Version number, starting at 0
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of keywords in this snapshot.
+	 *
+	 * @return Number of keywords that occur in at least one document
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the occurrences of a keyword.
+	 *
+	 * @param keyword Keyword, in lower case
+	 * @return Read-only list of occurrences in descending order of frequency, or null if
+	 *         the keyword does not occur in any document
+	 */
+	public List<Occurrence> occurrences(String keyword) {
+		Postings occs = find(keyword);
+		if (occs != null) {
+			return occs.size() == 0 ? null : occs;
+		}
+		int t = segment == null ? -1 : segment.find(keyword);
+		return t < 0 ? null : Collections.unmodifiableList(segment.postings(t));
+	}
+
+	public PostingCursor cursor(String keyword) {
+		Postings occs = find(keyword);
+		if (occs != null) {
+			return occs.size() == 0 ? null : occs.cursor();
+		}
+		int t = segment == null ? -1 : segment.find(keyword);
+		return t < 0 ? null : segment.cursor(t);
+	}
+
+	/**
+	 * Same as LittleSearchEngine.top5search, on this snapshot.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to 5 documents. If there are no matching documents,
+	 *         the result is null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Same as LittleSearchEngine.topKSearch, on this snapshot.
+	 *
+	 * @param keywords Keywords, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies, at most k of them. If there are no matching documents, the result is null.
+	 */
+	public ArrayList<String> topKSearch(List<String> keywords, int k) {
+		ArrayList<String> kws = new ArrayList<String>(keywords.size());
+		for (String kw: keywords) {
+			kws.add(kw.toLowerCase());
+		}
+		return LittleSearchEngine.names(TopKSearch.search(this, kws, k));
+	}
+}
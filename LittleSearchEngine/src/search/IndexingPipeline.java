@@ -0,0 +1,378 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Indexes documents as they arrive, for instance from a crawler, without writing them to
+ * disk first. Documents are submitted with their text as a Reader or an InputStream, and
+ * go through two stages, each fed by a bounded queue:
+ *
+ *   submit -> [documents] -> tokenizer threads -> [keywords] -> merge thread -> engine
+ *
+ * The tokenizer threads load the keywords of a document each (see loadKeyWords), and the
+ * merge thread adds whatever keywords tables are waiting to the engine in one batch (see
+ * mergeDocuments), so the busier the pipeline, the bigger the batches and the cheaper each
+ * document. When a queue is full, the stage before it waits, and so in the end does submit:
+ * memory is bounded by the queue capacity, whatever the rate documents come in at.
+ *
+ * Documents reach the index in the order their tokenizing finishes, which may not be the
+ * order they were submitted in. A document that is already in the index is updated. A
+ * document that cannot be tokenized, or a batch that cannot be merged, fails whatever it
+ * throws, Errors included, and the threads go on with the next one. Only the merge thread
+ * changes the engine, so nothing else may change it while the pipeline is open; searches
+ * from other threads need the engine to be in concurrent mode, and see each batch once it
+ * is merged.
+ */
+public class IndexingPipeline implements Closeable {
+
+	/**
+	 * Largest number of documents merged in one batch.
+	 */
+	static final int MAX_BATCH = 256;
+
+	/**
+	 * A document waiting to be tokenized.
+	 */
+	private static class Document {
+		final String name;
+		final Reader text;
+
+		Document(String name, Reader text) {
+			this.name = name;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Keywords of a document waiting to be merged.
+	 */
+	private static class Tokenized {
+		final String name;
+		final HashMap<String,Occurrence> kws;
+
+		Tokenized(String name, HashMap<String,Occurrence> kws) {
+			this.name = name;
+			this.kws = kws;
+		}
+	}
+
+	/**
+	 * Engine documents are added to.
+	 */
+	private final LittleSearchEngine engine;
+
+	/**
+	 * Queues between the stages.
+	 */
+	private final ArrayBlockingQueue<Document> documents;
+	private final ArrayBlockingQueue<Tokenized> tokenized;
+
+	/**
+	 * Tokenizer threads and the merge thread.
+	 */
+	private final ArrayList<Thread> threads;
+
+	/**
+	 * Counters.
+	 */
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder indexed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final long started;
+
+	/**
+	 * Number of documents submitted and not yet merged or failed; flush waits on this.
+	 */
+	private long pending;
+
+	/**
+	 * First failure since the last flush, with the name of its document, or null.
+	 */
+	private IOException failure;
+
+	private volatile boolean closed;
+
+	/**
+	 * Starts a pipeline.
+	 *
+	 * @param engine Engine to add documents to
+	 * @param tokenizers Number of tokenizer threads
+	 * @param capacity Number of documents each queue holds
+	 */
+	public IndexingPipeline(LittleSearchEngine engine, int tokenizers, int capacity) {
+		if (tokenizers <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException("Threads and capacity must be positive");
+		}
+		this.engine = engine;
+		documents = new ArrayBlockingQueue<Document>(capacity);
+		tokenized = new ArrayBlockingQueue<Tokenized>(capacity);
+		threads = new ArrayList<Thread>(tokenizers + 1);
+		for (int i = 0; i < tokenizers; i++) {
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					tokenize();
+				}
+			}, "pipeline-tokenizer-" + i));
+		}
+		threads.add(new Thread(new Runnable() {
+			public void run() {
+				merge();
+			}
+		}, "pipeline-merge"));
+		for (Thread t: threads) {
+			t.setDaemon(true);
+			t.start();
+		}
+		started = System.nanoTime();
+	}
+
+	/**
+	 * Submits a document, waiting for room in the queue if it is full. The text is read by
+	 * a tokenizer thread and closed once read.
+	 *
+	 * @param name Name of the document
+	 * @param text Text of the document
+	 * @throws InterruptedException If interrupted while waiting for room
+	 * @throws IllegalStateException If the pipeline is closed
+	 */
+	public void submit(String name, Reader text)
+	throws InterruptedException {
+		if (closed) {
+			throw new IllegalStateException("Pipeline is closed");
+		}
+		synchronized (this) {
+			pending++;
+		}
+		submitted.increment();
+		try {
+			documents.put(new Document(name, text));
+		} catch (InterruptedException e) {
+			done(1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Submits a document whose text is in the platform default charset, as for document files.
+	 *
+	 * @param name Name of the document
+	 * @param text Bytes of the document
+	 * @throws InterruptedException If interrupted while waiting for room
+	 */
+	public void submit(String name, InputStream text)
+	throws InterruptedException {
+		submit(name, new InputStreamReader(text));
+	}
+
+	/**
+	 * Tokenizes documents until the pipeline is closed.
+	 */
+	private void tokenize() {
+		try {
+			while (true) {
+				Document doc = documents.take();
+				HashMap<String,Occurrence> kws = null;
+				try {
+					kws = engine.loadKeyWords(doc.name, doc.text);
+				} catch (IOException e) {
+					fail(doc.name, e);
+				} catch (Throwable e) {
+					// even an Error, such as a StackOverflowError on a pathological document,
+					// fails just this document, so that flush does not wait for it forever
+					fail(doc.name, new IOException(e));
+				} finally {
+					try {
+						doc.text.close();
+					} catch (IOException e) {
+						// the text has been read, or failed already
+					}
+				}
+				if (kws != null) {
+					long n = 0;
+					for (Occurrence occ: kws.values()) {
+						n += occ.frequency;
+					}
+					tokens.add(n);
+					tokenized.put(new Tokenized(doc.name, kws));
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Merges batches of tokenized documents until the pipeline is closed.
+	 */
+	private void merge() {
+		ArrayList<Tokenized> batch = new ArrayList<Tokenized>(MAX_BATCH);
+		ArrayList<String> names = new ArrayList<String>(MAX_BATCH);
+		ArrayList<HashMap<String,Occurrence>> docs = new ArrayList<HashMap<String,Occurrence>>(MAX_BATCH);
+		try {
+			while (true) {
+				batch.add(tokenized.take());
+				tokenized.drainTo(batch, MAX_BATCH - 1);
+				for (Tokenized t: batch) {
+					names.add(t.name);
+					docs.add(t.kws);
+				}
+				try {
+					engine.mergeDocuments(names, docs);
+					indexed.add(batch.size());
+				} catch (Throwable e) {
+					for (String name: names) {
+						fail(name, new IOException(e));
+					}
+					batch.clear();
+				}
+				batches.increment();
+				done(batch.size());
+				batch.clear();
+				names.clear();
+				docs.clear();
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Records a document that could not be indexed.
+	 */
+	private void fail(String name, IOException e) {
+		failed.increment();
+		synchronized (this) {
+			if (failure == null) {
+				failure = new IOException("Could not index " + name, e);
+			}
+		}
+		done(1);
+	}
+
+	/**
+	 * Counts documents that are through the pipeline, one way or the other.
+	 */
+	private synchronized void done(long n) {
+		pending -= n;
+		if (pending == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every document submitted so far is in the index, or has failed.
+	 *
+	 * @throws IOException If a document failed since the last flush; the others are indexed
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized void flush()
+	throws IOException, InterruptedException {
+		while (pending > 0) {
+			wait();
+		}
+		IOException e = failure;
+		failure = null;
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of documents submitted.
+	 *
+	 * @return Documents submitted since the pipeline started
+	 */
+	public long documentsSubmitted() {
+		return submitted.sum();
+	}
+
+	/**
+	 * Returns the number of documents in the index.
+	 *
+	 * @return Documents merged since the pipeline started
+	 */
+	public long documentsIndexed() {
+		return indexed.sum();
+	}
+
+	/**
+	 * Returns the number of documents that could not be indexed.
+	 *
+	 * @return Documents failed since the pipeline started
+	 */
+	public long documentsFailed() {
+		return failed.sum();
+	}
+
+	/**
+	 * Returns the number of keyword occurrences tokenized.
+	 *
+	 * @return Keywords, counted with their frequencies, since the pipeline started
+	 */
+	public long keywordsTokenized() {
+		return tokens.sum();
+	}
+
+	/**
+	 * Returns the number of batches merged.
+	 *
+	 * @return Batches since the pipeline started
+	 */
+	public long batchesMerged() {
+		return batches.sum();
+	}
+
+	/**
+	 * Returns the number of documents indexed per second since the pipeline started.
+	 *
+	 * @return Throughput in documents per second
+	 */
+	public double documentsPerSecond() {
+		return indexed.sum() / Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+	}
+
+	/**
+	 * Returns the number of documents waiting for a tokenizer.
+	 *
+	 * @return Depth of the document queue
+	 */
+	public int documentQueueDepth() {
+		return documents.size();
+	}
+
+	/**
+	 * Returns the number of tokenized documents waiting to be merged.
+	 *
+	 * @return Depth of the merge queue
+	 */
+	public int mergeQueueDepth() {
+		return tokenized.size();
+	}
+
+	/**
+	 * Waits for every document submitted to be indexed, then stops the threads.
+	 *
+	 * @throws IOException If a document failed since the last flush
+	 */
+	public void close()
+	throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Thread t: threads) {
+				t.interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Counts the keyword occurrences of one document at a time, as the sink of a
+ * KeywordTokenizer, for loadKeyWords. The keywords are kept in a TermTable that lives on from
+ * document to document, so a keyword is found straight from the tokenizer's buffer and only
+ * gets a String the first time the counter ever sees it. Every document's hash table then
+ * shares those Strings, whose hash codes are already computed.
+ *
+ * A counter is not thread safe; the engine keeps one per thread.
+ */
+class KeywordCounter implements KeywordTokenizer.Sink {
+
+	/**
+	 * Number of keywords past which the term table is emptied before the next document, so
+	 * that a counter does not keep a whole corpus's worth of keywords.
+	 */
+	static final int MAX_TERMS = 1 << 20;
+
+	private final TermTable terms;
+
+	/**
+	 * Occurrence of each keyword in the current document, by term id, null if it is not in
+	 * the document.
+	 */
+	private Occurrence[] occs;
+
+	/**
+	 * Term ids of the keywords of the current document, in the order they were first seen.
+	 */
+	private int[] seen;
+	private int count;
+
+	private String doc;
+	private boolean positional;
+
+	/**
+	 * Initializes a counter.
+	 */
+	public KeywordCounter() {
+		terms = new TermTable(1024, true);
+		occs = new Occurrence[1024];
+		seen = new int[256];
+	}
+
+	/**
+	 * Starts counting a document, forgetting any document that was not finished.
+	 *
+	 * @param doc Name of the document
+	 * @param positional Whether to record the positions of the keywords, and their offsets
+	 *        if the tokenizer counts bytes
+	 */
+	public void start(String doc, boolean positional) {
+		clear();
+		if (terms.size() > MAX_TERMS) {
+			terms.clear();
+		}
+		this.doc = doc;
+		this.positional = positional;
+	}
+
+	public void keyword(char[] chars, int len, int position, long offset) {
+		int id = terms.add(chars, 0, len);
+		if (id >= occs.length) {
+			occs = Arrays.copyOf(occs, 2 * occs.length);
+		}
+		Occurrence occ = occs[id];
+		if (occ == null) {
+			occs[id] = positional ? new PositionalOccurrence(doc, position, offset) : new Occurrence(doc, 1);
+			if (count == seen.length) {
+				seen = Arrays.copyOf(seen, 2 * seen.length);
+			}
+			seen[count++] = id;
+		} else if (positional) {
+			((PositionalOccurrence)occ).add(position, offset);
+		} else {
+			occ.frequency++;
+		}
+	}
+
+	/**
+	 * Ends the document.
+	 *
+	 * @return Hash table of keywords in the document, each associated with an Occurrence object
+	 */
+	public HashMap<String,Occurrence> finish() {
+		HashMap<String,Occurrence> kw = new HashMap<String,Occurrence>(Math.max(16, count * 4 / 3 + 1));
+		for (int i = 0; i < count; i++) {
+			kw.put(terms.term(seen[i]), occs[seen[i]]);
+		}
+		clear();
+		return kw;
+	}
+
+	private void clear() {
+		for (int i = 0; i < count; i++) {
+			occs[seen[i]] = null;
+		}
+		count = 0;
+		doc = null;
+	}
+}
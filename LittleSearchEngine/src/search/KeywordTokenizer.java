@@ -0,0 +1,284 @@
+package search;
+
+import java.nio.charset.*;
+
+/**
+ * Splits a stream of characters into words on whitespace, the way java.util.Scanner does,
+ * and hands every word that passes the keyword test to a sink. The keyword test is the one
+ * documented in LittleSearchEngine.getKeyWord, applied directly on character buffers: no
+ * String is created for a word unless the sink creates one, and noise words are rejected
+ * with a single hashed probe.
+ *
+ * Text may be fed in any number of chunks; a word that straddles two chunks is carried
+ * over. A tokenizer is not thread safe, so each scan should use its own.
+ *
+ * A tokenizer can also count the bytes the text took before it was decoded (see
+ * countBytes), and hand the sink the byte offset of each keyword, so that the text around
+ * a keyword can later be read straight from the file.
+ */
+class KeywordTokenizer {
+
+	/**
+	 * Receiver of the keywords found by a tokenizer.
+	 */
+	interface Sink {
+		/**
+		 * Called once for every keyword occurrence, in text order. The buffer is reused
+		 * for the next keyword, so it must be copied if it is to be kept.
+		 *
+		 * @param chars Keyword characters, lower case and without trailing punctuation
+		 * @param len Number of characters of the keyword at the start of chars
+		 * @param position Number of words, keywords or not, before this one in the text
+		 * @param offset Byte offset of the keyword's first character in the text, or -1 if
+		 *        bytes are not counted
+		 */
+		void keyword(char[] chars, int len, int position, long offset);
+	}
+
+	/**
+	 * Noise words, which are never keywords.
+	 */
+	private final TermTable noiseWords;
+
+	/**
+	 * Where keywords go, null if the tokenizer is only used to test single words.
+	 */
+	private final Sink sink;
+
+	/**
+	 * The word being read, and its length so far.
+	 */
+	private char[] word;
+	private int wordLen;
+
+	/**
+	 * Number of words read so far, and how many of them were noise words.
+	 */
+	private int words;
+	private int noise;
+
+	/**
+	 * The last keyword produced, and the number of characters stripped from the start of
+	 * its word.
+	 */
+	private char[] keyword;
+	private int keywordStart;
+
+	/**
+	 * How bytes are counted: NO_BYTES, SINGLE_BYTES or UTF8_BYTES.
+	 */
+	private int byteCount;
+	private static final int NO_BYTES = 0, SINGLE_BYTES = 1, UTF8_BYTES = 2;
+
+	/**
+	 * Bytes of text read so far, and the byte offset of the word being read.
+	 */
+	private long bytes;
+	private long wordOffset;
+
+	/**
+	 * Initializes a tokenizer.
+	 *
+	 * @param noiseWords Noise words
+	 * @param sink Receiver of the keywords, or null if only keyWord will be used
+	 */
+	public KeywordTokenizer(TermTable noiseWords, Sink sink) {
+		this.noiseWords = noiseWords;
+		this.sink = sink;
+		word = new char[32];
+		keyword = new char[32];
+		wordLen = 0;
+	}
+
+	/**
+	 * Starts counting the bytes of the text, as encoded in a charset, so that keywords are
+	 * passed to the sink with their byte offsets. Charsets of one byte per character and
+	 * UTF-8 can be counted. Offsets are exact for text that was well formed in the charset.
+	 *
+	 * @param charset Charset the text was decoded from
+	 * @return False if the charset cannot be counted, in which case offsets stay -1
+	 */
+	public boolean countBytes(Charset charset) {
+		if (charset.equals(StandardCharsets.UTF_8)) {
+			byteCount = UTF8_BYTES;
+		} else if (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1) {
+			byteCount = SINGLE_BYTES;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a chunk of text, passing every keyword that ends in the chunk to the sink.
+	 *
+	 * @param chars Text buffer
+	 * @param off Start of chunk
+	 * @param len Length of chunk
+	 */
+	public void feed(char[] chars, int off, int len) {
+		if (byteCount != NO_BYTES) {
+			feedCounting(chars, off, len);
+			return;
+		}
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			char c = chars[i];
+			if (Character.isWhitespace(c)) {
+				if (wordLen > 0) {
+					endWord();
+				}
+			} else {
+				if (wordLen == word.length) {
+					word = grow(word);
+				}
+				word[wordLen++] = c;
+			}
+		}
+	}
+
+	/**
+	 * Same as feed, counting bytes as it goes.
+	 */
+	private void feedCounting(char[] chars, int off, int len) {
+		int end = off + len;
+		boolean utf8 = byteCount == UTF8_BYTES;
+		for (int i = off; i < end; i++) {
+			char c = chars[i];
+			if (Character.isWhitespace(c)) {
+				if (wordLen > 0) {
+					endWord();
+				}
+			} else {
+				if (wordLen == 0) {
+					wordOffset = bytes;
+				}
+				if (wordLen == word.length) {
+					word = grow(word);
+				}
+				word[wordLen++] = c;
+			}
+			// a surrogate pair is 4 bytes in UTF-8, 2 for each half
+			bytes += !utf8 || c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+		}
+	}
+
+	/**
+	 * Marks the end of the text, passing the last word to the sink if it is a keyword.
+	 */
+	public void finish() {
+		if (wordLen > 0) {
+			endWord();
+		}
+	}
+
+	/**
+	 * Applies the keyword test to a single word.
+	 *
+	 * @param candidate Candidate word
+	 * @return Keyword (word without trailing punctuation, LOWER CASE), or null if it is not one
+	 */
+	public String keyWord(String candidate) {
+		char[] chars = candidate.toCharArray();
+		int len = keyWord(chars, chars.length);
+		return len < 0 ? null : new String(keyword, 0, len);
+	}
+
+	private void endWord() {
+		int len = keyWord(word, wordLen);
+		wordLen = 0;
+		if (len >= 0) {
+			// the punctuation stripped from the start is all one byte characters
+			sink.keyword(keyword, len, words, byteCount == NO_BYTES ? -1 : wordOffset + keywordStart);
+		}
+		words++;
+	}
+
+	/**
+	 * The keyword test. Punctuation (plus '-' and '\'') is stripped from both ends of
+	 * the word; what remains must have no punctuation inside, and must have at least one
+	 * letter. Of what remains, only the characters 'A' through 'z' are kept, lower cased.
+	 * A word with a line terminator in it is never a keyword.
+	 *
+	 * @param chars Word buffer
+	 * @param len Length of word
+	 * @return Length of the keyword left in the keyword buffer, or -1 if the word is not a keyword
+	 */
+	private int keyWord(char[] chars, int len) {
+		int first = 0;
+		while (first < len && isPunctuation(chars[first])) {
+			first++;
+		}
+		int last = len - 1;
+		while (last >= first && isPunctuation(chars[last])) {
+			last--;
+		}
+		if (first > last) {
+			return -1;
+		}
+
+		boolean letter = false;
+		for (int i = first; i <= last; i++) {
+			char c = chars[i];
+			if (isPunctuation(c) || isLineTerminator(c)) {
+				return -1;
+			}
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+				letter = true;
+			}
+		}
+		if (!letter) {
+			return -1;
+		}
+
+		if (keyword.length < len) {
+			keyword = new char[word.length > len ? word.length : len];
+		}
+		int klen = 0;
+		for (int i = first; i <= last; i++) {
+			char c = chars[i];
+			if (c >= 'A' && c <= 'z') {
+				keyword[klen++] = c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+			}
+		}
+		if (noiseWords.find(keyword, 0, klen) >= 0) {
+			noise++;
+			return -1;
+		}
+		keywordStart = first;
+		return klen;
+	}
+
+	/**
+	 * Returns the number of words read so far, keywords or not.
+	 *
+	 * @return Word count
+	 */
+	public int words() {
+		return words;
+	}
+
+	/**
+	 * Returns the number of words read so far that were noise words.
+	 *
+	 * @return Noise word count
+	 */
+	public int noiseWords() {
+		return noise;
+	}
+
+	private static boolean isPunctuation(char c) {
+		return c == '.' || c == ',' || c == '?' || c == ':' || c == ';' || c == '!'
+				|| c == '-' || c == '\'';
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static char[] grow(char[] chars) {
+		char[] bigger = new char[2 * chars.length];
+		System.arraycopy(chars, 0, bigger, 0, chars.length);
+		return bigger;
+	}
+}
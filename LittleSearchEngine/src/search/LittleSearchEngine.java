@@ -1,189 +1,1493 @@
 package search;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * This class encapsulates an occurrence of a keyword in a document. It stores the
- * document name, and the frequency of occurrence in that document. Occurrences are
- * associated with keywords in an index hash table.
- * 
- * @author Sesh Venugopal
- * 
+ * This class builds an index of keywords. Each keyword maps to a set of documents in
+ * which it occurs, with frequency of occurrence in each document. Once the index is built,
+ * the documents can searched on for keywords.
+ *
  */
-class Occurrence {
+public class LittleSearchEngine implements PostingSource {
+	
+	/**
+	 * This is a table of all keywords kept in memory, by term id (see TermIndex). Each keyword has
+	 * an array list of all occurrences of the keyword in documents, maintained in descending
+	 * order of occurrence frequencies, or a compact list of them packed by compact.
+	 */
+	TermIndex termIndex;
+	
+	/**
+	 * The table of all noise words, which the keyword tokenizer probes without
+	 * creating Strings.
+	 */
+	TermTable noiseWords;
+	
+	/**
+	 * Keyword counter of each thread that runs loadKeyWords, kept from one document to the
+	 * next so that its term table already holds most keywords.
+	 */
+	private final ThreadLocal<KeywordCounter> counters = new ThreadLocal<KeywordCounter>() {
+		protected KeywordCounter initialValue() {
+			return new KeywordCounter();
+		}
+	};
+	
+	/**
+	 * Documents of this many bytes or more are memory mapped by loadKeyWords.
+	 */
+	long mapThreshold;
+	
+	/**
+	 * Index file opened by loadIndex, or null. Its keywords are copied into termIndex
+	 * the first time they are used, so termIndex holds only part of the index until
+	 * everything has been touched.
+	 */
+	IndexSegment segment;
+	
+	/**
+	 * Ids of the documents referred to by compact lists.
+	 */
+	DocumentTable documents;
+	
+	/**
+	 * The keywords of every document merged into this engine, by document name, so that
+	 * a document can be taken out of the index without looking at every keyword. Each
+	 * document's keywords are kept as their term ids, in ascending order, packed as the
+	 * gaps between them (see packTermIds), which takes a byte or two per keyword.
+	 */
+	HashMap<String,byte[]> documentKeywords;
+	
+	/**
+	 * Documents that came from an index file, and so are not in documentKeywords; null
+	 * until removeDocument first needs it.
+	 */
+	HashSet<String> untrackedDocuments;
+	
+	/**
+	 * Document order views of keywords, built when a boolean query first needs them and
+	 * dropped when the keyword's occurrences change.
+	 */
+	HashMap<String,DocIdPostings> docOrderViews;
+	
+	/**
+	 * Per-block frequency and length statistics of keywords, built when a BM25 search first
+	 * needs them and dropped when the keyword's occurrences change.
+	 */
+	HashMap<String,Bm25Search.Bounds> scoreBounds;
+	
+	/**
+	 * Cache of search results, or null if results are not cached.
+	 */
+	QueryCache queryCache;
+	
+	/**
+	 * Word positions of every keyword in every document indexed in positional mode, or null
+	 * if the engine is not in positional mode.
+	 */
+	PositionIndex positions;
+	
+	/**
+	 * Byte offsets of every keyword in every document file indexed in offset mode, or null
+	 * if the engine is not in offset mode.
+	 */
+	PositionIndex offsets;
+	
+	/**
+	 * Near duplicate detector of the documents indexed with deduplication on, or null if
+	 * deduplication is off.
+	 */
+	DuplicateDetector duplicates;
+	
+	/**
+	 * Latest published snapshot of the index in concurrent mode, or null if the engine is
+	 * not in concurrent mode. Written by the indexing thread, read by any thread.
+	 */
+	volatile IndexSnapshot published;
+	
+	/**
+	 * Keywords whose occurrences changed since the last snapshot was published, with where
+	 * their published lists changed, or null edits for lists to be published whole; null if
+	 * the engine is not in concurrent mode.
+	 */
+	HashMap<String,IndexSnapshot.Edits> unpublished;
+	
+	/**
+	 * Sorted dictionary of the keywords, built when a prefix search first needs it, or null.
+	 */
+	TermDictionary termDictionary;
+	
+	/**
+	 * Keywords that may have been added since termDictionary was built; null when it is.
+	 */
+	TreeSet<String> newTerms;
+	
+	/**
+	 * Prefix autocomplete trie of the keywords, built when suggest first needs it, or null.
+	 */
+	Autocomplete autocomplete;
+	
+	/**
+	 * Keywords whose document counts may have changed since autocomplete was brought up to
+	 * date; null when autocomplete is.
+	 */
+	HashSet<String> suggestChanges;
+	
+	/**
+	 * Metrics of this engine, or null if metrics are off. Written by the indexing thread,
+	 * read by any thread.
+	 */
+	volatile EngineMetrics metrics;
+	
+	/**
+	 * Creates the keyword index and the noiseWords table.
+	 */
+	public LittleSearchEngine() {
+		termIndex = new TermIndex();
+		noiseWords = new TermTable(100, false);
+		mapThreshold = 1 << 20;
+		documents = new DocumentTable();
+		documentKeywords = new HashMap<String,byte[]>();
+		docOrderViews = new HashMap<String,DocIdPostings>();
+		scoreBounds = new HashMap<String,Bm25Search.Bounds>();
+	}
+	/**
+	 * This method indexes all keywords found in all the input documents. When this
+	 * method is done, the keyword index will be filled with all keywords,
+	 * each of which is associated with an array list of Occurrence objects, arranged
+	 * in decreasing frequencies of occurrence.
+	 * 
+	 * Occurrences are appended to their lists as documents are scanned, and each list is put
+	 * in order once at the end (see BulkMerge), in exactly the order that merging the documents
+	 * one by one with mergeKeyWords would give.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile) 
+	throws FileNotFoundException {
+		// load noise words to hash table
+		loadNoiseWords(noiseWordsFile);
+		
+		// index all keywords
+		BulkMerge bulk = new BulkMerge(this);
+		Scanner sc = new Scanner(new File(docsFile));
+		int due = PUBLISH_INTERVAL;
+		for (int n = 1; sc.hasNext(); n++) {
+			String docFile = sc.next();
+			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+			if (recordKeyWords(kws)) {
+				bulk.add(kws);
+			}
+			if (published != null && n == due) {
+				finish(bulk, null);
+				due = n + Math.max(PUBLISH_INTERVAL, n / PUBLISH_GROWTH);
+			}
+		}
+		finish(bulk, null);
+	}
+	
+	/**
+	 * Parallel version of makeIndex. Documents are scanned concurrently on the given
+	 * executor (the common fork-join pool if null), in batches of BATCH_PER_THREAD documents
+	 * per worker. The occurrence lists are then put in order by MERGE_STRIPES tasks, each
+	 * of which owns the keywords that hash to its stripe, so every Occurrence list ends up
+	 * exactly as the sequential makeIndex would leave it.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param pool Executor to run the scan and merge tasks on, or null for the common pool
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, ExecutorService pool)
+	throws FileNotFoundException {
+		if (pool == null) {
+			pool = ForkJoinPool.commonPool();
+		}
+		loadNoiseWords(noiseWordsFile);
+		
+		int batchSize = Runtime.getRuntime().availableProcessors() * BATCH_PER_THREAD;
+		ArrayList<String> batch = new ArrayList<String>(batchSize);
+		BulkMerge bulk = new BulkMerge(this);
+		Scanner sc = new Scanner(new File(docsFile));
+		int due = PUBLISH_INTERVAL;
+		for (int n = 1; sc.hasNext(); n++) {
+			batch.add(sc.next());
+			if (batch.size() == batchSize) {
+				indexBatch(batch, bulk, pool);
+				batch.clear();
+				if (published != null && n >= due) {
+					finish(bulk, pool);
+					due = n + Math.max(PUBLISH_INTERVAL, n / PUBLISH_GROWTH);
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			indexBatch(batch, bulk, pool);
+		}
+		finish(bulk, pool);
+	}
+	
+	/**
+	 * Builds the index of a corpus that is too big to index in memory, and loads it. Occurrences
+	 * are written to run files in a temporary directory whenever those in memory reach the
+	 * memory budget, and the runs are then merged into an index file (see ExternalIndexBuilder),
+	 * which is loaded as with loadIndex, replacing the contents of this engine. The index is
+	 * the same as makeIndex followed by saveIndex would write; word positions are not kept.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param indexFile Name of the index file to write
+	 * @param memoryBudget Bytes of occurrences, roughly, to hold in memory at a time
+	 * @param tempDir Directory for the run files, or null for the system temporary directory
+	 * @throws IOException If an input file cannot be read, or a run file or the index file
+	 *         cannot be written
+	 */
+	public void makeIndexFile(String docsFile, String noiseWordsFile, String indexFile,
+			long memoryBudget, String tempDir)
+	throws IOException {
+		loadNoiseWords(noiseWordsFile);
+		if (duplicates != null) {
+			duplicates.clear();
+		}
+		ExternalIndexBuilder builder = new ExternalIndexBuilder(memoryBudget, tempDir);
+		try {
+			Scanner sc = new Scanner(new File(docsFile));
+			while (sc.hasNext()) {
+				String docFile = sc.next();
+				HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+				if (duplicates != null && !kws.isEmpty() && duplicates.add(docFile, kws) != null) {
+					continue;
+				}
+				EngineMetrics m = metrics;
+				if (m != null && !kws.isEmpty()) {
+					m.indexed(kws);
+				}
+				builder.add(kws);
+			}
+			builder.finish(indexFile, noiseWordList());
+		} finally {
+			builder.close();
+		}
+		// loading forgets the duplicates, which were found for this very index
+		DuplicateDetector found = duplicates;
+		duplicates = null;
+		loadIndex(indexFile);
+		duplicates = found;
+	}
+	
+	/**
+	 * Number of documents scanned per worker thread before the parallel makeIndex merges.
+	 */
+	private static final int BATCH_PER_THREAD = 16;
+	
+	/**
+	 * Number of disjoint keyword stripes sorted concurrently by the parallel makeIndex.
+	 */
+	private static final int MERGE_STRIPES = 16;
+	
+	/**
+	 * Least number of documents makeIndex scans between snapshots in concurrent mode.
+	 */
+	private static final int PUBLISH_INTERVAL = 64;
+	
+	/**
+	 * Once makeIndex has scanned PUBLISH_GROWTH * PUBLISH_INTERVAL documents in concurrent
+	 * mode, it scans a further 1/PUBLISH_GROWTH of what it has scanned before each snapshot.
+	 * Putting a batch in order moves the tails of the lists it adds to, so a fixed interval
+	 * would make the build quadratic in the number of documents; this way there are about
+	 * PUBLISH_GROWTH snapshots each time the index grows by a factor of e.
+	 */
+	private static final int PUBLISH_GROWTH = 8;
+	
+	/**
+	 * Loads the noise words file into the noiseWords table. makeIndex does this itself;
+	 * an engine that is fed documents by an IndexingPipeline needs it done first.
+	 * 
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	public void loadNoiseWords(String noiseWordsFile) 
+	throws FileNotFoundException {
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			noiseWords.add(sc.next());
+		}
+	}
+	
+	/**
+	 * Returns the noise words, as they are written to an index file.
+	 * 
+	 * @return Noise words, in the order they were loaded
+	 */
+	private ArrayList<String> noiseWordList() {
+		ArrayList<String> words = new ArrayList<String>(noiseWords.size());
+		for (int id = 0; id < noiseWords.size(); id++) {
+			words.add(noiseWords.term(id));
+		}
+		return words;
+	}
+	
+	/**
+	 * Scans a batch of documents in parallel, then adds their keywords to a bulk merge
+	 * in batch order.
+	 * 
+	 * @param docs Document file names, in docs file order
+	 * @param bulk Bulk merge of the documents scanned so far
+	 * @param pool Executor to run on
+	 * @throws FileNotFoundException If any of the documents is not found on disk
+	 */
+	private void indexBatch(ArrayList<String> docs, BulkMerge bulk, ExecutorService pool)
+	throws FileNotFoundException {
+		ArrayList<Future<HashMap<String,Occurrence>>> scans = 
+				new ArrayList<Future<HashMap<String,Occurrence>>>(docs.size());
+		for (final String doc: docs) {
+			scans.add(pool.submit(new Callable<HashMap<String,Occurrence>>() {
+				public HashMap<String,Occurrence> call() throws FileNotFoundException {
+					return loadKeyWords(doc);
+				}
+			}));
+		}
+		for (Future<HashMap<String,Occurrence>> scan: scans) {
+			HashMap<String,Occurrence> kws = await(scan);
+			if (recordKeyWords(kws)) {
+				bulk.add(kws);
+			}
+		}
+	}
+	
+	/**
+	 * Puts the lists of a bulk merge in order, then publishes them in concurrent mode.
+	 * 
+	 * @param bulk Bulk merge, which is cleared for the next documents
+	 * @param pool Executor to sort the lists on, stripe by stripe, or null to sort them
+	 *        on this thread
+	 * @throws FileNotFoundException Not in practice, as sorting reads no files
+	 */
+	private void finish(final BulkMerge bulk, ExecutorService pool)
+	throws FileNotFoundException {
+		if (pool == null) {
+			bulk.sortStripe(0, 1);
+		} else {
+			// each stripe sorts only its own lists, so the stripes can run at the same time
+			ArrayList<Future<Object>> sorts = new ArrayList<Future<Object>>(MERGE_STRIPES);
+			for (int s = 0; s < MERGE_STRIPES; s++) {
+				final int stripe = s;
+				sorts.add(pool.submit(new Callable<Object>() {
+					public Object call() {
+						bulk.sortStripe(stripe, MERGE_STRIPES);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> sort: sorts) {
+				await(sort);
+			}
+		}
+		bulk.clear();
+		publish();
+	}
+	
+	/**
+	 * Waits for a task of the parallel makeIndex, rethrowing its failure.
+	 * 
+	 * @param task Task to wait for
+	 * @return Result of the task
+	 * @throws FileNotFoundException If the task failed to find a document
+	 */
+	private static <T> T await(Future<T> task) 
+	throws FileNotFoundException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while indexing", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
+	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * 
+	 * @param docFile Name of the document file to be scanned and loaded
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
+	throws FileNotFoundException {
+		KeywordCounter counter = counters.get();
+		counter.start(docFile, positions != null || offsets != null);
+		KeywordTokenizer tokenizer = new KeywordTokenizer(noiseWords, counter);
+		if (offsets != null) {
+			tokenizer.countBytes(Charset.defaultCharset());
+		}
+		DocumentScanner.scan(docFile, tokenizer, mapThreshold);
+		EngineMetrics m = metrics;
+		if (m != null) {
+			m.scanned(tokenizer);
+		}
+		return counter.finish();
+	}
+	
+	/**
+	 * Same as loadKeyWords, for a document whose text comes from a Reader rather than a file.
+	 * No byte offsets are recorded, since there are no bytes to count.
+	 * 
+	 * @param doc Name of the document
+	 * @param text Text of the document, read to the end but not closed
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws IOException If the text cannot be read
+	 */
+	HashMap<String,Occurrence> loadKeyWords(String doc, Reader text)
+	throws IOException {
+		KeywordCounter counter = counters.get();
+		counter.start(doc, positions != null || offsets != null);
+		KeywordTokenizer tokenizer = new KeywordTokenizer(noiseWords, counter);
+		DocumentScanner.scan(text, tokenizer);
+		EngineMetrics m = metrics;
+		if (m != null) {
+			m.scanned(tokenizer);
+		}
+		return counter.finish();
+	}
+	
+	/**
+	 * Sets the document size at or above which loadKeyWords memory maps a document
+	 * and tokenizes straight from the mapped bytes, instead of reading it through a Reader.
+	 * 
+	 * @param bytes Size threshold in bytes; 0 maps every document, Long.MAX_VALUE none
+	 */
+	public void setMapThreshold(long bytes) {
+		mapThreshold = bytes;
+	}
+	
+	/**
+	 * Merges the keywords for a single document into the master keyword
+	 * index. For each keyword, its Occurrence in the current document
+	 * must be inserted in the correct place (according to descending order of
+	 * frequency) in the same keyword's Occurrence list in the master index. 
+	 * This is done by calling the insertLastOccurrence method.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
+		merge(kws);
+		publish();
+	}
+	
+	/**
+	 * Does the work of mergeKeyWords, without publishing a snapshot.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	private void merge(HashMap<String,Occurrence> kws) {
+		if (!recordKeyWords(kws)) {
+			return;
+		}
+		for(String key: kws.keySet())
+		{
+			changed(key);
+			ArrayList<Occurrence> occs = postings(key);
+			if(occs != null)
+			{
+				Occurrence occ = kws.get(key);
+				occs.add(occ);
+				ArrayList<Integer> midpoints = insertLastOccurrence(occs);
+				IndexSnapshot.Edits edits = edits(key);
+				if (edits != null) {
+					// the occurrence went in just after or at the last midpoint
+					int last = midpoints == null ? 0 : midpoints.get(midpoints.size() - 1);
+					edits.inserted(occs.get(last) == occ ? last : last + 1);
+				}
+			}
+			else
+			{
+                ArrayList<Occurrence> oc = new ArrayList<Occurrence>();
+			    oc.add(kws.get(key));
+				termIndex.setList(termIndex.add(key), oc);
+			}
+		}
+	}
+	
+	/**
+	 * Adds documents whose keywords have been loaded to the index, as addDocument would one
+	 * by one, but with the occurrence lists put in order once per batch (see BulkMerge).
+	 * Documents that are already in the index are updated. In concurrent mode, a snapshot
+	 * is published at the end.
+	 * 
+	 * @param names Names of the documents
+	 * @param docs Keywords hash table for each document
+	 */
+	void mergeDocuments(List<String> names, List<HashMap<String,Occurrence>> docs) {
+		BulkMerge bulk = new BulkMerge(this);
+		HashSet<String> batch = new HashSet<String>();
+		int from = 0;
+		for (int i = 0; i <= names.size(); i++) {
+			if (i < names.size() && batch.add(names.get(i))) {
+				continue;
+			}
+			// the old occurrences of every document of the batch must be gone before the
+			// bulk merge appends to the lists, and a document that comes twice starts a new batch
+			for (int j = from; j < i; j++) {
+				unindex(names.get(j));
+			}
+			for (int j = from; j < i; j++) {
+				if (recordKeyWords(docs.get(j))) {
+					bulk.add(docs.get(j));
+				}
+			}
+			try {
+				finish(bulk, null);
+			} catch (FileNotFoundException e) {
+				// sorting on this thread reads no files
+				throw new IllegalStateException(e);
+			}
+			batch.clear();
+			if (i < names.size()) {
+				batch.add(names.get(i));
+			}
+			from = i;
+		}
+	}
+	
+	/**
+	 * Readies the occurrence list of a keyword for a bulk merge to append new occurrences to,
+	 * reading it into termIndex first if need be, or putting a new list in termIndex if the
+	 * keyword has none.
+	 * 
+	 * @param keyword Keyword
+	 * @return Term id of the keyword, whose list in termIndex is in descending order of frequency
+	 */
+	int mergeTarget(String keyword) {
+		changed(keyword);
+		if (postings(keyword) == null) {
+			termIndex.setList(termIndex.add(keyword), new ArrayList<Occurrence>());
+		}
+		return termIndex.find(keyword);
+	}
+	
+	/**
+	 * Returns where the changes to the list of a keyword are to be noted, for the next
+	 * snapshot to share the parts of the published list that did not change.
+	 * 
+	 * @param keyword Keyword that changed (see changed)
+	 * @return Edits to note the changes in, or null if there is nothing to note, as the
+	 *         engine is not in concurrent mode or the list is to be published whole
+	 */
+	IndexSnapshot.Edits edits(String keyword) {
+		return unpublished == null ? null : unpublished.get(keyword);
+	}
+	
+	/**
+	 * Remembers which keywords a document has, for removeDocument. Positional occurrences
+	 * have their positions moved into the position index, and are replaced with plain
+	 * occurrences, which are all termIndex keeps. With deduplication on, a near duplicate
+	 * of a document in the index is only recorded as collapsed into it, and must not be added.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 * @return False if the document is a near duplicate, true if it is to be added
+	 */
+	private boolean recordKeyWords(HashMap<String,Occurrence> kws) {
+		if (kws.isEmpty()) {
+			return true;
+		}
+		String doc = kws.values().iterator().next().document;
+		if (duplicates != null && duplicates.add(doc, kws) != null) {
+			return false;
+		}
+		documentKeywords.put(doc, packTermIds(kws.keySet()));
+		int length = 0;
+		for (Occurrence occ: kws.values()) {
+			length += occ.frequency;
+		}
+		int id = documents.id(doc);
+		documents.setLength(id, length);
+		EngineMetrics m = metrics;
+		if (m != null) {
+			m.indexed(kws);
+		}
+		for (Map.Entry<String,Occurrence> e: kws.entrySet()) {
+			if (e.getValue() instanceof PositionalOccurrence) {
+				PositionalOccurrence occ = (PositionalOccurrence)e.getValue();
+				if (positions != null) {
+					positions.put(e.getKey(), id, occ.positions, occ.frequency);
+				}
+				if (offsets != null && occ.offsets != null) {
+					offsets.put(e.getKey(), id, occ.offsets, occ.offsetCount);
+				}
+				e.setValue(new Occurrence(occ.document, occ.frequency));
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Packs the term ids of keywords, giving a keyword the next term id if it does not have
+	 * one yet. The ids are sorted, and written as the gaps between them, each a varint (see
+	 * PostingList.putVarint).
+	 * 
+	 * @param keywords Keywords of a document
+	 * @return Packed term ids
+	 */
+	private byte[] packTermIds(Set<String> keywords) {
+		int[] ids = new int[keywords.size()];
+		int n = 0;
+		for (String key: keywords) {
+			ids[n++] = termIndex.add(key);
+		}
+		Arrays.sort(ids);
+		int length = 0;
+		for (int i = 0; i < n; i++) {
+			length += PostingList.varintLength(i == 0 ? ids[0] : ids[i] - ids[i - 1]);
+		}
+		byte[] packed = new byte[length];
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			pos = PostingList.putVarint(packed, pos, i == 0 ? ids[0] : ids[i] - ids[i - 1]);
+		}
+		return packed;
+	}
+	
+	/**
+	 * Unpacks term ids packed by packTermIds.
+	 * 
+	 * @param packed Packed term ids
+	 * @return Keywords with those term ids
+	 */
+	private String[] unpackTermIds(byte[] packed) {
+		int n = 0;
+		for (int pos = 0; pos < packed.length; pos++) {
+			if (packed[pos] >= 0) {
+				n++;
+			}
+		}
+		String[] keywords = new String[n];
+		int id = 0;
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			int gap = PostingList.getVarint(packed, pos);
+			pos += PostingList.varintLength(gap);
+			id += gap;
+			keywords[i] = termIndex.term(id);
+		}
+		return keywords;
+	}
+	
+	/**
+	 * Adds a document to the index. Only the occurrence lists of the document's keywords
+	 * are changed, and each occurrence is put in its place in descending order of frequency
+	 * with insertLastOccurrence. If the document is already in the index, it is updated.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void addDocument(String docFile) 
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+		unindex(docFile);
+		merge(kws);
+		publish();
+	}
+	
+	/**
+	 * Re-indexes a document whose contents have changed. The document is scanned first,
+	 * so if it cannot be read the index is left as it was.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void updateDocument(String docFile) 
+	throws FileNotFoundException {
+		addDocument(docFile);
+	}
+	
+	/**
+	 * Takes a document out of the index. The occurrence lists of the document's keywords
+	 * lose the document's occurrence and otherwise keep their order; keywords left with no
+	 * occurrences are dropped. For a document that came from an index file, whose keywords
+	 * are not known, every keyword has to be checked.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index, false otherwise
+	 */
+	public boolean removeDocument(String docFile) {
+		boolean removed = unindex(docFile);
+		publish();
+		return removed;
+	}
+	
+	/**
+	 * Does the work of removeDocument, without publishing a snapshot.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index, false otherwise
+	 */
+	private boolean unindex(String docFile) {
+		ArrayList<String> promoted = new ArrayList<String>();
+		if (duplicates != null && duplicates.remove(docFile, promoted)) {
+			return true;
+		}
+		boolean removed = drop(docFile);
+		if (!promoted.isEmpty()) {
+			promote(promoted);
+		}
+		return removed;
+	}
+	
+	/**
+	 * Indexes the near duplicates that became canonical when the document they were
+	 * collapsed into was removed, scanning them again. One that cannot be read, or has no
+	 * keywords any more, is forgotten in turn, and its own duplicates checked again.
+	 * 
+	 * @param promoted Documents that became canonical, in order; documents that become
+	 *        canonical in turn are added to it
+	 */
+	private void promote(ArrayList<String> promoted) {
+		for (int i = 0; i < promoted.size(); i++) {
+			String doc = promoted.get(i);
+			HashMap<String,Occurrence> kws;
+			try {
+				kws = loadKeyWords(doc);
+			} catch (FileNotFoundException e) {
+				kws = null;
+			}
+			if (kws == null || kws.isEmpty()) {
+				duplicates.remove(doc, promoted);
+			} else {
+				merge(kws);
+			}
+		}
+	}
+	
+	/**
+	 * Takes a document that is not a collapsed near duplicate out of the index.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index, false otherwise
+	 */
+	private boolean drop(String docFile) {
+		byte[] packed = documentKeywords.remove(docFile);
+		String[] kws;
+		if (packed != null) {
+			kws = unpackTermIds(packed);
+		} else {
+			if (!untracked(docFile)) {
+				return false;
+			}
+			kws = keywordsOf(docFile);
+			untrackedDocuments.remove(docFile);
+		}
+		int id = documents.find(docFile);
+		if (id >= 0) {
+			if (positions != null) {
+				positions.remove(id, kws);
+			}
+			if (offsets != null) {
+				offsets.remove(id, kws);
+			}
+			documents.setLength(id, 0);
+		}
+		boolean removed = false;
+		for (String key: kws) {
+			ArrayList<Occurrence> occs = postings(key);
+			if (occs == null) {
+				continue;
+			}
+			changed(key);
+			for (int i = 0; i < occs.size(); i++) {
+				if (occs.get(i).document.equals(docFile)) {
+					occs.remove(i);
+					IndexSnapshot.Edits edits = edits(key);
+					if (edits != null) {
+						edits.removed(i);
+					}
+					removed = true;
+					break;
+				}
+			}
+			if (occs.isEmpty()) {
+				if (unpublished != null) {
+					// whatever is added before the next snapshot makes up the whole list
+					unpublished.put(key, null);
+				}
+				// an empty list stays behind to hide the keyword in the index file
+				if (segment == null || segment.find(key) < 0) {
+					termIndex.setList(termIndex.find(key), null);
+				}
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Tells whether a document came from an index file and has not been removed since.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document's keywords are not in documentKeywords
+	 */
+	private boolean untracked(String docFile) {
+		if (untrackedDocuments == null && segment != null) {
+			untrackedDocuments = new HashSet<String>(segment.documents());
+		}
+		return untrackedDocuments != null && untrackedDocuments.contains(docFile);
+	}
+	
+	/**
+	 * Finds the keywords of a document by searching every occurrence list.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return Keywords that occur in the document
+	 */
+	private String[] keywordsOf(String docFile) {
+		ArrayList<String> kws = new ArrayList<String>();
+		for (String key: keywords()) {
+			PostingCursor c = cursor(key);
+			while (c.next()) {
+				if (c.document().equals(docFile)) {
+					kws.add(key);
+					break;
+				}
+			}
+		}
+		return kws.toArray(new String[kws.size()]);
+	}
+	
+	/**
+	 * Given a word, returns it as a keyword if it passes the keyword test,
+	 * otherwise returns null. A keyword is any word that, after being stripped of any
+	 * TRAILING punctuation, consists only of alphabetic letters, and is not
+	 * a noise word. All words are treated in a case-INsensitive manner.
+	 * 
+	 * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+	 * 
+	 * @param word Candidate word
+	 * @return Keyword (word without trailing punctuation, LOWER CASE)
+	 */
+	public String getKeyWord(String word) {
+		return new KeywordTokenizer(noiseWords, null).keyWord(word);
+	}
+	
+	/**
+	 * Writes the whole index, along with the noise words, to an index file that
+	 * loadIndex can later open without re-indexing any document.
+	 * 
+	 * @param indexFile Name of the index file to write
+	 * @throws IOException If the index file cannot be written
+	 */
+	public void saveIndex(String indexFile) 
+	throws IOException {
+		IndexSegment.write(indexFile, keywords(), this, noiseWordList());
+	}
+	
+	/**
+	 * Replaces the contents of this engine with an index file written by saveIndex. The file
+	 * is memory mapped, and the occurrences of a keyword are only read when the keyword is first
+	 * used, so the engine is ready to search as soon as this method returns.
+	 * 
+	 * @param indexFile Name of the index file
+	 * @throws IOException If the index file cannot be read, or is not an index file
+	 */
+	public void loadIndex(String indexFile) 
+	throws IOException {
+		IndexSegment loaded = new IndexSegment(indexFile);
+		termIndex = new TermIndex();
+		documents = new DocumentTable();
+		documentKeywords = new HashMap<String,byte[]>();
+		untrackedDocuments = null;
+		docOrderViews = new HashMap<String,DocIdPostings>();
+		scoreBounds = new HashMap<String,Bm25Search.Bounds>();
+		termDictionary = null;
+		newTerms = null;
+		autocomplete = null;
+		suggestChanges = null;
+		if (queryCache != null) {
+			queryCache.clear();
+		}
+		if (positions != null) {
+			positions.clear();
+		}
+		if (offsets != null) {
+			offsets.clear();
+		}
+		if (duplicates != null) {
+			duplicates.clear();
+		}
+		noiseWords = new TermTable(100, false);
+		for (String word: loaded.noiseWords()) {
+			noiseWords.add(word);
+		}
+		// the new table hands out the same ids as the file, in the same order
+		ArrayList<String> names = loaded.documents();
+		for (int id = 0; id < names.size(); id++) {
+			documents.setLength(documents.id(names.get(id)), loaded.documentLength(id));
+		}
+		segment = loaded;
+		EngineMetrics m = metrics;
+		if (m != null) {
+			m.countLengths();
+		}
+		if (published != null) {
+			// the keywords of the file are read from it in place
+			unpublished = new HashMap<String,IndexSnapshot.Edits>();
+			published = IndexSnapshot.empty(published.version(), segment)
+					.with(termIndex.terms(), new HashMap<String,ArrayList<Occurrence>>(), null);
+		}
+	}
+	
+	/**
+	 * Returns the occurrence list of a keyword, unpacking it, or reading it from the index
+	 * file into termIndex, if need be.
+	 * 
+	 * @param keyword Keyword
+	 * @return Occurrences of the keyword in descending order of frequency, or null if there are none
+	 */
+	ArrayList<Occurrence> postings(String keyword) {
+		int id = termIndex.find(keyword);
+		if (id >= 0 && termIndex.has(id)) {
+			ArrayList<Occurrence> occs = termIndex.list(id);
+			if (occs == null) {
+				occs = termIndex.packed(id).decode();
+				termIndex.setList(id, occs);
+			}
+			return occs;
+		}
+		ArrayList<Occurrence> occs = segment == null ? null : segment.postings(keyword);
+		if (occs != null) {
+			termIndex.setList(id >= 0 ? id : termIndex.add(keyword), occs);
+		}
+		return occs;
+	}
+	
+	/**
+	 * Same as postings, but does not change termIndex. A packed list, or a list read from
+	 * the index file, is a fresh copy.
+	 * 
+	 * @param keyword Keyword
+	 * @return Occurrences of the keyword in descending order of frequency, or null if there are none
+	 */
+	ArrayList<Occurrence> stored(String keyword) {
+		int id = termIndex.find(keyword);
+		if (id >= 0 && termIndex.has(id)) {
+			ArrayList<Occurrence> occs = termIndex.list(id);
+			return occs != null ? occs : termIndex.packed(id).decode();
+		}
+		return segment == null ? null : segment.postings(keyword);
+	}
+	
+	/**
+	 * Returns a cursor over the occurrences of a keyword. Compact lists are read in place,
+	 * without being turned back into Occurrence objects.
+	 * 
+	 * @param keyword Keyword, in lower case
+	 * @return Cursor over the occurrences in descending order of frequency, or null if
+	 *         the keyword does not occur in any document
+	 */
+	public PostingCursor cursor(String keyword) {
+		int id = termIndex.find(keyword);
+		PostingList packed = id < 0 ? null : termIndex.packed(id);
+		if (packed != null) {
+			return packed.cursor();
+		}
+		ArrayList<Occurrence> occs = id >= 0 && termIndex.has(id) ? termIndex.list(id) : postings(keyword);
+		return occs == null || occs.isEmpty() ? null : new OccurrenceCursor(occs);
+	}
+	
+	/**
+	 * Called whenever the occurrences of a keyword are about to change, to drop whatever was
+	 * derived from them.
+	 * 
+	 * @param keyword Keyword whose occurrences changed
+	 */
+	private void changed(String keyword) {
+		EngineMetrics m = metrics;
+		if (m != null) {
+			m.changing(keyword);
+		}
+		docOrderViews.remove(keyword);
+		scoreBounds.remove(keyword);
+		if (unpublished != null && !unpublished.containsKey(keyword)) {
+			unpublished.put(keyword, published.edits(keyword));
+		}
+		if (newTerms != null && termDictionary.find(keyword) < 0) {
+			newTerms.add(keyword);
+		}
+		if (suggestChanges != null) {
+			suggestChanges.add(keyword);
+		}
+		if (queryCache != null) {
+			queryCache.invalidate(keyword);
+		}
+	}
+	
+	/**
+	 * Turns caching of search results on or off. Results of topKSearch (and so top5search),
+	 * booleanSearch, bm25Search and phraseSearch are kept in a least recently used cache of the given size; a result
+	 * is dropped as soon as the occurrences of one of its keywords change.
+	 * 
+	 * @param capacity Maximum number of cached results, 0 to turn caching off
+	 */
+	public void setQueryCache(int capacity) {
+		queryCache = capacity > 0 ? new QueryCache(capacity) : null;
+	}
+	
+	/**
+	 * Turns metrics on or off (see EngineMetrics). With metrics on, documents and words
+	 * scanned and indexed are counted, the latency of every topKSearch (and so top5search)
+	 * is recorded, and the lengths of the occurrence lists, counted once when metrics are
+	 * turned on, are kept up to date as keywords change; with metrics off (the default)
+	 * nothing is counted.
+	 * 
+	 * @param on True to turn metrics on, false to turn them off
+	 */
+	public void setMetrics(boolean on) {
+		if (!on) {
+			EngineMetrics m = metrics;
+			metrics = null;
+			if (m != null) {
+				m.stopReporting();
+				try {
+					m.unregister();
+				} catch (javax.management.JMException e) {
+					// nothing else refers to the metrics
+				}
+			}
+		} else if (metrics == null) {
+			metrics = new EngineMetrics(this);
+		}
+	}
+	
+	/**
+	 * Returns the metrics of this engine.
+	 * 
+	 * @return Metrics, or null if metrics are off
+	 */
+	public EngineMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Turns positional mode on or off. In positional mode, loadKeyWords also records the
+	 * word position of every keyword occurrence, and phraseSearch can be used. Positions take
+	 * a byte or two per occurrence, plus 8 bytes per keyword of each document for its document
+	 * id and where its positions start (see PositionIndex); measured on 3000 documents of 200
+	 * words, that came to about 12 bytes per occurrence on top of the index, which itself
+	 * took 26. With positional mode off (the default) nothing is recorded. Only documents
+	 * merged while the mode is on have positions, and turning it off drops them. Positions are
+	 * not written to index files.
+	 * 
+	 * @param on True to turn positional mode on, false to turn it off
+	 */
+	public void setPositional(boolean on) {
+		if (!on) {
+			positions = null;
+		} else if (positions == null) {
+			positions = new PositionIndex();
+		}
+	}
+	
 	/**
-	 * Document in which a keyword occurs.
+	 * Turns offset mode on or off. In offset mode, loadKeyWords also records the byte offset
+	 * in the document file of every keyword occurrence, and snippet can then read the text
+	 * around a keyword straight from the file, without scanning it. Offsets are kept as
+	 * longs, so files of any size have them, and cost the same as positions (see
+	 * setPositional): the gaps between them take a byte or two each, plus 8 bytes per keyword
+	 * of each document, which came to about 12 bytes per occurrence on 3000 documents of 200
+	 * words. Only documents read from files while the mode is on have offsets, and turning it
+	 * off drops them. Offsets are not written to index files.
+	 * 
+	 * @param on True to turn offset mode on, false to turn it off
 	 */
-	String document;
+	public void setOffsets(boolean on) {
+		if (!on) {
+			offsets = null;
+		} else if (offsets == null) {
+			offsets = new PositionIndex();
+		}
+	}
 	
 	/**
-	 * The frequency (number of times) the keyword occurs in the above document.
+	 * Turns deduplication on or off. With deduplication on, every document merged into the
+	 * index, by any of makeIndex, mergeKeyWords, addDocument or updateDocument, is first
+	 * checked against the documents already in it (see DuplicateDetector). A near duplicate,
+	 * whose keywords and their frequencies are at least threshold similar to those of a
+	 * document in the index, is collapsed into that canonical document: it is not added, so
+	 * its occurrences take no room in the index, no search returns it, and it does not push
+	 * other documents out of a top 5. See canonicalDocument and duplicatesOf.
+	 * 
+	 * makeIndexFile deduplicates the same way. Only documents merged while deduplication is on
+	 * are checked, or checked against. When a canonical document is removed or updated, the
+	 * first document collapsed into it is scanned again and indexed in its place, and the
+	 * others are checked again, against it first; any that are no longer near duplicates of
+	 * a document in the index are scanned and indexed too. Turning deduplication off,
+	 * changing the threshold or loading an index file forgets every collapsed document.
+	 * 
+	 * @param threshold Smallest similarity of a near duplicate, in (0, 1], such as 0.9;
+	 *        0 to turn deduplication off
 	 */
-	int frequency;
+	public void setDeduplication(double threshold) {
+		if (threshold == 0) {
+			duplicates = null;
+		} else if (duplicates == null || duplicates.threshold() != threshold) {
+			duplicates = new DuplicateDetector(threshold);
+		}
+	}
 	
 	/**
-	 * Initializes this occurrence with the given document,frequency pair.
+	 * Returns the document that a near duplicate was collapsed into.
 	 * 
-	 * @param doc Document name
-	 * @param freq Frequency
+	 * @param docFile Name of a document file
+	 * @return Canonical document that docFile was collapsed into, or docFile itself if it
+	 *         was not collapsed
 	 */
-	public Occurrence(String doc, int freq) {
-		document = doc;
-		frequency = freq;
+	public String canonicalDocument(String docFile) {
+		String canonical = duplicates == null ? null : duplicates.canonical(docFile);
+		return canonical == null ? docFile : canonical;
 	}
 	
-	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	/**
+	 * Returns the near duplicates collapsed into a document.
+	 * 
+	 * @param docFile Name of a document file in the index
+	 * @return Names of the documents collapsed into docFile, in the order they were merged;
+	 *         empty if there are none
 	 */
-	public String toString() {
-		return "(" + document + "," + frequency + ")";
+	public ArrayList<String> duplicatesOf(String docFile) {
+		return duplicates == null ? new ArrayList<String>() : duplicates.duplicates(docFile);
 	}
-}
-
-/**
- * This class builds an index of keywords. Each keyword maps to a set of documents in
- * which it occurs, with frequency of occurrence in each document. Once the index is built,
- * the documents can searched on for keywords.
- *
- */
-public class LittleSearchEngine {
 	
 	/**
-	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
-	 * order of occurrence frequencies.
+	 * Turns concurrent mode on or off. In concurrent mode, every change to the index ends by
+	 * publishing a new IndexSnapshot, which other threads can search while this engine goes on
+	 * indexing: a snapshot never changes, no lock is taken to read it, and a document is either
+	 * all in it or not at all. mergeKeyWords, addDocument, updateDocument and removeDocument
+	 * publish once per call, makeIndex every PUBLISH_INTERVAL documents at first, further
+	 * apart as the index grows (see PUBLISH_GROWTH), and at the end. top5search and topKSearch
+	 * read the latest snapshot, so they may be called from any thread; every other method must
+	 * still be called from one thread at a time.
+	 * 
+	 * Publishing copies the chunks of the occurrence lists that changed (see IndexSnapshot),
+	 * and the pages of IndexSnapshot.PAGE term ids they are in; the rest of the snapshot is
+	 * shared with the one before. Keywords of a loaded index file are read from the file in
+	 * place until they change.
+	 * 
+	 * @param on True to turn concurrent mode on, false to turn it off
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	public void setConcurrent(boolean on) {
+		if (!on) {
+			published = null;
+			unpublished = null;
+		} else if (published == null) {
+			// everything but the keywords of the index file, which are read from it in place
+			HashMap<String,ArrayList<Occurrence>> lists = new HashMap<String,ArrayList<Occurrence>>();
+			for (int id = 0; id < termIndex.size(); id++) {
+				if (termIndex.has(id)) {
+					String keyword = termIndex.term(id);
+					lists.put(keyword, stored(keyword));
+				}
+			}
+			unpublished = new HashMap<String,IndexSnapshot.Edits>();
+			published = IndexSnapshot.empty(-1, segment).with(termIndex.terms(), lists, null);
+		}
+	}
 	
 	/**
-	 * The hash table of all noise words - mapping is from word to itself.
+	 * Returns the latest published snapshot of the index, for searching from other threads.
+	 * 
+	 * @return Snapshot of the index as of the last publish
+	 * @throws IllegalStateException If the engine is not in concurrent mode
 	 */
-	HashMap<String,String> noiseWords;
+	public IndexSnapshot snapshot() {
+		IndexSnapshot snapshot = published;
+		if (snapshot == null) {
+			throw new IllegalStateException("Snapshots need concurrent mode");
+		}
+		return snapshot;
+	}
 	
 	/**
-	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 * Called at the end of every change to the index. Publishes the changes since the last
+	 * snapshot as a new snapshot, in concurrent mode, and brings the metrics up to date.
 	 */
-	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
-		noiseWords = new HashMap<String,String>(100,2.0f);
+	private void publish() {
+		EngineMetrics m = metrics;
+		if (m != null) {
+			m.changed();
+		}
+		if (published == null || unpublished.isEmpty()) {
+			return;
+		}
+		HashMap<String,ArrayList<Occurrence>> changes = new HashMap<String,ArrayList<Occurrence>>();
+		for (String key: unpublished.keySet()) {
+			changes.put(key, stored(key));
+		}
+		published = published.with(termIndex.terms(), changes, unpublished);
+		unpublished.clear();
 	}
+	
 	/**
-	 * This method indexes all keywords found in all the input documents. When this
-	 * method is done, the keywordsIndex hash table will be filled with all keywords,
-	 * each of which is associated with an array list of Occurrence objects, arranged
-	 * in decreasing frequencies of occurrence.
+	 * Returns the result cache, whose counters tell how well it is doing.
 	 * 
-	 * @param docsFile Name of file that has a list of all the document file names, one name per line
-	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
-	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @return Result cache, or null if caching is off
 	 */
-	public void makeIndex(String docsFile, String noiseWordsFile) 
-	throws FileNotFoundException {
-		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
-		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.put(word,word);
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * Returns the occurrences of a keyword in increasing order of document id, with skip
+	 * pointers, building the view on first use.
+	 * 
+	 * @param keyword Keyword, in lower case
+	 * @return Document order view, empty if the keyword does not occur in any document
+	 */
+	DocIdPostings docOrder(String keyword) {
+		DocIdPostings view = docOrderViews.get(keyword);
+		if (view == null) {
+			view = new DocIdPostings(cursor(keyword), documents);
+			docOrderViews.put(keyword, view);
 		}
-		
-		// index all keywords
-		sc = new Scanner(new File(docsFile));
-		while (sc.hasNext()) {
-			String docFile = sc.next();
-			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
-			mergeKeyWords(kws);
+		return view;
+	}
+	
+	/**
+	 * Returns the block statistics BM25 bounds scores with, computing them on first use.
+	 * 
+	 * @param keyword Keyword, in lower case
+	 * @return Statistics of the keyword's occurrences, empty if it does not occur in any document
+	 */
+	Bm25Search.Bounds scoreBounds(String keyword) {
+		Bm25Search.Bounds bounds = scoreBounds.get(keyword);
+		if (bounds == null) {
+			bounds = new Bm25Search.Bounds(cursor(keyword), documents);
+			scoreBounds.put(keyword, bounds);
 		}
+		return bounds;
 	}
-
+	
 	/**
-	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * Tells whether a keyword occurs in any document, without reading its occurrences.
 	 * 
-	 * @param docFile Name of the document file to be scanned and loaded
-	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
-	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @param keyword Keyword, in lower case
+	 * @return True if the keyword has at least one occurrence
 	 */
-	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
-	throws FileNotFoundException {
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-        HashMap<String,Occurrence> kw = new HashMap<String,Occurrence>();
-        Scanner sc =new Scanner(new File(docFile));
-        while(sc.hasNext())
-        {
-        String text = sc.next();
-            String keyword = getKeyWord(text);
-            if (keyword != null) {
-                if (!kw.containsKey(keyword)) {
-                    kw.put(keyword, new Occurrence(docFile, 1));
-                } else
-                    kw.get(keyword).frequency++;
-            }
-        }
-        return kw;
+	boolean contains(String keyword) {
+		int id = termIndex.find(keyword);
+		if (id >= 0 && termIndex.has(id)) {
+			ArrayList<Occurrence> occs = termIndex.list(id);
+			return occs == null || !occs.isEmpty();
+		}
+		return segment != null && segment.find(keyword) >= 0;
 	}
 	
 	/**
-	 * Merges the keywords for a single document into the master keywordsIndex
-	 * hash table. For each keyword, its Occurrence in the current document
-	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * Returns the sorted keyword dictionary, rebuilding it first if so many keywords have
+	 * been added since it was built that looking them up separately no longer pays.
 	 * 
-	 * @param kws Keywords hash table for a document
+	 * @return Keyword dictionary; keywords in newTerms may be missing from it
 	 */
-	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
-		// COMPLETE THIS METHOD
-		//ArrayList<Occurrence> oc = new ArrayList<Occurrence>();
-		for(String key: kws.keySet())
-		{
-			if(keywordsIndex.containsKey(key))
-			{
-				keywordsIndex.get(key).add(kws.get(key));
-				insertLastOccurrence(keywordsIndex.get(key));
+	TermDictionary termDictionary() {
+		if (termDictionary == null || newTerms.size() > Math.max(1024, termDictionary.size() / 8)) {
+			termDictionary = TermDictionary.build(keywords());
+			newTerms = new TreeSet<String>();
+		}
+		return termDictionary;
+	}
+	
+	/**
+	 * Returns the keywords that start with a prefix. The keywords are found in a sorted
+	 * dictionary (see TermDictionary) built next to the index on first use, along with a small
+	 * sorted set of the keywords added since, so the cost depends on the number of keywords
+	 * that match and not on the number of keywords in the index.
+	 * 
+	 * @param prefix Prefix
+	 * @return Keywords that start with the prefix (in lower case) and occur in at least one
+	 *         document, in alphabetical order
+	 */
+	public ArrayList<String> keywordsWithPrefix(String prefix) {
+		prefix = prefix.toLowerCase();
+		TreeSet<String> matches = new TreeSet<String>(termDictionary().withPrefix(prefix));
+		matches.addAll(newTerms.subSet(prefix, prefix + Character.MAX_VALUE));
+		ArrayList<String> result = new ArrayList<String>(matches.size());
+		for (String kw: matches) {
+			// keywords whose last occurrence was removed stay in the dictionary
+			if (contains(kw)) {
+				result.add(kw);
 			}
-			else
-			{
-                ArrayList<Occurrence> oc = new ArrayList<Occurrence>();
-			    oc.add(kws.get(key));
-				keywordsIndex.put(key, oc);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of documents a keyword occurs in.
+	 * 
+	 * @param keyword Keyword
+	 * @return Number of documents, 0 if the keyword is not in the index
+	 */
+	int documentCount(String keyword) {
+		int id = termIndex.find(keyword);
+		if (id >= 0 && termIndex.has(id)) {
+			ArrayList<Occurrence> occs = termIndex.list(id);
+			return occs != null ? occs.size() : termIndex.packed(id).size();
+		}
+		if (segment != null) {
+			int t = segment.find(keyword);
+			if (t >= 0) {
+				return segment.count(t);
 			}
 		}
+		return 0;
 	}
 	
 	/**
-	 * Given a word, returns it as a keyword if it passes the keyword test,
-	 * otherwise returns null. A keyword is any word that, after being stripped of any
-	 * TRAILING punctuation, consists only of alphabetic letters, and is not
-	 * a noise word. All words are treated in a case-INsensitive manner.
+	 * Returns the autocomplete trie, building it first if there is none or if so many
+	 * keywords have changed since it was brought up to date that rebuilding is cheaper than
+	 * updating it keyword by keyword.
 	 * 
-	 * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+	 * @return Autocomplete trie, weighted by document count
+	 */
+	Autocomplete autocomplete() {
+		if (autocomplete == null || suggestChanges.size() > Math.max(1024, autocomplete.size() / 8)) {
+			ArrayList<String> kws = keywords();
+			Collections.sort(kws);
+			String[] terms = kws.toArray(new String[kws.size()]);
+			int[] weights = new int[terms.length];
+			for (int i = 0; i < terms.length; i++) {
+				weights[i] = documentCount(terms[i]);
+			}
+			autocomplete = Autocomplete.build(terms, weights);
+			suggestChanges = new HashSet<String>();
+		} else if (!suggestChanges.isEmpty()) {
+			for (String kw: suggestChanges) {
+				autocomplete.set(kw, documentCount(kw));
+			}
+			suggestChanges.clear();
+		}
+		return autocomplete;
+	}
+	
+	/**
+	 * Suggests completions of a prefix: the keywords that start with it and occur in the most
+	 * documents. Every node of a trie of the keywords (see Autocomplete), built on first use,
+	 * keeps the best keywords under it, so the cost depends on the length of the prefix and
+	 * not on the number of keywords that have it. Documents added or removed since are applied
+	 * to the trie on the next call, along the paths of the keywords they changed.
 	 * 
-	 * @param word Candidate word
-	 * @return Keyword (word without trailing punctuation, LOWER CASE)
+	 * @param prefix Prefix
+	 * @param k Number of suggestions, at most Autocomplete.K
+	 * @return Up to k keywords that start with the prefix (in lower case), by decreasing
+	 *         number of documents, ties in alphabetical order
+	 * @throws IllegalArgumentException If k is not in 1 to Autocomplete.K
 	 */
-	public String getKeyWord(String word) {
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-        if(!word.matches(".*[a-zA-Z].*"))
-        {
-            return null;
-        }
-		StringTokenizer st = new StringTokenizer(word,",!?.:;-'");
-        String wordie = st.nextToken();
-		if(st.hasMoreTokens())
-		{
-			return null;
+	public ArrayList<String> suggest(String prefix, int k) {
+		if (k < 1 || k > Autocomplete.K) {
+			throw new IllegalArgumentException("Number of suggestions must be in 1 to " + Autocomplete.K + ": " + k);
+		}
+		return autocomplete().suggest(prefix.toLowerCase(), k);
+	}
+	
+	/**
+	 * Returns the keywords within an edit distance of a word: the number of letters that
+	 * have to be inserted, deleted or replaced to turn one into the other. The keywords are
+	 * found by running a Levenshtein automaton over the sorted keyword dictionary (see
+	 * FuzzyMatcher), which skips whole ranges of keywords that cannot match, so the cost does
+	 * not grow with the number of keywords in the index.
+	 * 
+	 * @param word Word, possibly misspelled
+	 * @param maxEdits Largest distance, 0, 1 or 2
+	 * @return Keywords that occur in at least one document and are within maxEdits of the word
+	 *         (in lower case), closest first, ties in alphabetical order
+	 * @throws IllegalArgumentException If maxEdits is not 0, 1 or 2
+	 */
+	public ArrayList<String> fuzzyKeywords(String word, int maxEdits) {
+		word = word.toLowerCase();
+		ArrayList<ArrayList<String>> byDistance = FuzzyMatcher.match(termDictionary(), word, maxEdits);
+		for (String kw: newTerms) {
+			int d = FuzzyMatcher.distance(kw, word, maxEdits);
+			if (d <= maxEdits) {
+				byDistance.get(d).add(kw);
+			}
+		}
+		ArrayList<String> result = new ArrayList<String>();
+		for (ArrayList<String> kws: byDistance) {
+			Collections.sort(kws);
+			for (String kw: kws) {
+				// keywords whose last occurrence was removed stay in the dictionary
+				if (contains(kw)) {
+					result.add(kw);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns all keywords in the index, wherever their occurrences are kept.
+	 * 
+	 * @return Keywords that occur in at least one document
+	 */
+	ArrayList<String> keywords() {
+		ArrayList<String> keywords = new ArrayList<String>(termIndex.size());
+		for (int id = 0; id < termIndex.size(); id++) {
+			ArrayList<Occurrence> occs = termIndex.list(id);
+			if (occs != null ? !occs.isEmpty() : termIndex.packed(id) != null) {
+				keywords.add(termIndex.term(id));
+			}
+		}
+		if (segment != null) {
+			for (int t = 0; t < segment.termCount(); t++) {
+				String term = segment.term(t);
+				int id = termIndex.find(term);
+				if (id < 0 || !termIndex.has(id)) {
+					keywords.add(term);
+				}
+			}
+		}
+		return keywords;
+	}
+	
+	/**
+	 * Packs the occurrences of every keyword into compact lists (see PostingList), which
+	 * take roughly a tenth of the memory of Occurrence lists. Searches read compact lists
+	 * directly. A keyword whose occurrences change afterwards, for instance because more
+	 * documents are merged, is unpacked again; compact can be called as often as needed.
+	 */
+	public void compact() {
+		for (int id = 0; id < termIndex.size(); id++) {
+			ArrayList<Occurrence> occs = termIndex.list(id);
+			if (occs != null && !occs.isEmpty()) {
+				termIndex.setPacked(id, PostingList.encode(occs, documents));
+			}
+		}
+		if (segment != null) {
+			for (int t = 0; t < segment.termCount(); t++) {
+				String term = segment.term(t);
+				int id = termIndex.find(term);
+				if (id < 0 || !termIndex.has(id)) {
+					termIndex.setPacked(id >= 0 ? id : termIndex.add(term), PostingList.encode(segment.postings(t), documents));
+				}
+			}
+			untracked("");
+			segment = null;
+		}
+		// the empty lists that hid keywords of the index file are no longer needed
+		for (int id = 0; id < termIndex.size(); id++) {
+			if (termIndex.list(id) != null) {
+				termIndex.setList(id, null);
+			}
 		}
-        wordie = wordie.replaceAll("[^a-zA-z]" ,"").toLowerCase();
-        if (noiseWords.containsValue(wordie)) {
-            return null;
-        }
-        else
-            {
-                return wordie;
-            }
 	}
 	
 	/**
@@ -238,35 +1542,6 @@ public class LittleSearchEngine {
 
 		return midpoints;
 	}
-	private int DocMatch(ArrayList<Occurrence> s, String document)
-	{
-		int i = 0;
-		for(Occurrence doc: s)
-		{
-			if(doc.document.equals(document))
-			{
-				return i;
-			}
-			i++;
-		}
-			return -1;
-	}
-	private int FreqMatch(ArrayList<Occurrence> s, int freq)
-	{
-		int i = 0;
-		int j = -1;
-		for(Occurrence doc: s)
-		{
-			if(doc.frequency == freq)
-			{
-				j = i;
-			}
-			i++;
-		}
-		return j;
-	}
-
-	
 	/**
 	 * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
 	 * document. Result set is arranged in descending order of occurrence frequencies. (Note that a
@@ -282,69 +1557,262 @@ public class LittleSearchEngine {
 	 *         the result is null.
 	 */
 	public ArrayList<String> top5search(String kw1, String kw2) {
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-        kw1 = kw1.toLowerCase();
-        kw2 = kw2.toLowerCase();
-		ArrayList<Occurrence> top = new ArrayList<Occurrence>();
-		//ArrayList<Occurrence> top2 = new ArrayList<Occurrence>();
-		ArrayList<String> result = new ArrayList<String>();
-		if(keywordsIndex.containsKey(kw1))
-		{
-			for(int i = 0; i<keywordsIndex.get(kw1).size();i++) {
-					top.add(keywordsIndex.get(kw1).get(i));
+		return topKSearch(Arrays.asList(kw1, kw2), 5);
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ...", generalizing top5search to any number of keywords
+	 * and any result size. A document ranks by the highest frequency of any of the keywords in
+	 * it, and ties go to the keyword that comes first. The occurrence lists are merged from
+	 * their heads and the merge stops as soon as k documents are found (see TopKSearch), so
+	 * long lists of common keywords cost no more than short ones. In concurrent mode, the latest
+	 * snapshot is searched instead (see setConcurrent), and results are not cached.
+	 * 
+	 * @param keywords Keywords, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies, at most k of them. If there are no matching documents, the result is null.
+	 */
+	public ArrayList<String> topKSearch(List<String> keywords, int k) {
+		EngineMetrics m = metrics;
+		if (m == null) {
+			return topK(keywords, k);
+		}
+		long start = System.nanoTime();
+		ArrayList<String> result = topK(keywords, k);
+		m.searched(System.nanoTime() - start);
+		return result;
+	}
+	
+	/**
+	 * Does the work of topKSearch.
+	 */
+	private ArrayList<String> topK(List<String> keywords, int k) {
+		IndexSnapshot snapshot = published;
+		if (snapshot != null) {
+			return snapshot.topKSearch(keywords, k);
+		}
+		ArrayList<String> kws = new ArrayList<String>(keywords.size());
+		StringBuilder key = new StringBuilder("K").append(k);
+		for (String kw: keywords) {
+			kws.add(kw.toLowerCase());
+			key.append(' ').append(kw.toLowerCase());
+		}
+		if (queryCache != null) {
+			ArrayList<String> cached = queryCache.get(key.toString());
+			if (cached != null) {
+				return cached.isEmpty() ? null : cached;
 			}
-			if(keywordsIndex.containsKey(kw2))
-			{
-				for(int i = 0; i<keywordsIndex.get(kw2).size();i++)
-				{
-					int inside = DocMatch(top,keywordsIndex.get(kw2).get(i).document);
-					if(inside == -1)
-					{
-						int samef = FreqMatch(top,keywordsIndex.get(kw2).get(i).frequency);
-						if(samef == -1) {
-							top.add(keywordsIndex.get(kw2).get(i));
-							insertLastOccurrence(top);
-						}
-						else
-						{
-							top.add(samef+1,keywordsIndex.get(kw2).get(i));
-						}
-					}
-					else
-					{
-						if(keywordsIndex.get(kw2).get(i).frequency > top.get(inside).frequency)
-						{
-							top.remove(inside);
-							top.add(keywordsIndex.get(kw2).get(i));
-							insertLastOccurrence(top);
-						}
-					}
-
-				}
+		}
+		ArrayList<String> result = names(TopKSearch.search(this, kws, k));
+		if (queryCache != null) {
+			queryCache.put(key.toString(), result, kws);
+		}
+		return result;
+	}
+	
+	/**
+	 * Search result for a boolean query such as "data AND (heap OR tree) AND NOT graph".
+	 * Operators are AND, OR and NOT in upper case, with parentheses for grouping; keywords
+	 * side by side are ANDed (see BooleanQuery). Matching documents are arranged in descending
+	 * order of the highest frequency of any of their matched keywords, ties in the order the
+	 * documents were first indexed.
+	 * 
+	 * @param query Query
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of matching documents, at most k of them. If there are no matching
+	 *         documents, the result is null.
+	 * @throws IllegalArgumentException If the query is not well formed
+	 */
+	public ArrayList<String> booleanSearch(String query, int k) {
+		String key = "B" + k + " " + query;
+		if (queryCache != null) {
+			ArrayList<String> cached = queryCache.get(key);
+			if (cached != null) {
+				return cached.isEmpty() ? null : cached;
 			}
 		}
-		else {
-            if (keywordsIndex.containsKey(kw2)) {
-                for (int i = 0; i < keywordsIndex.get(kw2).size(); i++) {
-                    top.add(keywordsIndex.get(kw2).get(i));
-                }
-
-            }
-        }
-		if (top.isEmpty())
-		{
+		BooleanQuery parsed = new BooleanQuery(query);
+		ArrayList<String> result = names(parsed.run(this, k));
+		if (queryCache != null) {
+			queryCache.put(key, result, parsed.keywords());
+		}
+		return result;
+	}
+	
+	/**
+	 * Search result for keywords ranked by BM25, which weighs each keyword by how rare it is
+	 * across documents, saturates repeated occurrences, and favors short documents over long
+	 * ones with the same occurrences (see Bm25Search). Unlike topKSearch, a document with
+	 * several of the keywords ranks above one with just one of them at the same frequency.
+	 * 
+	 * @param keywords Keywords
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of score, ties in the order the documents were first indexed, at most k of them.
+	 *         If there are no matching documents, the result is null.
+	 */
+	public ArrayList<String> bm25Search(List<String> keywords, int k) {
+		ArrayList<String> kws = new ArrayList<String>(keywords.size());
+		// scores depend on the number and average length of all documents, not only on
+		// the occurrences of the keywords, so those are part of the key
+		StringBuilder key = new StringBuilder("S").append(k)
+				.append(' ').append(documents.indexed())
+				.append(' ').append(documents.averageLength());
+		for (String kw: keywords) {
+			kws.add(kw.toLowerCase());
+			key.append(' ').append(kw.toLowerCase());
+		}
+		if (queryCache != null) {
+			ArrayList<String> cached = queryCache.get(key.toString());
+			if (cached != null) {
+				return cached.isEmpty() ? null : cached;
+			}
+		}
+		ArrayList<String> result = null;
+		for (Map.Entry<String,Double> e: Bm25Search.search(this, kws, k)) {
+			if (result == null) {
+				result = new ArrayList<String>();
+			}
+			result.add(e.getKey());
+		}
+		if (queryCache != null) {
+			queryCache.put(key.toString(), result, kws);
+		}
+		return result;
+	}
+	
+	/**
+	 * Search result for a keyword pattern such as "comput*", which stands for every keyword
+	 * that starts with "comput". The pattern is expanded with keywordsWithPrefix, and the
+	 * matching documents are ranked as in topKSearch: by the highest frequency of any of the
+	 * keywords in them, ties going to the keyword that comes first alphabetically. A pattern
+	 * without a '*' is a single keyword. Results are not cached, since a new keyword can change
+	 * the expansion.
+	 * 
+	 * @param pattern Keyword, or keyword prefix followed by '*'
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any matching keyword occurs, arranged in
+	 *         descending order of frequencies, at most k of them. If there are no matching
+	 *         documents, the result is null.
+	 * @throws IllegalArgumentException If the pattern has a '*' anywhere but at the end
+	 */
+	public ArrayList<String> wildcardSearch(String pattern, int k) {
+		int star = pattern.indexOf('*');
+		if (star >= 0 && star != pattern.length() - 1) {
+			throw new IllegalArgumentException("Only a trailing '*' is supported: " + pattern);
+		}
+		List<String> kws = star < 0 ? Arrays.asList(pattern.toLowerCase())
+				: keywordsWithPrefix(pattern.substring(0, star));
+		return names(TopKSearch.search(this, kws, k));
+	}
+	
+	/**
+	 * Search result for a word that may be misspelled. The word stands for the keywords
+	 * closest to it within maxEdits edits (see fuzzyKeywords): the word itself if it is a
+	 * keyword, otherwise the keywords one edit away, and so on. Matching documents are ranked
+	 * as in topKSearch, ties going to the keyword that comes first alphabetically.
+	 * 
+	 * @param word Word, possibly misspelled
+	 * @param maxEdits Largest number of edits, 0, 1 or 2
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the closest keywords occurs, arranged
+	 *         in descending order of frequencies, at most k of them. If there are no matching
+	 *         documents, the result is null.
+	 * @throws IllegalArgumentException If maxEdits is not 0, 1 or 2
+	 */
+	public ArrayList<String> fuzzySearch(String word, int maxEdits, int k) {
+		word = word.toLowerCase();
+		ArrayList<String> kws = fuzzyKeywords(word, maxEdits);
+		ArrayList<String> closest = new ArrayList<String>();
+		int best = -1;
+		for (String kw: kws) {
+			int d = FuzzyMatcher.distance(kw, word, maxEdits);
+			if (best >= 0 && d > best) {
+				break;
+			}
+			best = d;
+			closest.add(kw);
+		}
+		return names(TopKSearch.search(this, closest, k));
+	}
+	
+	/**
+	 * Returns the document names of a search result.
+	 * 
+	 * @param top Occurrences of the matching documents, best first
+	 * @return Document names in the same order, or null if there are none
+	 */
+	static ArrayList<String> names(ArrayList<Occurrence> top) {
+		if (top.isEmpty()) {
 			return null;
 		}
-		for(int i = 0; result.size()<5;i++)
-		{
-		    if(i > top.size()-1)
-            {
-                break;
-            }
-		        //System.out.println(top.get(i).frequency);
-                result.add(top.get(i).document);
-            }
-			return result;
+		ArrayList<String> result = new ArrayList<String>(top.size());
+		for (Occurrence occ: top) {
+			result.add(occ.document);
+		}
+		return result;
+	}
+	
+	/**
+	 * Search result for a phrase, such as "binary search tree". A document matches if the
+	 * keywords of the phrase appear in it at the same distances from one another as in
+	 * the phrase; words of the phrase that are not keywords match any word. Only word positions
+	 * are used, no document is read. Needs positional mode (see setPositional).
+	 * 
+	 * @param phrase Phrase
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents that contain the phrase, arranged in descending order of
+	 *         the number of times they contain it, at most k of them. If there are no matching
+	 *         documents, the result is null.
+	 * @throws IllegalStateException If the engine is not in positional mode
+	 */
+	public ArrayList<String> phraseSearch(String phrase, int k) {
+		if (positions == null) {
+			throw new IllegalStateException("Phrase search needs positional mode");
+		}
+		String key = "P" + k + " " + phrase;
+		if (queryCache != null) {
+			ArrayList<String> cached = queryCache.get(key);
+			if (cached != null) {
+				return cached.isEmpty() ? null : cached;
+			}
+		}
+		PhraseQuery parsed = new PhraseQuery(phrase, this);
+		ArrayList<String> result = names(parsed.run(this, positions, k));
+		if (queryCache != null) {
+			queryCache.put(key, result, parsed.keywords());
+		}
+		return result;
+	}
+	
+	/**
+	 * Snippet of a search result: the text of a document around the first occurrence in it of
+	 * any of the given keywords, such as the keywords of the search. The text is read from the
+	 * document file with one positioned read of about width bytes (see Snippets), using the byte
+	 * offsets recorded in offset mode (see setOffsets), so the document is not scanned again.
+	 * 
+	 * @param docFile Name of a document file in the result
+	 * @param kws Keywords
+	 * @param width Number of bytes of text to read
+	 * @return Whole words around the keyword, separated by single spaces, or null if the document
+	 *         has no recorded offsets for any of the keywords
+	 * @throws IOException If the document file cannot be read
+	 * @throws IllegalStateException If the engine is not in offset mode
+	 */
+	public String snippet(String docFile, List<String> kws, int width)
+	throws IOException {
+		if (offsets == null) {
+			throw new IllegalStateException("Snippets need offset mode");
+		}
+		int id = documents.find(docFile);
+		long first = -1;
+		for (String kw: kws) {
+			long[] at = id < 0 ? null : offsets.getLongs(kw.toLowerCase(), id);
+			if (at != null && at.length > 0 && (first < 0 || at[0] < first)) {
+				first = at[0];
+			}
+		}
+		return first < 0 ? null : Snippets.read(docFile, first, width);
 	}
 }
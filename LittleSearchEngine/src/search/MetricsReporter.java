@@ -0,0 +1,38 @@
+package search;
+
+import java.io.PrintStream;
+import java.util.Date;
+
+/**
+ * Receiver of an engine's metrics, called at a fixed rate once started with
+ * EngineMetrics.startReporting, for instance to send them to a monitoring system.
+ */
+public interface MetricsReporter {
+
+	/**
+	 * Reports the metrics as they are now. Called on the reporting thread, one call at a time.
+	 *
+	 * @param metrics Metrics of the engine
+	 */
+	void report(EngineMetrics metrics);
+
+	/**
+	 * Reports metrics as one line of text each, with the time.
+	 */
+	class Printer implements MetricsReporter {
+		private final PrintStream out;
+
+		/**
+		 * Initializes a reporter.
+		 *
+		 * @param out Stream to print to
+		 */
+		public Printer(PrintStream out) {
+			this.out = out;
+		}
+
+		public void report(EngineMetrics metrics) {
+			out.println(new Date() + " " + metrics);
+		}
+	}
+}
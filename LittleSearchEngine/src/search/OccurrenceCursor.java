@@ -0,0 +1,39 @@
+package search;
+
+import java.util.List;
+
+/**
+ * Cursor over a list of Occurrence objects.
+ */
+class OccurrenceCursor implements PostingCursor {
+
+	private final List<Occurrence> occs;
+	private int index;
+
+	/**
+	 * Initializes a cursor over a list.
+	 *
+	 * @param occs Occurrences in descending order of frequency
+	 */
+	public OccurrenceCursor(List<Occurrence> occs) {
+		this.occs = occs;
+		index = -1;
+	}
+
+	public boolean next() {
+		if (index + 1 >= occs.size()) {
+			index = occs.size();
+			return false;
+		}
+		index++;
+		return true;
+	}
+
+	public String document() {
+		return occs.get(index).document;
+	}
+
+	public int frequency() {
+		return occs.get(index).frequency;
+	}
+}
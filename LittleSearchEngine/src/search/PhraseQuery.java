@@ -0,0 +1,158 @@
+package search;
+
+import java.util.*;
+
+/**
+ * A phrase query, answered from word positions alone. Each word of the phrase goes
+ * through the keyword test; words that are not keywords (noise words, numbers) still take
+ * up their place in the phrase but match any word, and are dropped from either end of the
+ * phrase. Documents that have all the keywords are found by leapfrogging over the document
+ * order views, as an AND does in BooleanQuery, and only for those are the positions decoded
+ * and lined up.
+ */
+class PhraseQuery {
+
+	/**
+	 * Keywords of the phrase.
+	 */
+	private final ArrayList<String> keywords;
+
+	/**
+	 * Place of each keyword in the phrase, in words from the first keyword.
+	 */
+	private final ArrayList<Integer> offsets;
+
+	/**
+	 * Parses a phrase.
+	 *
+	 * @param phrase Words of the phrase, separated by whitespace
+	 * @param engine Engine whose keyword test and noise words are used
+	 */
+	public PhraseQuery(String phrase, LittleSearchEngine engine) {
+		keywords = new ArrayList<String>();
+		offsets = new ArrayList<Integer>();
+		int first = 0;
+		StringTokenizer st = new StringTokenizer(phrase);
+		for (int i = 0; st.hasMoreTokens(); i++) {
+			String kw = engine.getKeyWord(st.nextToken());
+			if (kw != null) {
+				keywords.add(kw);
+				offsets.add(offsets.isEmpty() ? 0 : i - first);
+			}
+			if (offsets.isEmpty()) {
+				first = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the keywords of the phrase.
+	 *
+	 * @return Keywords, in lower case
+	 */
+	public List<String> keywords() {
+		return keywords;
+	}
+
+	/**
+	 * Runs the query.
+	 *
+	 * @param engine Engine whose index is searched
+	 * @param positions Word positions of the engine
+	 * @param k Maximum number of documents to return
+	 * @return Occurrences of the documents that have the phrase, each with the number of
+	 *         times it has it, most first, ties in document id order; empty if none does
+	 */
+	public ArrayList<Occurrence> run(LittleSearchEngine engine, PositionIndex positions, int k) {
+		ArrayList<Occurrence> result = new ArrayList<Occurrence>();
+		int n = keywords.size();
+		if (n == 0 || k <= 0) {
+			return result;
+		}
+		DocIdPostings[] views = new DocIdPostings[n];
+		int[] at = new int[n];
+		for (int j = 0; j < n; j++) {
+			views[j] = engine.docOrder(keywords.get(j));
+		}
+
+		PriorityQueue<long[]> best = new PriorityQueue<long[]>(Math.min(k, 1024), new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				if (a[1] != b[1]) {
+					return a[1] < b[1] ? -1 : 1;
+				}
+				return a[0] > b[0] ? -1 : a[0] < b[0] ? 1 : 0;
+			}
+		});
+		int target = 0;
+		while (true) {
+			// leapfrog to the next document that has every keyword
+			at[0] = views[0].advance(at[0], target);
+			if (at[0] == views[0].size()) {
+				break;
+			}
+			int doc = views[0].docs[at[0]];
+			boolean all = true;
+			for (int j = 1; j < n; j++) {
+				at[j] = views[j].advance(at[j], doc);
+				if (at[j] == views[j].size()) {
+					all = false;
+					target = Integer.MAX_VALUE;
+					break;
+				}
+				if (views[j].docs[at[j]] != doc) {
+					all = false;
+					target = views[j].docs[at[j]];
+					break;
+				}
+			}
+			if (target == Integer.MAX_VALUE) {
+				break;
+			}
+			if (!all) {
+				continue;
+			}
+			int count = matches(doc, positions);
+			if (count > 0) {
+				if (best.size() < k) {
+					best.add(new long[] {doc, count});
+				} else if (count > best.peek()[1]) {
+					best.poll();
+					best.add(new long[] {doc, count});
+				}
+			}
+			target = doc + 1;
+		}
+		while (!best.isEmpty()) {
+			long[] e = best.poll();
+			result.add(new Occurrence(engine.documents.name((int)e[0]), (int)e[1]));
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * Counts the places in a document where the phrase starts.
+	 */
+	private int matches(int doc, PositionIndex positions) {
+		int n = keywords.size();
+		int[][] pos = new int[n][];
+		for (int j = 0; j < n; j++) {
+			pos[j] = positions.get(keywords.get(j), doc);
+			if (pos[j] == null) {
+				// indexed before positional mode was turned on
+				return 0;
+			}
+		}
+		int count = 0;
+		for (int start: pos[0]) {
+			boolean match = true;
+			for (int j = 1; j < n && match; j++) {
+				match = Arrays.binarySearch(pos[j], start + offsets.get(j)) >= 0;
+			}
+			if (match) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,270 @@
+package search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * For each keyword and document, an increasing sequence of ints or longs about the keyword's
+ * occurrences in the document, such as the word positions or byte offsets of the occurrences.
+ * A sequence is stored as its first value followed by the gaps between values, each as a
+ * variable length int or long (see PostingList.putVarint and putVarlong, which write small
+ * values the same way), so that most values take a single byte.
+ *
+ * The sequences of a keyword are kept in one byte array, in increasing order of document id,
+ * with an array of the document ids and an array of where each document's sequence starts,
+ * both indexed by the document's place among the keyword's postings. A sequence is found by
+ * a binary search of the ids. Documents mostly get their ids in the order they are indexed,
+ * so a new sequence usually goes at the end; one that goes before others, as for an updated
+ * document, moves the sequences after it.
+ */
+class PositionIndex {
+
+	/**
+	 * The sequences of one keyword.
+	 */
+	private static class Postings {
+
+		/**
+		 * Document ids, in increasing order; size of them are in use.
+		 */
+		int[] docs = new int[2];
+
+		/**
+		 * Start of each document's sequence in bytes; starts[size] is the end of the last.
+		 */
+		int[] starts = new int[3];
+
+		/**
+		 * Encoded sequences, one after another; starts[size] of them are in use.
+		 */
+		byte[] bytes = new byte[8];
+
+		int size;
+
+		/**
+		 * Returns the place of a document, or -(insertion place) - 1 if it has no sequence.
+		 */
+		int find(int doc) {
+			return Arrays.binarySearch(docs, 0, size, doc);
+		}
+
+		/**
+		 * Returns the number of values in the sequence at a place.
+		 */
+		int count(int place) {
+			int n = 0;
+			for (int pos = starts[place]; pos < starts[place + 1]; pos++) {
+				if (bytes[pos] >= 0) {
+					n++;
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * Makes room at a place for a sequence of a number of bytes, replacing the sequence
+		 * there if replace is true, and returns where the sequence starts.
+		 */
+		int resize(int place, boolean replace, int length) {
+			int from = replace ? starts[place + 1] : starts[place];
+			int end = starts[size];
+			int delta = length - (from - starts[place]);
+			if (end + delta > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(end + delta, 2 * bytes.length));
+			}
+			System.arraycopy(bytes, from, bytes, from + delta, end - from);
+			if (!replace) {
+				if (size == docs.length) {
+					docs = Arrays.copyOf(docs, 2 * docs.length);
+					starts = Arrays.copyOf(starts, docs.length + 1);
+				}
+				System.arraycopy(docs, place, docs, place + 1, size - place);
+				System.arraycopy(starts, place, starts, place + 1, size + 1 - place);
+				size++;
+			}
+			for (int i = place + 1; i <= size; i++) {
+				starts[i] += delta;
+			}
+			return starts[place];
+		}
+
+		/**
+		 * Takes out the sequence at a place.
+		 */
+		void delete(int place) {
+			int from = starts[place + 1];
+			int delta = from - starts[place];
+			System.arraycopy(bytes, from, bytes, starts[place], starts[size] - from);
+			System.arraycopy(docs, place + 1, docs, place, size - place - 1);
+			System.arraycopy(starts, place + 1, starts, place, size - place);
+			size--;
+			for (int i = place; i <= size; i++) {
+				starts[i] -= delta;
+			}
+		}
+	}
+
+	/**
+	 * Sequences by keyword.
+	 */
+	private final HashMap<String,Postings> index;
+
+	/**
+	 * Initializes an empty index.
+	 */
+	public PositionIndex() {
+		index = new HashMap<String,Postings>();
+	}
+
+	/**
+	 * Stores the sequence of a keyword in a document, replacing any earlier one.
+	 *
+	 * @param keyword Keyword
+	 * @param doc Document id
+	 * @param values Values, in increasing order
+	 * @param n Number of values to store from the start of the array
+	 */
+	public void put(String keyword, int doc, int[] values, int n) {
+		int length = 0;
+		int prev = 0;
+		for (int i = 0; i < n; i++) {
+			length += PostingList.varintLength(values[i] - prev);
+			prev = values[i];
+		}
+		Postings p = postings(keyword);
+		int pos = room(p, doc, length);
+		prev = 0;
+		for (int i = 0; i < n; i++) {
+			pos = PostingList.putVarint(p.bytes, pos, values[i] - prev);
+			prev = values[i];
+		}
+	}
+
+	/**
+	 * Stores a sequence of longs of a keyword in a document, replacing any earlier one.
+	 *
+	 * @param keyword Keyword
+	 * @param doc Document id
+	 * @param values Values, not negative, in increasing order
+	 * @param n Number of values to store from the start of the array
+	 */
+	public void put(String keyword, int doc, long[] values, int n) {
+		int length = 0;
+		long prev = 0;
+		for (int i = 0; i < n; i++) {
+			length += PostingList.varlongLength(values[i] - prev);
+			prev = values[i];
+		}
+		Postings p = postings(keyword);
+		int pos = room(p, doc, length);
+		prev = 0;
+		for (int i = 0; i < n; i++) {
+			pos = PostingList.putVarlong(p.bytes, pos, values[i] - prev);
+			prev = values[i];
+		}
+	}
+
+	/**
+	 * Returns the sequences of a keyword, adding an empty set of them if there are none.
+	 */
+	private Postings postings(String keyword) {
+		Postings p = index.get(keyword);
+		if (p == null) {
+			p = new Postings();
+			index.put(keyword, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Makes room for the sequence of a document, in place of any earlier one.
+	 *
+	 * @return Where the sequence starts in p.bytes
+	 */
+	private static int room(Postings p, int doc, int length) {
+		int place = p.find(doc);
+		if (place >= 0) {
+			return p.resize(place, true, length);
+		}
+		place = -place - 1;
+		int pos = p.resize(place, false, length);
+		p.docs[place] = doc;
+		return pos;
+	}
+
+	/**
+	 * Returns the sequence of a keyword in a document.
+	 *
+	 * @param keyword Keyword
+	 * @param doc Document id
+	 * @return Values, in increasing order, or null if none were stored
+	 */
+	public int[] get(String keyword, int doc) {
+		Postings p = index.get(keyword);
+		int place = p == null ? -1 : p.find(doc);
+		if (place < 0) {
+			return null;
+		}
+		int[] values = new int[p.count(place)];
+		int pos = p.starts[place];
+		int prev = 0;
+		for (int i = 0; i < values.length; i++) {
+			int gap = PostingList.getVarint(p.bytes, pos);
+			pos += PostingList.varintLength(gap);
+			prev += gap;
+			values[i] = prev;
+		}
+		return values;
+	}
+
+	/**
+	 * Returns a sequence of longs of a keyword in a document.
+	 *
+	 * @param keyword Keyword
+	 * @param doc Document id
+	 * @return Values, in increasing order, or null if none were stored
+	 */
+	public long[] getLongs(String keyword, int doc) {
+		Postings p = index.get(keyword);
+		int place = p == null ? -1 : p.find(doc);
+		if (place < 0) {
+			return null;
+		}
+		long[] values = new long[p.count(place)];
+		int pos = p.starts[place];
+		long prev = 0;
+		for (int i = 0; i < values.length; i++) {
+			long gap = PostingList.getVarlong(p.bytes, pos);
+			pos += PostingList.varlongLength(gap);
+			prev += gap;
+			values[i] = prev;
+		}
+		return values;
+	}
+
+	/**
+	 * Drops the sequences of a document.
+	 *
+	 * @param doc Document id
+	 * @param keywords Keywords of the document
+	 */
+	public void remove(int doc, String[] keywords) {
+		for (String keyword: keywords) {
+			Postings p = index.get(keyword);
+			int place = p == null ? -1 : p.find(doc);
+			if (place >= 0) {
+				p.delete(place);
+				if (p.size == 0) {
+					index.remove(keyword);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops everything.
+	 */
+	public void clear() {
+		index.clear();
+	}
+}
@@ -0,0 +1,85 @@
+package search;
+
+/**
+ * An occurrence that also records the word positions of the keyword in the document, and
+ * possibly their byte offsets. loadKeyWords makes these when the engine is in positional or
+ * offset mode; the positions and offsets are moved into the engine's PositionIndexes when
+ * the document is merged, and only the plain Occurrence goes into the keyword index.
+ */
+class PositionalOccurrence extends Occurrence {
+
+	/**
+	 * Positions recorded so far, in increasing order; frequency of them are in use.
+	 */
+	int[] positions;
+
+	/**
+	 * Byte offsets recorded so far, in increasing order, or null if offsets are not
+	 * recorded; offsetCount of them are in use.
+	 */
+	long[] offsets;
+	int offsetCount;
+
+	/**
+	 * Initializes an occurrence at one position.
+	 *
+	 * @param doc Document name
+	 * @param position Word position of the first occurrence
+	 */
+	public PositionalOccurrence(String doc, int position) {
+		super(doc, 1);
+		positions = new int[4];
+		positions[0] = position;
+	}
+
+	/**
+	 * Initializes an occurrence at one position and byte offset.
+	 *
+	 * @param doc Document name
+	 * @param position Word position of the first occurrence
+	 * @param offset Byte offset of the first occurrence, or -1 to record no offsets
+	 */
+	public PositionalOccurrence(String doc, int position, long offset) {
+		this(doc, position);
+		if (offset >= 0) {
+			offsets = new long[4];
+			addOffset(offset);
+		}
+	}
+
+	/**
+	 * Records one more occurrence.
+	 *
+	 * @param position Word position, greater than all earlier ones
+	 */
+	public void add(int position) {
+		if (frequency == positions.length) {
+			int[] bigger = new int[2 * positions.length];
+			System.arraycopy(positions, 0, bigger, 0, frequency);
+			positions = bigger;
+		}
+		positions[frequency++] = position;
+	}
+
+	/**
+	 * Records one more occurrence, with its byte offset.
+	 *
+	 * @param position Word position, greater than all earlier ones
+	 * @param offset Byte offset, greater than all earlier ones
+	 */
+	public void add(int position, long offset) {
+		add(position);
+		if (offsets != null) {
+			addOffset(offset);
+		}
+	}
+
+	private void addOffset(long offset) {
+		if (offsetCount == offsets.length) {
+			long[] bigger = new long[2 * offsets.length];
+			System.arraycopy(offsets, 0, bigger, 0, offsetCount);
+			offsets = bigger;
+		}
+		offsets[offsetCount++] = offset;
+	}
+}
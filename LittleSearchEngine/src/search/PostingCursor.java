@@ -0,0 +1,30 @@
+package search;
+
+/**
+ * Reads the occurrences of one keyword, one at a time, in descending order of frequency,
+ * whatever the form the occurrences are stored in. A new cursor is positioned before the
+ * first occurrence.
+ */
+interface PostingCursor {
+
+	/**
+	 * Moves to the next occurrence.
+	 *
+	 * @return True if there is one, false if all occurrences have been read
+	 */
+	boolean next();
+
+	/**
+	 * Returns the document of the current occurrence.
+	 *
+	 * @return Document name
+	 */
+	String document();
+
+	/**
+	 * Returns the frequency of the current occurrence.
+	 *
+	 * @return Frequency
+	 */
+	int frequency();
+}
@@ -0,0 +1,228 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable, compact list of the occurrences of a keyword, in descending order of
+ * frequency. Documents are stored by id (see DocumentTable), and the list is cut into blocks
+ * of BLOCK occurrences, each of which is one run of variable length bytes. In a block,
+ * the first frequency is stored whole and every other one as its drop from the previous
+ * frequency, which is small and never negative since the list is in descending order.
+ * Most occurrences take 2 or 3 bytes, against the 30 or so of an Occurrence object in an
+ * ArrayList.
+ */
+class PostingList {
+
+	/**
+	 * Number of occurrences in a block.
+	 */
+	static final int BLOCK = 128;
+
+	/**
+	 * Encoded blocks, one after another.
+	 */
+	private final byte[] data;
+
+	/**
+	 * Position in data at which each block starts.
+	 */
+	private final int[] blocks;
+
+	/**
+	 * Number of occurrences.
+	 */
+	private final int size;
+
+	/**
+	 * Table that gives the names of the document ids in the list.
+	 */
+	private final DocumentTable docs;
+
+	private PostingList(byte[] data, int[] blocks, int size, DocumentTable docs) {
+		this.data = data;
+		this.blocks = blocks;
+		this.size = size;
+		this.docs = docs;
+	}
+
+	/**
+	 * Encodes a list of occurrences, giving ids to documents that do not have one yet.
+	 *
+	 * @param occs Occurrences in descending order of frequency
+	 * @param docs Document table
+	 * @return Compact list
+	 */
+	public static PostingList encode(List<Occurrence> occs, DocumentTable docs) {
+		int[] blocks = new int[(occs.size() + BLOCK - 1) / BLOCK];
+		byte[] data = new byte[occs.size() * 3 + 8];
+		int pos = 0;
+		int prev = 0;
+		for (int i = 0; i < occs.size(); i++) {
+			if (data.length - pos < 10) {
+				byte[] bigger = new byte[2 * data.length];
+				System.arraycopy(data, 0, bigger, 0, pos);
+				data = bigger;
+			}
+			Occurrence occ = occs.get(i);
+			if (i % BLOCK == 0) {
+				blocks[i / BLOCK] = pos;
+				pos = putVarint(data, pos, occ.frequency);
+			} else {
+				pos = putVarint(data, pos, prev - occ.frequency);
+			}
+			pos = putVarint(data, pos, docs.id(occ.document));
+			prev = occ.frequency;
+		}
+		byte[] trimmed = new byte[pos];
+		System.arraycopy(data, 0, trimmed, 0, pos);
+		return new PostingList(trimmed, blocks, occs.size(), docs);
+	}
+
+	/**
+	 * Returns the number of occurrences.
+	 *
+	 * @return Number of occurrences
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the highest frequency in the list.
+	 *
+	 * @return Frequency of the first occurrence, 0 if the list is empty
+	 */
+	public int maxFrequency() {
+		return size == 0 ? 0 : getVarint(data, 0);
+	}
+
+	/**
+	 * Returns a cursor over the list.
+	 *
+	 * @return Cursor positioned before the first occurrence
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Decodes the whole list back into Occurrence objects.
+	 *
+	 * @return Occurrences in descending order of frequency
+	 */
+	public ArrayList<Occurrence> decode() {
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(size);
+		Cursor c = cursor();
+		while (c.next()) {
+			occs.add(new Occurrence(c.document(), c.frequency()));
+		}
+		return occs;
+	}
+
+	/**
+	 * Cursor that decodes the list as it goes. Each call to next reads two varints.
+	 */
+	class Cursor implements PostingCursor {
+		private int index = -1;
+		private int pos = 0;
+		private int freq;
+		private int doc;
+
+		public boolean next() {
+			if (index + 1 >= size) {
+				index = size;
+				return false;
+			}
+			index++;
+			int v = getVarint(data, pos);
+			pos += varintLength(v);
+			freq = index % BLOCK == 0 ? v : freq - v;
+			doc = getVarint(data, pos);
+			pos += varintLength(doc);
+			return true;
+		}
+
+		/**
+		 * Returns the id of the document of the current occurrence.
+		 *
+		 * @return Document id
+		 */
+		public int docId() {
+			return doc;
+		}
+
+		public String document() {
+			return docs.name(doc);
+		}
+
+		public int frequency() {
+			return freq;
+		}
+	}
+
+	/**
+	 * Writes v, which must not be negative, 7 bits per byte, low bits first. The high bit of
+	 * a byte is set when more bytes follow.
+	 */
+	static int putVarint(byte[] buf, int pos, int v) {
+		while ((v & ~0x7f) != 0) {
+			buf[pos++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte)v;
+		return pos;
+	}
+
+	static int getVarint(byte[] buf, int pos) {
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buf[pos++];
+			v |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+	}
+
+	static int varintLength(int v) {
+		int n = 1;
+		while ((v & ~0x7f) != 0) {
+			v >>>= 7;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Writes v, which must not be negative, the same way as putVarint, in up to 9 bytes.
+	 */
+	static int putVarlong(byte[] buf, int pos, long v) {
+		while ((v & ~0x7fL) != 0) {
+			buf[pos++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte)v;
+		return pos;
+	}
+
+	static long getVarlong(byte[] buf, int pos) {
+		long v = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buf[pos++];
+			v |= (long)(b & 0x7f) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+	}
+
+	static int varlongLength(long v) {
+		int n = 1;
+		while ((v & ~0x7fL) != 0) {
+			v >>>= 7;
+			n++;
+		}
+		return n;
+	}
+}
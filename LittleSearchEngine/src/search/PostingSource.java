@@ -0,0 +1,16 @@
+package search;
+
+/**
+ * Anything that can hand out the occurrences of a keyword.
+ */
+interface PostingSource {
+
+	/**
+	 * Returns a cursor over the occurrences of a keyword.
+	 *
+	 * @param keyword Keyword, in lower case
+	 * @return Cursor over the occurrences in descending order of frequency, or null if
+	 *         the keyword does not occur in any document
+	 */
+	PostingCursor cursor(String keyword);
+}
@@ -0,0 +1,203 @@
+package search;
+
+import java.util.*;
+
+/**
+ * A bounded cache of search results, least recently used first out. Every entry knows the
+ * keywords its query read, and the cache keeps the reverse mapping, so that when the
+ * occurrences of a keyword change exactly the entries that read it are dropped, and the
+ * rest stay. Counters of hits, misses, evictions and invalidations tell how well the
+ * cache is doing at its size.
+ *
+ * All methods are synchronized, so the cache may be shared by threads.
+ */
+public class QueryCache {
+
+	/**
+	 * A cached result, and the keywords it depends on.
+	 */
+	private static class Entry {
+		final ArrayList<String> result;
+		final Collection<String> keywords;
+
+		Entry(ArrayList<String> result, Collection<String> keywords) {
+			this.result = result;
+			this.keywords = keywords;
+		}
+	}
+
+	/**
+	 * Maximum number of entries.
+	 */
+	private final int capacity;
+
+	/**
+	 * Entries by query key, in access order.
+	 */
+	private final LinkedHashMap<String,Entry> entries;
+
+	/**
+	 * Query keys of the entries that depend on each keyword.
+	 */
+	private final HashMap<String,HashSet<String>> byKeyword;
+
+	private long hits, misses, evictions, invalidations;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity Maximum number of results to keep
+	 */
+	public QueryCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+		byKeyword = new HashMap<String,HashSet<String>>();
+	}
+
+	/**
+	 * Looks up the result of a query.
+	 *
+	 * @param key Query key
+	 * @return Copy of the cached result, which is empty if the query matched nothing,
+	 *         or null if the query is not in the cache
+	 */
+	public synchronized ArrayList<String> get(String key) {
+		Entry e = entries.get(key);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<String>(e.result);
+	}
+
+	/**
+	 * Stores the result of a query, evicting the least recently used entry if the cache is full.
+	 *
+	 * @param key Query key
+	 * @param result Result; null is stored as an empty result
+	 * @param keywords Keywords whose occurrences the result depends on
+	 */
+	public synchronized void put(String key, ArrayList<String> result, Collection<String> keywords) {
+		remove(key);
+		if (entries.size() >= capacity) {
+			String eldest = entries.keySet().iterator().next();
+			remove(eldest);
+			evictions++;
+		}
+		ArrayList<String> copy = result == null ? new ArrayList<String>(0) : new ArrayList<String>(result);
+		entries.put(key, new Entry(copy, keywords));
+		for (String kw: keywords) {
+			HashSet<String> keys = byKeyword.get(kw);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				byKeyword.put(kw, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * Drops every entry that depends on a keyword.
+	 *
+	 * @param keyword Keyword whose occurrences changed
+	 */
+	public synchronized void invalidate(String keyword) {
+		HashSet<String> keys = byKeyword.get(keyword);
+		if (keys == null) {
+			return;
+		}
+		for (String key: new ArrayList<String>(keys)) {
+			remove(key);
+			invalidations++;
+		}
+	}
+
+	/**
+	 * Drops every entry.
+	 */
+	public synchronized void clear() {
+		invalidations += entries.size();
+		entries.clear();
+		byKeyword.clear();
+	}
+
+	private void remove(String key) {
+		Entry e = entries.remove(key);
+		if (e == null) {
+			return;
+		}
+		for (String kw: e.keywords) {
+			HashSet<String> keys = byKeyword.get(kw);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					byKeyword.remove(kw);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the maximum number of entries.
+	 *
+	 * @return Capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return Number of cached results
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of lookups that found a result.
+	 *
+	 * @return Hit count
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that found nothing.
+	 *
+	 * @return Miss count
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of entries dropped to make room.
+	 *
+	 * @return Eviction count
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of entries dropped because the index changed.
+	 *
+	 * @return Invalidation count
+	 */
+	public synchronized long invalidations() {
+		return invalidations;
+	}
+
+	public synchronized String toString() {
+		return "QueryCache[size=" + entries.size() + "/" + capacity + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions
+				+ ", invalidations=" + invalidations + "]";
+	}
+}
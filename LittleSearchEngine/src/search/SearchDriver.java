@@ -1,6 +1,7 @@
 package search;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 /**
@@ -9,11 +10,24 @@ import java.util.Scanner;
 public class SearchDriver {
     static Scanner scan = new Scanner(System.in);
     public static void main(String[] args) throws IOException {
-        System.out.println("Enter document list file name");
-        String doc = scan.nextLine();
-        doc = exist(doc);
+        // -serve runs a SearchServer instead, with the rest of the arguments
+        if (args.length > 0 && args[0].equals("-serve")) {
+            SearchServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         LittleSearchEngine test = new LittleSearchEngine();
-        test.makeIndex(doc, "noisewords.txt");
+        // an index file named on the command line is loaded if it exists, and written otherwise
+        if (args.length > 0 && new File(args[0]).exists()) {
+            test.loadIndex(args[0]);
+        } else {
+            System.out.println("Enter document list file name");
+            String doc = scan.nextLine();
+            doc = exist(doc);
+            test.makeIndex(doc, "noisewords.txt");
+            if (args.length > 0) {
+                test.saveIndex(args[0]);
+            }
+        }
         System.out.println("Would you like to search this document? (Yes/No)");
         String ques = scan.nextLine();
         while (!ques.equalsIgnoreCase("No")) {
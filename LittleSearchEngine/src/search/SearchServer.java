@@ -0,0 +1,445 @@
+package search;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Serves top-k searches on one engine over a line protocol, on a loopback socket or on
+ * standard input and output, so that an engine in another JVM can be a shard of a
+ * ShardedSearchEngine, or answer queries for a program that does not run Java. Each request
+ * is one line and each response starts with one line:
+ *
+ *   TOPK k keyword keyword ...   OK n, then n lines "frequency rank document", best first,
+ *                                where rank is the position in the query of the keyword
+ *                                the document was found through
+ *   BATCH n                      followed by n TOPK request lines; OK n, then the n
+ *                                responses, in the order of the requests
+ *   QUIT                         (closes the connection)
+ *
+ * A request that cannot be served gets "ERROR message" instead. Keywords cannot contain
+ * spaces, so they are separated by single spaces; document names are the rest of their line.
+ * Requests may be sent without waiting for the responses to earlier ones; responses are
+ * flushed whenever no more requests are waiting to be read.
+ *
+ * The engine is put in concurrent mode and searched through its snapshot, so every request
+ * is answered by a task of its own, all at the same time, whether it comes on its own line
+ * or in a batch, and whatever connection it comes on; responses are still written in the
+ * order of the requests. Connections and requests run on virtual threads where the Java
+ * runtime has them (Java 21 and up), so that thousands of connections and requests cost
+ * little more than their sockets. Otherwise, which is logged once, connections run on
+ * platform threads of their own and requests on a pool of a platform thread per processor.
+ */
+public class SearchServer implements Closeable {
+
+	/**
+	 * Largest number of requests of a connection answered ahead of the response being
+	 * written; reading the connection waits for the oldest one past that.
+	 */
+	static final int MAX_AHEAD = 256;
+
+	/**
+	 * Engine searched.
+	 */
+	private final LittleSearchEngine engine;
+
+	/**
+	 * Run connections, a thread for each, and requests, a task for each; the same executor
+	 * of virtual threads, where there are virtual threads.
+	 */
+	private final ExecutorService connectionExecutor;
+	private final ExecutorService requestExecutor;
+
+	/**
+	 * Socket that connections are accepted on, once started.
+	 */
+	private ServerSocket socket;
+
+	/**
+	 * Connections being served, closed along with the server.
+	 */
+	private final Set<Socket> connections;
+
+	/**
+	 * Initializes a server for an engine, turning on its concurrent mode.
+	 *
+	 * @param engine Engine to search
+	 */
+	public SearchServer(LittleSearchEngine engine) {
+		this.engine = engine;
+		engine.setConcurrent(true);
+		connections = Collections.synchronizedSet(new HashSet<Socket>());
+		ExecutorService virtual = virtualThreadExecutor();
+		if (virtual != null) {
+			connectionExecutor = virtual;
+			requestExecutor = virtual;
+		} else {
+			connectionExecutor = Executors.newCachedThreadPool(daemonThreads("search-connection"));
+			requestExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					daemonThreads("search-request"));
+		}
+	}
+
+	/**
+	 * True once the lack of virtual threads has been logged.
+	 */
+	private static volatile boolean fallbackLogged;
+
+	/**
+	 * Makes an executor that starts a virtual thread for each task, found by reflection since
+	 * it only exists from Java 21 on. Before that, the first call logs that platform threads
+	 * are used instead.
+	 *
+	 * @return Executor, or null if there are no virtual threads
+	 */
+	static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			if (!fallbackLogged) {
+				fallbackLogged = true;
+				Logger.getLogger(SearchServer.class.getName()).info("No virtual threads in Java "
+						+ System.getProperty("java.version") + ": serving on platform threads");
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether connections and requests run on virtual threads.
+	 *
+	 * @return True for virtual threads, false for platform threads
+	 */
+	public boolean virtualThreads() {
+		return connectionExecutor == requestExecutor;
+	}
+
+	/**
+	 * Makes daemon threads with a given name, so that a server never keeps the JVM running.
+	 */
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Starts accepting connections on the loopback address, on a background thread.
+	 *
+	 * @param port Port to listen on, 0 for any free port
+	 * @return Port listened on
+	 * @throws IOException If the socket cannot be opened
+	 */
+	public int start(int port)
+	throws IOException {
+		socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "search-server-" + socket.getLocalPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the socket is closed, serving each on a thread of its own.
+	 */
+	private void accept() {
+		while (!socket.isClosed()) {
+			final Socket client;
+			try {
+				client = socket.accept();
+			} catch (IOException e) {
+				// closed
+				return;
+			}
+			connections.add(client);
+			try {
+				connectionExecutor.execute(new Runnable() {
+					public void run() {
+						try {
+							client.setTcpNoDelay(true);
+							serve(client.getInputStream(), client.getOutputStream());
+						} catch (IOException e) {
+							// connection dropped
+						} finally {
+							connections.remove(client);
+							try {
+								client.close();
+							} catch (IOException e) {
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// closed
+				connections.remove(client);
+				try {
+					client.close();
+				} catch (IOException ignored) {
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Answers requests until asked to quit or the input ends. Used for each connection,
+	 * and for standard input and output. Each request goes to a task as soon as it is read,
+	 * and its response is written once those of the requests before it are.
+	 *
+	 * @param input Stream requests are read from
+	 * @param output Stream responses are written to
+	 * @throws IOException If the streams cannot be read or written
+	 */
+	public void serve(InputStream input, OutputStream output)
+	throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+		ArrayDeque<Future<String>> ahead = new ArrayDeque<Future<String>>();
+		String line;
+		while ((line = in.readLine()) != null && !line.equals("QUIT")) {
+			if (line.startsWith("BATCH ")) {
+				while (!ahead.isEmpty()) {
+					out.write(result(ahead.poll()));
+				}
+				batch(line, in, out);
+			} else {
+				ahead.add(submit(line));
+				if (ahead.size() > MAX_AHEAD) {
+					out.write(result(ahead.poll()));
+				}
+			}
+			if (!in.ready()) {
+				while (!ahead.isEmpty()) {
+					out.write(result(ahead.poll()));
+				}
+				out.flush();
+			}
+		}
+		while (!ahead.isEmpty()) {
+			out.write(result(ahead.poll()));
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the requests of a batch and writes their responses.
+	 *
+	 * @param request BATCH request line
+	 * @param in Reader the batch's requests come from
+	 * @param out Writer for the responses
+	 */
+	private void batch(String request, BufferedReader in, Writer out)
+	throws IOException {
+		int n;
+		try {
+			n = Integer.parseInt(request.substring("BATCH ".length()).trim());
+		} catch (NumberFormatException e) {
+			n = -1;
+		}
+		if (n < 0) {
+			out.write("ERROR Bad batch size: " + request + "\n");
+			return;
+		}
+		ArrayList<String> requests = new ArrayList<String>(Math.min(n, 1024));
+		for (int i = 0; i < n; i++) {
+			String line = in.readLine();
+			if (line == null) {
+				throw new EOFException("Batch ended after " + i + " of " + n + " requests");
+			}
+			requests.add(line);
+		}
+		String[] answers = answerAll(requests);
+		out.write("OK " + n + "\n");
+		for (String answer: answers) {
+			out.write(answer);
+		}
+	}
+
+	/**
+	 * Answers a list of requests, each in a task of its own.
+	 *
+	 * @param requests Request lines
+	 * @return Response to each request
+	 * @throws IOException If the thread is interrupted while waiting for the tasks, or the
+	 *         server is closed
+	 */
+	String[] answerAll(List<String> requests)
+	throws IOException {
+		ArrayList<Future<String>> tasks = new ArrayList<Future<String>>(requests.size());
+		try {
+			for (String request: requests) {
+				tasks.add(submit(request));
+			}
+			String[] answers = new String[tasks.size()];
+			for (int i = 0; i < answers.length; i++) {
+				answers[i] = result(tasks.get(i));
+			}
+			return answers;
+		} finally {
+			for (Future<String> task: tasks) {
+				task.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Starts answering a request.
+	 *
+	 * @param request Request line
+	 * @return Task that answers the request
+	 * @throws IOException If the server is closed
+	 */
+	private Future<String> submit(final String request)
+	throws IOException {
+		try {
+			return requestExecutor.submit(new Callable<String>() {
+				public String call() {
+					return answer(request);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw new IOException("Server is closed");
+		}
+	}
+
+	/**
+	 * Waits for the response of a request.
+	 *
+	 * @param task Task answering the request
+	 * @return Response lines
+	 * @throws InterruptedIOException If the thread is interrupted while waiting
+	 */
+	private static String result(Future<String> task)
+	throws InterruptedIOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while answering a request");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Answers one request.
+	 *
+	 * @param request Request line
+	 * @return Response lines, each ending with a newline
+	 */
+	String answer(String request) {
+		String[] words = request.split(" ");
+		if (!words[0].equals("TOPK") || words.length < 2) {
+			return "ERROR Unknown request: " + request + "\n";
+		}
+		int k;
+		try {
+			k = Integer.parseInt(words[1]);
+		} catch (NumberFormatException e) {
+			k = -1;
+		}
+		if (k < 0) {
+			return "ERROR Bad result size: " + words[1] + "\n";
+		}
+		ArrayList<String> kws = new ArrayList<String>(words.length - 2);
+		for (int i = 2; i < words.length; i++) {
+			kws.add(words[i].toLowerCase());
+		}
+		ArrayList<TopKSearch.Hit> top = TopKSearch.ranked(engine.snapshot(), kws, k);
+		StringBuilder sb = new StringBuilder("OK ").append(top.size()).append('\n');
+		for (TopKSearch.Hit hit: top) {
+			sb.append(hit.frequency).append(' ').append(hit.rank).append(' ').append(hit.document).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Stops accepting connections, closes the open ones and stops the threads.
+	 *
+	 * @throws IOException If the socket cannot be closed
+	 */
+	public void close()
+	throws IOException {
+		if (socket != null) {
+			socket.close();
+		}
+		synchronized (connections) {
+			for (Socket client: connections) {
+				client.close();
+			}
+		}
+		connectionExecutor.shutdownNow();
+		requestExecutor.shutdownNow();
+	}
+
+	/**
+	 * Runs a server until its standard input is closed, which happens when the process that
+	 * started it exits. The index is loaded from an index file, or built from a document list
+	 * file and a noise words file. Once the server is listening, its port is printed as
+	 * "LISTENING port" on a line of its own. The port is any free one, unless given with -port.
+	 *
+	 * With -stdin, requests are read from standard input instead, and their responses
+	 * written to standard output, until the input ends or asks to quit; nothing else is
+	 * printed to standard output.
+	 *
+	 * Usage: SearchServer [-stdin] [-port port] indexFile
+	 *        SearchServer [-stdin] [-port port] docsFile noiseWordsFile
+	 *
+	 * @param args Command line arguments
+	 * @throws IOException If the index cannot be loaded or built, or the socket cannot be opened
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		boolean stdin = false;
+		int port = 0;
+		int a = 0;
+		try {
+			for (; a < args.length && args[a].startsWith("-"); a++) {
+				if (args[a].equals("-stdin")) {
+					stdin = true;
+				} else if (args[a].equals("-port") && a + 1 < args.length) {
+					port = Integer.parseInt(args[++a]);
+				} else {
+					a = -1;
+					break;
+				}
+			}
+		} catch (NumberFormatException e) {
+			a = -1;
+		}
+		if (a < 0 || args.length - a < 1 || args.length - a > 2) {
+			System.err.println("Usage: SearchServer [-stdin] [-port port] indexFile");
+			System.err.println("       SearchServer [-stdin] [-port port] docsFile noiseWordsFile");
+			System.exit(2);
+		}
+		LittleSearchEngine engine = new LittleSearchEngine();
+		if (args.length - a == 1) {
+			engine.loadIndex(args[a]);
+		} else {
+			engine.makeIndex(args[a], args[a + 1]);
+		}
+		SearchServer server = new SearchServer(engine);
+		if (stdin) {
+			server.serve(System.in, System.out);
+			server.close();
+			return;
+		}
+		System.out.println("LISTENING " + server.start(port));
+		System.out.flush();
+		while (System.in.read() >= 0) {
+		}
+		server.close();
+	}
+}
@@ -0,0 +1,455 @@
+package search;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Searches an index split across several engines, each of which holds a share of the
+ * documents. Shards are engines in this JVM, or SearchServers in other JVMs reached over a
+ * loopback socket. A query is sent to every shard at once, each shard finds its own top k
+ * with the frequency each document ranks by, and the lists are merged.
+ *
+ * The merge is exact: a document of the overall top k is in the top k of its own shard,
+ * since every document that beats it there beats it overall too. Each shard reports, with
+ * every document, the position in the query of the keyword it was found through, and the
+ * lists are merged by descending frequency, then ascending keyword position, as one engine
+ * breaks ties. Stopping at k therefore gives the same frequencies and keyword positions as
+ * searching one engine that holds every document. Only documents tied on both, which one
+ * engine would take in the order of that keyword's list, come in shard order here, so they
+ * may differ in order, and in which of them make the cut at the last place.
+ *
+ * Documents are given to shards by the hash code of their name (see shardOf), so a
+ * document always lands in the same shard however the document list is ordered.
+ */
+public class ShardedSearchEngine implements Closeable {
+
+	/**
+	 * A share of the index that top-k searches can be sent to.
+	 */
+	interface Shard extends Closeable {
+
+		/**
+		 * Finds the top k documents of this shard for a query.
+		 *
+		 * @param keywords Keywords, in lower case, in order of preference for breaking ties
+		 * @param k Maximum number of documents to return
+		 * @return Matching documents, each with the frequency it ranks by and the position of
+		 *         its keyword in the query, best first
+		 * @throws IOException If the shard cannot be reached
+		 */
+		ArrayList<TopKSearch.Hit> topK(List<String> keywords, int k)
+		throws IOException;
+	}
+
+	/**
+	 * An engine in this JVM, searched through its snapshot.
+	 */
+	static class LocalShard implements Shard {
+		final LittleSearchEngine engine;
+
+		LocalShard(LittleSearchEngine engine) {
+			this.engine = engine;
+			engine.setConcurrent(true);
+		}
+
+		public ArrayList<TopKSearch.Hit> topK(List<String> keywords, int k) {
+			return TopKSearch.ranked(engine.snapshot(), keywords, k);
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * A SearchServer, reached over one connection that queries take turns on.
+	 */
+	static class RemoteShard implements Shard {
+		private final Socket socket;
+		private final BufferedReader in;
+		private final Writer out;
+
+		/**
+		 * Process the server runs in, if it was started for this shard, or null.
+		 */
+		Process process;
+
+		RemoteShard(String host, int port)
+		throws IOException {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+
+		public synchronized ArrayList<TopKSearch.Hit> topK(List<String> keywords, int k)
+		throws IOException {
+			StringBuilder request = new StringBuilder("TOPK ").append(k);
+			for (String kw: keywords) {
+				request.append(' ').append(kw);
+			}
+			out.write(request.append('\n').toString());
+			out.flush();
+
+			String status = in.readLine();
+			if (status == null) {
+				throw new EOFException("Shard closed the connection");
+			}
+			if (!status.startsWith("OK ")) {
+				throw new IOException("Shard failed: " + status);
+			}
+			int n = Integer.parseInt(status.substring(3));
+			ArrayList<TopKSearch.Hit> top = new ArrayList<TopKSearch.Hit>(n);
+			for (int i = 0; i < n; i++) {
+				String line = in.readLine();
+				if (line == null) {
+					throw new EOFException("Shard closed the connection");
+				}
+				int space = line.indexOf(' ');
+				int space2 = line.indexOf(' ', space + 1);
+				top.add(new TopKSearch.Hit(line.substring(space2 + 1), Integer.parseInt(line.substring(0, space)),
+						Integer.parseInt(line.substring(space + 1, space2))));
+			}
+			return top;
+		}
+
+		public void close()
+		throws IOException {
+			try {
+				socket.close();
+			} finally {
+				if (process != null) {
+					// the server exits when its standard input is closed
+					process.getOutputStream().close();
+					try {
+						if (!process.waitFor(5, TimeUnit.SECONDS)) {
+							process.destroy();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						process.destroy();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shards, in order.
+	 */
+	private final ArrayList<Shard> shards;
+
+	/**
+	 * Threads that queries are sent to the shards on.
+	 */
+	private final ExecutorService pool;
+
+	/**
+	 * Document list files written for the shards, deleted on close.
+	 */
+	private final ArrayList<Path> lists;
+
+	/**
+	 * Initializes a search with no shards.
+	 */
+	public ShardedSearchEngine() {
+		shards = new ArrayList<Shard>();
+		lists = new ArrayList<Path>();
+		pool = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "shard-query");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns the shard a document belongs to.
+	 *
+	 * @param docFile Name of the document file
+	 * @param n Number of shards
+	 * @return Shard, 0..n-1
+	 */
+	public static int shardOf(String docFile, int n) {
+		return (docFile.hashCode() & 0x7fffffff) % n;
+	}
+
+	/**
+	 * Splits the documents of a document list file among shards, building the index of
+	 * each shard in this JVM, all at the same time.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param n Number of shards
+	 * @throws IOException If an input file cannot be read, or a shard's document list cannot be written
+	 */
+	public void makeLocalShards(String docsFile, final String noiseWordsFile, int n)
+	throws IOException {
+		ArrayList<Path> split = split(docsFile, n);
+		ArrayList<Future<LittleSearchEngine>> builds = new ArrayList<Future<LittleSearchEngine>>(n);
+		for (final Path list: split) {
+			builds.add(pool.submit(new Callable<LittleSearchEngine>() {
+				public LittleSearchEngine call() throws FileNotFoundException {
+					LittleSearchEngine engine = new LittleSearchEngine();
+					engine.makeIndex(list.toString(), noiseWordsFile);
+					return engine;
+				}
+			}));
+		}
+		for (Future<LittleSearchEngine> build: builds) {
+			addShard(await(build));
+		}
+	}
+
+	/**
+	 * Splits the documents of a document list file among shards, each of which is a
+	 * SearchServer started in a JVM of its own on this machine, with the same class path as
+	 * this one. The servers build their indexes at the same time, and this method returns
+	 * once all of them are listening.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param n Number of shards
+	 * @param jvmOptions Options for the server JVMs, such as -Xmx4g
+	 * @throws IOException If a server cannot be started or reached
+	 */
+	public void startShardProcesses(String docsFile, String noiseWordsFile, int n, String... jvmOptions)
+	throws IOException {
+		ArrayList<Path> split = split(docsFile, n);
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		ArrayList<Process> processes = new ArrayList<Process>(n);
+		try {
+			for (Path list: split) {
+				ArrayList<String> command = new ArrayList<String>();
+				command.add(java);
+				command.addAll(Arrays.asList(jvmOptions));
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(SearchServer.class.getName());
+				command.add(list.toString());
+				command.add(noiseWordsFile);
+				processes.add(new ProcessBuilder(command)
+						.redirectError(ProcessBuilder.Redirect.INHERIT).start());
+			}
+			while (!processes.isEmpty()) {
+				Process process = processes.get(0);
+				BufferedReader out = new BufferedReader(
+						new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+				String line;
+				while ((line = out.readLine()) != null && !line.startsWith("LISTENING ")) {
+				}
+				if (line == null) {
+					throw new IOException("Shard server exited before listening");
+				}
+				RemoteShard shard = new RemoteShard(InetAddress.getLoopbackAddress().getHostAddress(),
+						Integer.parseInt(line.substring(10)));
+				shard.process = process;
+				shards.add(shard);
+				processes.remove(0);
+			}
+		} finally {
+			for (Process process: processes) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Adds an engine in this JVM as the next shard, turning on its concurrent mode.
+	 *
+	 * @param engine Engine holding the shard's documents
+	 */
+	public void addShard(LittleSearchEngine engine) {
+		shards.add(new LocalShard(engine));
+	}
+
+	/**
+	 * Adds a running SearchServer as the next shard.
+	 *
+	 * @param host Host the server is on
+	 * @param port Port the server listens on
+	 * @throws IOException If the server cannot be reached
+	 */
+	public void connect(String host, int port)
+	throws IOException {
+		shards.add(new RemoteShard(host, port));
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return Number of shards
+	 */
+	public int shards() {
+		return shards.size();
+	}
+
+	/**
+	 * Same as LittleSearchEngine.top5search, over every shard.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to 5 documents. If there are no matching documents,
+	 *         the result is null.
+	 * @throws IOException If a shard cannot be reached
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2)
+	throws IOException {
+		return topKSearch(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Same as LittleSearchEngine.topKSearch, over every shard. The query is sent to all the
+	 * shards at once, and their lists are merged by frequency and keyword position.
+	 *
+	 * @param keywords Keywords, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies, at most k of them. If there are no matching documents, the result is null.
+	 * @throws IOException If a shard cannot be reached
+	 */
+	public ArrayList<String> topKSearch(List<String> keywords, final int k)
+	throws IOException {
+		final ArrayList<String> kws = new ArrayList<String>(keywords.size());
+		for (String kw: keywords) {
+			kws.add(kw.toLowerCase());
+		}
+		ArrayList<Future<ArrayList<TopKSearch.Hit>>> answers = new ArrayList<Future<ArrayList<TopKSearch.Hit>>>(shards.size());
+		for (final Shard shard: shards) {
+			answers.add(pool.submit(new Callable<ArrayList<TopKSearch.Hit>>() {
+				public ArrayList<TopKSearch.Hit> call() throws IOException {
+					return shard.topK(kws, k);
+				}
+			}));
+		}
+		ArrayList<ArrayList<TopKSearch.Hit>> lists = new ArrayList<ArrayList<TopKSearch.Hit>>(shards.size());
+		for (Future<ArrayList<TopKSearch.Hit>> answer: answers) {
+			lists.add(await(answer));
+		}
+		return LittleSearchEngine.names(merge(lists, k));
+	}
+
+	/**
+	 * Merges the top k lists of the shards.
+	 *
+	 * @param lists Each shard's list, best first, in shard order
+	 * @param k Maximum number of documents to return
+	 * @return Overall top k, best first: by descending frequency, then ascending position of
+	 *         the keyword in the query, then in shard order
+	 */
+	static ArrayList<Occurrence> merge(ArrayList<ArrayList<TopKSearch.Hit>> lists, int k) {
+		int[] next = new int[lists.size()];
+		ArrayList<Occurrence> top = new ArrayList<Occurrence>(Math.min(k, 64));
+		while (top.size() < k) {
+			int best = -1;
+			for (int s = 0; s < lists.size(); s++) {
+				if (next[s] < lists.get(s).size() && (best < 0
+						|| beats(lists.get(s).get(next[s]), lists.get(best).get(next[best])))) {
+					best = s;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			top.add(lists.get(best).get(next[best]++));
+		}
+		return top;
+	}
+
+	/**
+	 * Returns whether a document comes strictly before another in a merged list.
+	 */
+	private static boolean beats(TopKSearch.Hit a, TopKSearch.Hit b) {
+		return a.frequency > b.frequency || (a.frequency == b.frequency && a.rank < b.rank);
+	}
+
+	/**
+	 * Writes the document list of each shard to a temporary file.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param n Number of shards
+	 * @return Document list file of each shard
+	 */
+	private ArrayList<Path> split(String docsFile, int n)
+	throws IOException {
+		if (n <= 0) {
+			throw new IllegalArgumentException("Number of shards must be positive: " + n);
+		}
+		ArrayList<Path> split = new ArrayList<Path>(n);
+		ArrayList<BufferedWriter> outs = new ArrayList<BufferedWriter>(n);
+		try {
+			for (int s = 0; s < n; s++) {
+				Path list = Files.createTempFile("lse-shard" + (shards.size() + s), ".txt");
+				lists.add(list);
+				split.add(list);
+				outs.add(Files.newBufferedWriter(list, StandardCharsets.UTF_8));
+			}
+			Scanner sc = new Scanner(new File(docsFile));
+			while (sc.hasNext()) {
+				String docFile = sc.next();
+				BufferedWriter out = outs.get(shardOf(docFile, n));
+				out.write(docFile);
+				out.newLine();
+			}
+		} finally {
+			for (BufferedWriter out: outs) {
+				out.close();
+			}
+		}
+		return split;
+	}
+
+	/**
+	 * Waits for a task sent to the shards, rethrowing its failure.
+	 */
+	private static <T> T await(Future<T> task)
+	throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a shard");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Closes every shard, stopping the servers started for them, and deletes the document
+	 * lists written for them.
+	 *
+	 * @throws IOException If a shard or a document list cannot be closed
+	 */
+	public void close()
+	throws IOException {
+		pool.shutdown();
+		IOException failure = null;
+		for (Shard shard: shards) {
+			try {
+				shard.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		shards.clear();
+		for (Path list: lists) {
+			Files.deleteIfExists(list);
+		}
+		lists.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * Reads snippets, short pieces of a document's text around a keyword, with one positioned
+ * read of the bytes around the keyword's byte offset (see LittleSearchEngine.setOffsets), so
+ * that the rest of the document is never read. The bytes are decoded with the platform default
+ * charset, the one documents are scanned with; a character cut in two at either end of the
+ * window decodes to a replacement character, and is dropped along with the partial word it
+ * is in.
+ */
+class Snippets {
+
+	/**
+	 * Reads a snippet.
+	 *
+	 * @param docFile Name of the document file
+	 * @param offset Byte offset of the keyword in the file
+	 * @param width Number of bytes to read, about half of them before the keyword
+	 * @return Whole words around the keyword, separated by single spaces, with "..." at
+	 *         either end if the text goes on
+	 * @throws IOException If the file cannot be read
+	 */
+	public static String read(String docFile, long offset, int width)
+	throws IOException {
+		if (width <= 0) {
+			throw new IllegalArgumentException("Snippet width must be positive: " + width);
+		}
+		long start = Math.max(0, offset - width / 2);
+		ByteBuffer bytes = ByteBuffer.allocate(width);
+		long size;
+		FileChannel channel = FileChannel.open(Paths.get(docFile), StandardOpenOption.READ);
+		try {
+			size = channel.size();
+			while (bytes.hasRemaining() && channel.read(bytes, start + bytes.position()) > 0) {
+			}
+		} finally {
+			channel.close();
+		}
+		bytes.flip();
+		// the keyword starts a character, so the text before it decodes on its own
+		int keywordByte = (int)(offset - start);
+		ByteBuffer after = bytes.duplicate();
+		bytes.limit(Math.min(keywordByte, after.limit()));
+		after.position(bytes.limit());
+		String before = decode(bytes);
+		String text = before + decode(after);
+		int keyword = before.length();
+
+		// drop partial words at the ends, but never the keyword
+		int from = 0;
+		if (start > 0) {
+			while (from < keyword && !Character.isWhitespace(text.charAt(from))) {
+				from++;
+			}
+		}
+		int to = text.length();
+		boolean more = start + after.limit() < size;
+		if (more) {
+			int last = to;
+			while (last > keyword && !Character.isWhitespace(text.charAt(last - 1))) {
+				last--;
+			}
+			if (last > keyword) {
+				to = last;
+			}
+		}
+		StringBuilder snippet = new StringBuilder();
+		boolean space = false;
+		for (int i = from; i < to; i++) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = true;
+			} else {
+				if (space && snippet.length() > 0) {
+					snippet.append(' ');
+				}
+				space = false;
+				snippet.append(c);
+			}
+		}
+		if (start > 0) {
+			snippet.insert(0, "...");
+		}
+		if (more) {
+			snippet.append("...");
+		}
+		return snippet.toString();
+	}
+
+	private static String decode(ByteBuffer bytes)
+	throws CharacterCodingException {
+		return Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.decode(bytes).toString();
+	}
+}
@@ -0,0 +1,344 @@
+package search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An immutable, sorted dictionary of keywords, front coded. Keywords are kept in
+ * IndexSegment.TERM_ORDER as UTF-8, in buckets of BUCKET: the first keyword of a bucket is
+ * stored whole, and every other one as the number of leading bytes it shares with the one
+ * before it and the bytes that follow. Sorted keywords share long prefixes, so the dictionary
+ * takes a fraction of the space of the keywords themselves.
+ *
+ * A keyword is found by binary search over the first keywords of the buckets, then by
+ * decoding at most one bucket, so finding where a prefix starts costs O(log n). From there,
+ * the keywords with the prefix are read in order, and the cost of a prefix lookup grows with
+ * the number of keywords that have the prefix, not with the size of the dictionary.
+ */
+class TermDictionary {
+
+	/**
+	 * Number of keywords in a bucket.
+	 */
+	static final int BUCKET = 16;
+
+	/**
+	 * Encoded buckets, one after another.
+	 */
+	private final byte[] data;
+
+	/**
+	 * Position in data at which each bucket starts.
+	 */
+	private final int[] buckets;
+
+	/**
+	 * Number of keywords.
+	 */
+	private final int size;
+
+	private TermDictionary(byte[] data, int[] buckets, int size) {
+		this.data = data;
+		this.buckets = buckets;
+		this.size = size;
+	}
+
+	/**
+	 * Builds a dictionary.
+	 *
+	 * @param keywords Keywords, in any order, without duplicates
+	 * @return Dictionary of the keywords
+	 */
+	public static TermDictionary build(Collection<String> keywords) {
+		byte[][] terms = new byte[keywords.size()][];
+		int i = 0;
+		int total = 0;
+		for (String keyword: keywords) {
+			terms[i] = keyword.getBytes(StandardCharsets.UTF_8);
+			total += terms[i].length;
+			i++;
+		}
+		Arrays.sort(terms, IndexSegment.TERM_ORDER);
+
+		byte[] data = new byte[total + 10 * terms.length + 1];
+		int[] buckets = new int[(terms.length + BUCKET - 1) / BUCKET];
+		int pos = 0;
+		for (int t = 0; t < terms.length; t++) {
+			byte[] term = terms[t];
+			int shared = 0;
+			if (t % BUCKET == 0) {
+				buckets[t / BUCKET] = pos;
+			} else {
+				byte[] prev = terms[t - 1];
+				int n = Math.min(prev.length, term.length);
+				while (shared < n && prev[shared] == term[shared]) {
+					shared++;
+				}
+				pos = PostingList.putVarint(data, pos, shared);
+			}
+			pos = PostingList.putVarint(data, pos, term.length - shared);
+			System.arraycopy(term, shared, data, pos, term.length - shared);
+			pos += term.length - shared;
+		}
+		return new TermDictionary(Arrays.copyOf(data, pos), buckets, terms.length);
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the keyword at a position.
+	 *
+	 * @param i Position, 0..size()-1
+	 * @return Keyword
+	 */
+	public String term(int i) {
+		Reader r = reader(i);
+		r.next();
+		return r.term();
+	}
+
+	/**
+	 * Looks up a keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Position of the keyword, or -1 if it is not in the dictionary
+	 */
+	public int find(String keyword) {
+		byte[] key = keyword.getBytes(StandardCharsets.UTF_8);
+		int i = lowerBound(key);
+		if (i == size) {
+			return -1;
+		}
+		Reader r = reader(i);
+		r.next();
+		return r.compareTo(key) == 0 ? i : -1;
+	}
+
+	/**
+	 * Finds the first keyword that is not before a key.
+	 *
+	 * @param key Key in UTF-8
+	 * @return Position of the first keyword at or after key in TERM_ORDER, size() if there is none
+	 */
+	public int lowerBound(byte[] key) {
+		// last bucket whose first keyword is not after key
+		int lo = 0, hi = buckets.length - 1, bucket = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareHead(mid, key) <= 0) {
+				bucket = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		int i = bucket * BUCKET;
+		Reader r = reader(i);
+		while (r.next() && r.compareTo(key) < 0) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Compares the first keyword of a bucket, which is stored whole, with a key.
+	 */
+	private int compareHead(int bucket, byte[] key) {
+		int pos = buckets[bucket];
+		int length = PostingList.getVarint(data, pos);
+		pos += PostingList.varintLength(length);
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int c = (data[pos + i] & 0xff) - (key[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Returns the keywords that start with a prefix.
+	 *
+	 * @param prefix Prefix
+	 * @return Keywords with the prefix, in order
+	 */
+	public ArrayList<String> withPrefix(String prefix) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		ArrayList<String> result = new ArrayList<String>();
+		Reader r = reader(lowerBound(key));
+		while (r.next() && r.startsWith(key)) {
+			result.add(r.term());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a reader positioned before a keyword.
+	 *
+	 * @param from Position of the first keyword to read
+	 * @return Reader whose next call to next moves to the keyword at from
+	 */
+	public Reader reader(int from) {
+		Reader r = new Reader();
+		r.seek(from);
+		return r;
+	}
+
+	/**
+	 * Reads keywords in order, decoding each from the one before.
+	 */
+	class Reader {
+		private byte[] term = new byte[32];
+		private int length;
+		private int next;
+		private int pos;
+
+		/**
+		 * Positions the reader before a keyword.
+		 *
+		 * @param from Position of the keyword the next call to next moves to
+		 */
+		public void seek(int from) {
+			if (from < size) {
+				next = from - from % BUCKET;
+				pos = buckets[next / BUCKET];
+				while (next < from) {
+					next();
+				}
+			} else {
+				next = size;
+			}
+		}
+
+		/**
+		 * Moves forward to the first keyword at or after a key. Buckets are skipped by binary
+		 * search over their first keywords, from the current one on.
+		 *
+		 * @param key Key in UTF-8, after the current keyword
+		 * @return False if there is no such keyword
+		 */
+		public boolean skipTo(byte[] key) {
+			int current = (next - 1) / BUCKET;
+			int lo = current + 1, hi = buckets.length - 1, bucket = current;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (compareHead(mid, key) <= 0) {
+					bucket = mid;
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			if (bucket != current) {
+				next = bucket * BUCKET;
+				pos = buckets[bucket];
+			}
+			while (next()) {
+				if (compareTo(key) >= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Moves to the next keyword.
+		 *
+		 * @return False if there are no more keywords
+		 */
+		public boolean next() {
+			if (next >= size) {
+				return false;
+			}
+			int shared = 0;
+			if (next % BUCKET != 0) {
+				shared = PostingList.getVarint(data, pos);
+				pos += PostingList.varintLength(shared);
+			}
+			int suffix = PostingList.getVarint(data, pos);
+			pos += PostingList.varintLength(suffix);
+			length = shared + suffix;
+			if (length > term.length) {
+				term = Arrays.copyOf(term, Math.max(2 * term.length, length));
+			}
+			System.arraycopy(data, pos, term, shared, suffix);
+			pos += suffix;
+			next++;
+			return true;
+		}
+
+		/**
+		 * Returns the position of the current keyword.
+		 *
+		 * @return Position, 0..size()-1
+		 */
+		public int position() {
+			return next - 1;
+		}
+
+		/**
+		 * Returns the current keyword.
+		 *
+		 * @return Keyword
+		 */
+		public String term() {
+			return new String(term, 0, length, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Returns the UTF-8 bytes of the current keyword, which are only good until the next call
+		 * to next.
+		 *
+		 * @return Buffer whose first length() bytes are the keyword
+		 */
+		public byte[] bytes() {
+			return term;
+		}
+
+		/**
+		 * Returns the length of the current keyword in bytes.
+		 *
+		 * @return Length in UTF-8 bytes
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Compares the current keyword with a key, in TERM_ORDER.
+		 */
+		int compareTo(byte[] key) {
+			int n = Math.min(length, key.length);
+			for (int i = 0; i < n; i++) {
+				int c = (term[i] & 0xff) - (key[i] & 0xff);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return length - key.length;
+		}
+
+		/**
+		 * Tells whether the current keyword starts with a prefix.
+		 */
+		boolean startsWith(byte[] prefix) {
+			if (length < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (term[i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The occurrence lists an engine keeps in memory, by term id (see TermTable). A keyword has
+ * either an Occurrence list, which merging changes in place, or a compact list (see
+ * PostingList), or, once its last occurrence is gone, neither. Finding the occurrences of a
+ * keyword, whichever kind they are kept in, takes one probe of the term table and a read of
+ * one slot of an array, rather than a lookup in a hash table of each kind. The index keeps
+ * no String of its keywords, only their bytes in the term table. Per keyword, it takes 30 to
+ * 41 bytes besides those, its term table included, against about 75 for a HashMap entry with
+ * its String (see TermTable).
+ *
+ * A keyword keeps its term id for the life of the index, even once it has no occurrences, so
+ * that a keyword that comes back goes back in the same slots.
+ */
+class TermIndex {
+
+	/**
+	 * Keywords, each with its term id.
+	 */
+	private final TermTable terms;
+
+	/**
+	 * Occurrence list of each keyword, in descending order of frequency, or null.
+	 */
+	private ArrayList<Occurrence>[] lists;
+
+	/**
+	 * Compact list of each keyword, or null; never set for a keyword that has a list.
+	 */
+	private PostingList[] packed;
+
+	/**
+	 * Initializes an empty index.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TermIndex() {
+		terms = new TermTable(1024, false);
+		lists = new ArrayList[1024];
+		packed = new PostingList[1024];
+	}
+
+	/**
+	 * Returns the number of term ids handed out, including those of keywords that no longer
+	 * have any occurrences.
+	 *
+	 * @return Number of term ids, which are 0..size()-1
+	 */
+	public int size() {
+		return terms.size();
+	}
+
+	/**
+	 * Looks up the term id of a keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Term id, or -1 if the keyword never had one
+	 */
+	public int find(String keyword) {
+		return terms.find(keyword);
+	}
+
+	/**
+	 * Returns the term id of a keyword, giving it the next one if it does not have one yet.
+	 *
+	 * @param keyword Keyword
+	 * @return Term id
+	 */
+	public int add(String keyword) {
+		int id = terms.add(keyword);
+		if (id == lists.length) {
+			lists = Arrays.copyOf(lists, 2 * id);
+			packed = Arrays.copyOf(packed, 2 * id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns a keyword.
+	 *
+	 * @param id Term id
+	 * @return Keyword
+	 */
+	public String term(int id) {
+		return terms.term(id);
+	}
+
+	/**
+	 * Returns the occurrence list of a keyword.
+	 *
+	 * @param id Term id
+	 * @return Occurrences in descending order of frequency, or null if the keyword has no
+	 *         list, which it may have if it has a compact list instead
+	 */
+	public ArrayList<Occurrence> list(int id) {
+		return lists[id];
+	}
+
+	/**
+	 * Returns the compact list of a keyword.
+	 *
+	 * @param id Term id
+	 * @return Compact list, or null if there is none
+	 */
+	public PostingList packed(int id) {
+		return packed[id];
+	}
+
+	/**
+	 * Tells whether a keyword has either kind of list, even if it is empty.
+	 *
+	 * @param id Term id
+	 * @return True if the keyword has a list or a compact list
+	 */
+	public boolean has(int id) {
+		return lists[id] != null || packed[id] != null;
+	}
+
+	/**
+	 * Sets the occurrence list of a keyword, dropping its compact list.
+	 *
+	 * @param id Term id
+	 * @param occs Occurrences in descending order of frequency, or null for none
+	 */
+	public void setList(int id, ArrayList<Occurrence> occs) {
+		lists[id] = occs;
+		packed[id] = null;
+	}
+
+	/**
+	 * Sets the compact list of a keyword, dropping its occurrence list.
+	 *
+	 * @param id Term id
+	 * @param list Compact list
+	 */
+	public void setPacked(int id, PostingList list) {
+		packed[id] = list;
+		lists[id] = null;
+	}
+
+	/**
+	 * Returns the keywords and term ids as they are now, for snapshots to look keywords up in
+	 * from other threads while this index goes on adding them (see TermTable.view).
+	 *
+	 * @return Read-only copy of the term table
+	 */
+	public TermTable terms() {
+		return terms.view();
+	}
+}
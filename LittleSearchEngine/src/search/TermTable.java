@@ -0,0 +1,422 @@
+package search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table of keywords, each mapped to an int term id: 0 for the
+ * first keyword added, 1 for the next, and so on. Whatever is kept per keyword can then be
+ * kept in arrays indexed by term id, instead of in hash table entries.
+ *
+ * The keywords are kept one after another in a single byte arena, in UTF-8, which for the
+ * ASCII keywords the tokenizer makes is a byte per character. The table itself is an int
+ * array of slots, probed linearly and never more than three quarters full, each holding a
+ * term id with the hash code of its keyword, so a probe compares bytes only when the hash
+ * codes are equal. A lookup reads the slot and the bytes of the keyword: two places in
+ * memory, against a bucket, an entry, a String and its array for a HashMap.
+ *
+ * A table made to keep Strings also keeps the String of each keyword once it has made one
+ * or been given one, and a keyword looked up with its own String matches it without
+ * comparing bytes. Otherwise, Strings are made as they are asked for, and not kept, so the
+ * arena is the only copy of the characters. Without Strings, the table takes 22 to 30 bytes
+ * per keyword besides its bytes, depending on how far its arrays are from doubling again,
+ * against about 75 for a HashMap entry with its String (measured with 20,000 to 1,000,000
+ * keywords of 3 to 11 letters).
+ *
+ * Keywords can be looked up and added from a range of characters, as KeywordTokenizer hands
+ * them out, so that no String is made for a keyword that is already in the table.
+ */
+class TermTable {
+
+	/**
+	 * Characters of the keywords, one byte each, one keyword after another.
+	 */
+	private byte[] arena;
+	private int used;
+
+	/**
+	 * Start of each keyword in the arena; the keyword with id i ends where i+1 starts.
+	 */
+	private int[] starts;
+
+	/**
+	 * Hash table slots, two ints each: a term id plus one, or 0 if the slot is empty, and the
+	 * hash code of the keyword. The number of slots is always a power of 2.
+	 */
+	private int[] slots;
+
+	/**
+	 * Keywords as Strings, made the first time they are asked for, or null if the table does
+	 * not keep Strings.
+	 */
+	private String[] strings;
+
+	/**
+	 * Number of keywords.
+	 */
+	private int size;
+
+	/**
+	 * True for a view, which shares the arrays of the table it was made from.
+	 */
+	private final boolean readOnly;
+
+	/**
+	 * Initializes an empty table.
+	 *
+	 * @param expected Number of keywords the table is sized for; it grows past that as needed
+	 * @param keepStrings True to keep the String of each keyword once there is one, for a
+	 *        table whose keywords are turned into Strings over and over
+	 */
+	public TermTable(int expected, boolean keepStrings) {
+		int capacity = Math.max(16, expected);
+		slots = new int[Integer.highestOneBit(2 * capacity - 1) << 2];
+		starts = new int[capacity + 1];
+		strings = keepStrings ? new String[capacity] : null;
+		arena = new byte[8 * capacity];
+		readOnly = false;
+	}
+
+	private TermTable(TermTable table) {
+		arena = table.arena;
+		used = table.used;
+		starts = table.starts;
+		slots = table.slots;
+		strings = table.strings;
+		size = table.size;
+		readOnly = true;
+	}
+
+	/**
+	 * Returns a view of the table as it is now, which other threads can look keywords up in
+	 * while this table goes on adding them, once it has been handed to them safely (through a
+	 * volatile field, for instance). The view shares the arrays of this table: adding a keyword
+	 * only writes to their unused parts, or to new arrays when they grow, and only fills empty
+	 * slots, with term ids the view does not have, which a probe of the view takes as empty.
+	 *
+	 * @return Table that has the keywords this one has now, and can only be looked up in
+	 */
+	public TermTable view() {
+		return new TermTable(this);
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords, which are the term ids 0..size()-1
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Looks up a keyword.
+	 *
+	 * @param chars Characters
+	 * @param off Start of the keyword in chars
+	 * @param len Length of the keyword
+	 * @return Term id of chars[off..off+len-1], or -1 if it is not in the table
+	 */
+	public int find(char[] chars, int off, int len) {
+		return probe(chars, off, len, hash(chars, off, len), false);
+	}
+
+	/**
+	 * Looks up a keyword.
+	 *
+	 * @param term Keyword
+	 * @return Term id, or -1 if it is not in the table
+	 */
+	public int find(String term) {
+		return probe(term, hash(term), false);
+	}
+
+	/**
+	 * Adds a keyword, if it is not already in the table.
+	 *
+	 * @param chars Characters
+	 * @param off Start of the keyword in chars
+	 * @param len Length of the keyword
+	 * @return Term id of chars[off..off+len-1], new or not
+	 */
+	public int add(char[] chars, int off, int len) {
+		return probe(chars, off, len, hash(chars, off, len), true);
+	}
+
+	/**
+	 * Adds a keyword, if it is not already in the table.
+	 *
+	 * @param term Keyword
+	 * @return Term id, new or not
+	 */
+	public int add(String term) {
+		return probe(term, hash(term), true);
+	}
+
+	/**
+	 * Returns a keyword.
+	 *
+	 * @param id Term id
+	 * @return Keyword, the same String every time if the table keeps Strings
+	 */
+	public String term(int id) {
+		if (strings == null) {
+			return new String(arena, starts[id], starts[id + 1] - starts[id], StandardCharsets.UTF_8);
+		}
+		String s = strings[id];
+		if (s == null) {
+			s = new String(arena, starts[id], starts[id + 1] - starts[id], StandardCharsets.UTF_8);
+			strings[id] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of a keyword.
+	 *
+	 * @param id Term id
+	 * @return New array holding the keyword
+	 */
+	public byte[] bytes(int id) {
+		return Arrays.copyOfRange(arena, starts[id], starts[id + 1]);
+	}
+
+	/**
+	 * Compares two keywords in IndexSegment.TERM_ORDER.
+	 *
+	 * @param a Term id
+	 * @param b Term id
+	 * @return Negative, zero or positive as keyword a comes before, is, or comes after keyword b
+	 */
+	public int compare(int a, int b) {
+		int pa = starts[a], la = starts[a + 1] - pa;
+		int pb = starts[b], lb = starts[b + 1] - pb;
+		int n = Math.min(la, lb);
+		for (int i = 0; i < n; i++) {
+			int c = (arena[pa + i] & 0xff) - (arena[pb + i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return la - lb;
+	}
+
+	/**
+	 * Returns roughly how many bytes the table takes.
+	 *
+	 * @return Bytes taken by the arrays of the table
+	 */
+	public long memory() {
+		return arena.length + 4L * (starts.length + slots.length)
+				+ (strings == null ? 0 : 8L * strings.length);
+	}
+
+	/**
+	 * Takes every keyword out, keeping the memory for the next ones. Views made of the table
+	 * before must not be used afterwards.
+	 */
+	public void clear() {
+		if (readOnly) {
+			throw new IllegalStateException("Keywords cannot be taken out of a view");
+		}
+		Arrays.fill(slots, 0);
+		if (strings != null) {
+			Arrays.fill(strings, 0, size, null);
+		}
+		used = 0;
+		size = 0;
+	}
+
+	private int probe(char[] chars, int off, int len, int h, boolean add) {
+		int mask = (slots.length >> 1) - 1;
+		int i = h & mask;
+		for (int slot; (slot = slots[2 * i]) != 0 && slot <= size; i = (i + 1) & mask) {
+			int id = slot - 1;
+			if (slots[2 * i + 1] == h && equal(id, chars, off, len)) {
+				return id;
+			}
+		}
+		if (!add) {
+			return -1;
+		}
+		int id = newTerm(len);
+		for (int j = 0; j < len; j++) {
+			char c = chars[off + j];
+			if (c > 0x7f) {
+				return placed(id, i, h, utf8(new String(chars, off, len)));
+			}
+			arena[used + j] = (byte)c;
+		}
+		return placed(id, i, h, len);
+	}
+
+	private int probe(String term, int h, boolean add) {
+		int len = term.length();
+		int mask = (slots.length >> 1) - 1;
+		int i = h & mask;
+		for (int slot; (slot = slots[2 * i]) != 0 && slot <= size; i = (i + 1) & mask) {
+			int id = slot - 1;
+			if (slots[2 * i + 1] == h && (strings != null && strings[id] == term || equal(id, term))) {
+				return id;
+			}
+		}
+		if (!add) {
+			return -1;
+		}
+		int id = newTerm(len);
+		if (strings != null) {
+			strings[id] = term;
+		}
+		for (int j = 0; j < len; j++) {
+			char c = term.charAt(j);
+			if (c > 0x7f) {
+				return placed(id, i, h, utf8(term));
+			}
+			arena[used + j] = (byte)c;
+		}
+		return placed(id, i, h, len);
+	}
+
+	/**
+	 * Makes room for a new keyword, whose bytes go at arena[used..used+len-1].
+	 *
+	 * @return Term id of the new keyword
+	 */
+	private int newTerm(int len) {
+		if (readOnly) {
+			throw new IllegalStateException("Keywords cannot be added to a view");
+		}
+		if (size + 1 >= starts.length) {
+			int n = 2 * size + 2;
+			starts = Arrays.copyOf(starts, n + 1);
+			if (strings != null) {
+				strings = Arrays.copyOf(strings, n);
+			}
+		}
+		if (used + len > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(2 * arena.length, used + len));
+		}
+		return size;
+	}
+
+	/**
+	 * Puts the UTF-8 bytes of a keyword that is not ASCII at arena[used..], over whatever
+	 * ASCII bytes were put there before.
+	 *
+	 * @return Number of bytes
+	 */
+	private int utf8(String term) {
+		byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+		if (used + bytes.length > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(2 * arena.length, used + bytes.length));
+		}
+		System.arraycopy(bytes, 0, arena, used, bytes.length);
+		return bytes.length;
+	}
+
+	/**
+	 * Puts a new keyword, whose bytes are in place, in the free slot its probe ended at,
+	 * growing the table if it gets more than three quarters full.
+	 */
+	private int placed(int id, int slot, int h, int len) {
+		starts[id] = used;
+		used += len;
+		starts[id + 1] = used;
+		size++;
+		slots[2 * slot + 1] = h;
+		slots[2 * slot] = id + 1;
+		if (8 * size > 3 * slots.length) {
+			resize();
+		}
+		return id;
+	}
+
+	/**
+	 * Doubles the table and puts every term id back in it.
+	 */
+	private void resize() {
+		int[] bigger = new int[2 * slots.length];
+		int mask = (bigger.length >> 1) - 1;
+		for (int j = 0; j < slots.length; j += 2) {
+			if (slots[j] != 0) {
+				int i = slots[j + 1] & mask;
+				while (bigger[2 * i] != 0) {
+					i = (i + 1) & mask;
+				}
+				bigger[2 * i] = slots[j];
+				bigger[2 * i + 1] = slots[j + 1];
+			}
+		}
+		slots = bigger;
+	}
+
+	/**
+	 * Compares a keyword with a range of characters, a byte with a character as long as the
+	 * characters are ASCII, and as UTF-8 from the first one that is not.
+	 */
+	private boolean equal(int id, char[] chars, int off, int len) {
+		int p = starts[id];
+		int n = starts[id + 1] - p;
+		for (int i = 0; i < len; i++) {
+			char c = chars[off + i];
+			if (c > 0x7f) {
+				return equal(id, new String(chars, off, len).getBytes(StandardCharsets.UTF_8));
+			}
+			if (i >= n || arena[p + i] != c) {
+				return false;
+			}
+		}
+		return n == len;
+	}
+
+	private boolean equal(int id, String term) {
+		int p = starts[id];
+		int n = starts[id + 1] - p;
+		int len = term.length();
+		for (int i = 0; i < len; i++) {
+			char c = term.charAt(i);
+			if (c > 0x7f) {
+				return equal(id, term.getBytes(StandardCharsets.UTF_8));
+			}
+			if (i >= n || arena[p + i] != c) {
+				return false;
+			}
+		}
+		return n == len;
+	}
+
+	private boolean equal(int id, byte[] bytes) {
+		int p = starts[id];
+		if (starts[id + 1] - p != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (arena[p + i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same polynomial as String.hashCode, scrambled: keywords that differ only in their last
+	 * characters have polynomial hashes that differ only a little, and would otherwise land
+	 * in neighbouring slots, which linear probing turns into long runs.
+	 */
+	private static int hash(char[] chars, int off, int len) {
+		int h = 0;
+		for (int i = off; i < off + len; i++) {
+			h = 31 * h + chars[i];
+		}
+		return scramble(h);
+	}
+
+	private static int hash(String term) {
+		return scramble(term.hashCode());
+	}
+
+	private static int scramble(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,101 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Search for the top k documents that contain any of a number of keywords. A document
+ * ranks by the highest frequency with which any of the keywords occurs in it, and ties go
+ * to the keyword that comes first in the query, as in top5search.
+ *
+ * Since every occurrence list is in descending order of frequency, the lists are merged
+ * through a heap that holds one cursor per keyword, keyed on the frequency under each cursor.
+ * The frequency at the top of the heap is a threshold that no unread occurrence can beat,
+ * so a document is final as soon as it is first seen, and the merge stops at the k-th
+ * distinct document. Only the heads of the lists that reach the top k are ever read, no
+ * matter how long the lists are.
+ *
+ * Documents come out in order of frequency, then of the position in the query of the
+ * keyword they were found through, then of their place in that keyword's list.
+ */
+class TopKSearch {
+
+	/**
+	 * A document found by a search, along with the position in the query of the keyword
+	 * it was found through, which breaks ties between documents of the same frequency.
+	 */
+	static class Hit extends Occurrence {
+		final int rank;
+
+		Hit(String document, int frequency, int rank) {
+			super(document, frequency);
+			this.rank = rank;
+		}
+	}
+
+	/**
+	 * A cursor in the merge heap, along with the position of its keyword in the query.
+	 */
+	private static class Head implements Comparable<Head> {
+		final PostingCursor cursor;
+		final int rank;
+
+		Head(PostingCursor cursor, int rank) {
+			this.cursor = cursor;
+			this.rank = rank;
+		}
+
+		public int compareTo(Head other) {
+			int c = other.cursor.frequency() - cursor.frequency();
+			return c != 0 ? c : rank - other.rank;
+		}
+	}
+
+	/**
+	 * Finds the top k documents for a query.
+	 *
+	 * @param source Where occurrence lists come from
+	 * @param keywords Keywords, in lower case, in order of preference for breaking ties
+	 * @param k Maximum number of documents to return
+	 * @return Occurrences of the matching documents, each with the frequency it ranks by,
+	 *         best first; empty if no document matches
+	 */
+	public static ArrayList<Occurrence> search(PostingSource source, List<String> keywords, int k) {
+		return new ArrayList<Occurrence>(ranked(source, keywords, k));
+	}
+
+	/**
+	 * Finds the top k documents for a query, with the keyword each was found through.
+	 *
+	 * @param source Where occurrence lists come from
+	 * @param keywords Keywords, in lower case, in order of preference for breaking ties
+	 * @param k Maximum number of documents to return
+	 * @return Matching documents, each with the frequency it ranks by and the position of its
+	 *         keyword in the query, best first; empty if no document matches
+	 */
+	static ArrayList<Hit> ranked(PostingSource source, List<String> keywords, int k) {
+		PriorityQueue<Head> heap = new PriorityQueue<Head>(Math.max(1, keywords.size()));
+		HashSet<String> queried = new HashSet<String>();
+		for (int i = 0; i < keywords.size(); i++) {
+			if (!queried.add(keywords.get(i))) {
+				continue;
+			}
+			PostingCursor c = source.cursor(keywords.get(i));
+			if (c != null && c.next()) {
+				heap.add(new Head(c, i));
+			}
+		}
+
+		ArrayList<Hit> top = new ArrayList<Hit>(Math.min(k, 64));
+		HashSet<String> seen = new HashSet<String>();
+		while (top.size() < k && !heap.isEmpty()) {
+			Head head = heap.poll();
+			if (seen.add(head.cursor.document())) {
+				top.add(new Hit(head.cursor.document(), head.cursor.frequency(), head.rank));
+			}
+			if (head.cursor.next()) {
+				heap.add(head);
+			}
+		}
+		return top;
+	}
+}
@@ -0,0 +1,141 @@
+package search;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks index files against makeIndex, on a random corpus written to a temporary directory:
+ * - makeIndexFile, under memory budgets small enough for a run per document (more runs
+ *   than ExternalIndexBuilder.FAN_IN, so that runs are merged in passes), a few runs, and
+ *   one run, loads the same keywords, lists and document lengths as makeIndex, and
+ *   leaves no run files behind
+ * - saveIndex and loadIndex give back the same keywords, lists and document lengths, and
+ *   an engine that loaded a file, compacted or not, saves the same file again
+ *
+ * Exits with status 1 and prints the first few differences if anything differs.
+ */
+public class IndexFileCheck {
+
+	private static int failures;
+
+	public static void main(String[] args)
+	throws IOException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 13;
+		Random random = new Random(seed);
+		Path dir = Files.createTempDirectory("indexfile");
+		try {
+			check(random, dir, 300);
+		} finally {
+			delete(dir.toFile());
+		}
+		if (failures > 0) {
+			System.out.println(failures + " differences (seed " + seed + ")");
+			System.exit(1);
+		}
+		System.out.println("Index files match makeIndex (seed " + seed + ")");
+	}
+
+	private static void check(Random random, Path dir, int docs)
+	throws IOException {
+		String[] words = new String[60];
+		for (int w = 0; w < words.length; w++) {
+			words[w] = "word" + (char)('a' + w % 26) + (char)('a' + w / 26);
+		}
+		ArrayList<String> names = new ArrayList<String>();
+		for (int d = 0; d < docs; d++) {
+			StringBuilder text = new StringBuilder();
+			for (int w = 0; w < words.length; w++) {
+				int count = random.nextInt(3) == 0 ? random.nextInt(5) : 0;
+				for (int c = 0; c < count; c++) {
+					text.append(w % 7 == 0 ? "The " : "").append(words[w]).append(c % 2 == 0 ? ", " : " ");
+				}
+			}
+			Path doc = dir.resolve("doc" + d + ".txt");
+			Files.write(doc, text.toString().getBytes("US-ASCII"));
+			names.add(doc.toString());
+		}
+		String docsFile = dir.resolve("docs.txt").toString();
+		Files.write(Paths.get(docsFile), names);
+		String noiseFile = dir.resolve("noise.txt").toString();
+		Files.write(Paths.get(noiseFile), Arrays.asList("the", "a", "of"));
+
+		LittleSearchEngine expected = new LittleSearchEngine();
+		expected.makeIndex(docsFile, noiseFile);
+		String saved = dir.resolve("saved.idx").toString();
+		expected.saveIndex(saved);
+		byte[] savedBytes = Files.readAllBytes(Paths.get(saved));
+
+		Path runs = Files.createDirectory(dir.resolve("runs"));
+		for (long budget: new long[] {1, 20000, 1L << 40}) {
+			String built = dir.resolve("built" + budget + ".idx").toString();
+			LittleSearchEngine external = new LittleSearchEngine();
+			external.makeIndexFile(docsFile, noiseFile, built, budget, runs.toString());
+			checkEngine("makeIndexFile, budget " + budget, expected, external);
+			String[] left = runs.toFile().list();
+			if (left.length != 0) {
+				report("makeIndexFile, budget " + budget + ": run files left " + Arrays.toString(left));
+			}
+		}
+
+		LittleSearchEngine loaded = new LittleSearchEngine();
+		loaded.loadIndex(saved);
+		checkEngine("loadIndex", expected, loaded);
+		String again = dir.resolve("again.idx").toString();
+		loaded.saveIndex(again);
+		checkFile("saveIndex after loadIndex", savedBytes, again);
+		loaded.compact();
+		checkEngine("loadIndex, compacted", expected, loaded);
+		String compacted = dir.resolve("compacted.idx").toString();
+		loaded.saveIndex(compacted);
+		checkFile("saveIndex after compact", savedBytes, compacted);
+	}
+
+	private static void checkEngine(String what, LittleSearchEngine expected, LittleSearchEngine actual) {
+		TreeSet<String> keywords = new TreeSet<String>(expected.keywords());
+		TreeSet<String> actualKeywords = new TreeSet<String>(actual.keywords());
+		if (!keywords.equals(actualKeywords)) {
+			report(what + ": keywords\n  expected " + keywords + "\n  actual   " + actualKeywords);
+		}
+		for (String kw: keywords) {
+			List<Occurrence> e = expected.stored(kw);
+			List<Occurrence> a = actual.stored(kw);
+			if (!String.valueOf(e).equals(String.valueOf(a))) {
+				report(what + " " + kw + ":\n  expected " + e + "\n  actual   " + a);
+			}
+		}
+		for (int id = 0; id < expected.documents.size(); id++) {
+			String doc = expected.documents.name(id);
+			int other = actual.documents.find(doc);
+			int length = other < 0 ? -1 : actual.documents.length(other);
+			if (length != expected.documents.length(id)) {
+				report(what + " length of " + doc + ": expected " + expected.documents.length(id)
+						+ ", actual " + length);
+			}
+		}
+	}
+
+	private static void checkFile(String what, byte[] expected, String file)
+	throws IOException {
+		if (!Arrays.equals(expected, Files.readAllBytes(Paths.get(file)))) {
+			report(what + ": " + file + " differs from the file saveIndex wrote");
+		}
+	}
+
+	private static void report(String difference) {
+		if (failures < 5) {
+			System.out.println(difference);
+		}
+		failures++;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+}
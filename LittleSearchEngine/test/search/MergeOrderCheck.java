@@ -0,0 +1,171 @@
+package search;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks that every bulk path leaves the occurrence lists in exactly the order that
+ * insertLastOccurrence, called after each occurrence is added, gives them, ties included:
+ * - BulkMerge.order and BulkMerge.sort, on random frequency sequences with many ties and
+ *   ordered prefixes of every length
+ * - makeIndex, sequential and parallel, and mergeDocuments in batches of a few documents,
+ *   against mergeKeyWords one document at a time, on a random corpus written to a
+ *   temporary directory
+ *
+ * Exits with status 1 and prints the first few differences if any list is out of order.
+ */
+public class MergeOrderCheck {
+
+	private static int failures;
+
+	public static void main(String[] args)
+	throws IOException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 13;
+		Random random = new Random(seed);
+		checkOrder(random, 20000);
+		checkEngines(random, 400);
+		if (failures > 0) {
+			System.out.println(failures + " lists out of order (seed " + seed + ")");
+			System.exit(1);
+		}
+		System.out.println("All lists in insertLastOccurrence order (seed " + seed + ")");
+	}
+
+	/**
+	 * Compares BulkMerge.order and BulkMerge.sort with insertLastOccurrence replays.
+	 */
+	private static void checkOrder(Random random, int lists) {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		for (int t = 0; t < lists; t++) {
+			int n = random.nextInt(t % 50 == 0 ? 5000 : 80);
+			// few distinct frequencies, so most occurrences tie
+			int maxFrequency = 1 + random.nextInt(t % 3 == 0 ? 3 : 20);
+			int sorted = random.nextInt(n + 1);
+			ArrayList<Occurrence> occs = new ArrayList<Occurrence>();
+			for (int i = 0; i < n; i++) {
+				occs.add(new Occurrence("doc" + i, 1 + random.nextInt(maxFrequency)));
+			}
+
+			// one by one, and with the first sorted of them in order beforehand
+			ArrayList<Occurrence> expected = new ArrayList<Occurrence>();
+			ArrayList<Occurrence> partial = new ArrayList<Occurrence>();
+			for (int i = 0; i < n; i++) {
+				expected.add(occs.get(i));
+				engine.insertLastOccurrence(expected);
+				if (i < sorted) {
+					partial.add(occs.get(i));
+					engine.insertLastOccurrence(partial);
+				}
+			}
+			partial.addAll(occs.subList(sorted, n));
+
+			int[] freqs = new int[n];
+			for (int i = 0; i < n; i++) {
+				freqs[i] = partial.get(i).frequency;
+			}
+			int[] order = BulkMerge.order(freqs, n, sorted);
+			ArrayList<Occurrence> ordered = new ArrayList<Occurrence>(n);
+			for (int i = 0; i < n; i++) {
+				ordered.add(partial.get(order[i]));
+			}
+			check("order n=" + n + " sorted=" + sorted, expected, ordered);
+
+			BulkMerge.sort(partial, sorted);
+			check("sort n=" + n + " sorted=" + sorted, expected, partial);
+		}
+	}
+
+	/**
+	 * Compares the bulk ways of building an index with mergeKeyWords.
+	 */
+	private static void checkEngines(Random random, int docs)
+	throws IOException {
+		Path dir = Files.createTempDirectory("mergeorder");
+		try {
+			String[] words = new String[40];
+			for (int w = 0; w < words.length; w++) {
+				words[w] = "word" + (char)('a' + w % 26) + (char)('a' + w / 26);
+			}
+			ArrayList<String> names = new ArrayList<String>();
+			for (int d = 0; d < docs; d++) {
+				StringBuilder text = new StringBuilder();
+				for (int w = 0; w < words.length; w++) {
+					// low counts for most words, so that frequencies tie often
+					int count = random.nextInt(3) == 0 ? random.nextInt(4) : 0;
+					for (int c = 0; c < count; c++) {
+						text.append(words[w]).append(' ');
+					}
+				}
+				Path doc = dir.resolve("doc" + d + ".txt");
+				Files.write(doc, text.toString().getBytes("US-ASCII"));
+				names.add(doc.toString());
+			}
+			Path docsFile = dir.resolve("docs.txt");
+			Files.write(docsFile, names);
+			Path noiseFile = dir.resolve("noise.txt");
+			Files.write(noiseFile, Arrays.asList("the"));
+
+			LittleSearchEngine expected = new LittleSearchEngine();
+			expected.loadNoiseWords(noiseFile.toString());
+			for (String doc: names) {
+				expected.mergeKeyWords(expected.loadKeyWords(doc));
+			}
+
+			LittleSearchEngine sequential = new LittleSearchEngine();
+			sequential.makeIndex(docsFile.toString(), noiseFile.toString());
+			checkEngine("makeIndex", expected, sequential);
+
+			LittleSearchEngine concurrent = new LittleSearchEngine();
+			concurrent.setConcurrent(true);
+			concurrent.makeIndex(docsFile.toString(), noiseFile.toString());
+			checkEngine("makeIndex, concurrent mode", expected, concurrent);
+
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			try {
+				LittleSearchEngine parallel = new LittleSearchEngine();
+				parallel.makeIndex(docsFile.toString(), noiseFile.toString(), pool);
+				checkEngine("parallel makeIndex", expected, parallel);
+			} finally {
+				pool.shutdown();
+			}
+
+			LittleSearchEngine batched = new LittleSearchEngine();
+			batched.loadNoiseWords(noiseFile.toString());
+			for (int from = 0; from < names.size(); ) {
+				int to = Math.min(names.size(), from + 1 + random.nextInt(5));
+				ArrayList<HashMap<String,Occurrence>> kws = new ArrayList<HashMap<String,Occurrence>>();
+				for (String doc: names.subList(from, to)) {
+					kws.add(batched.loadKeyWords(doc));
+				}
+				batched.mergeDocuments(names.subList(from, to), kws);
+				from = to;
+			}
+			checkEngine("mergeDocuments", expected, batched);
+		} finally {
+			File[] files = dir.toFile().listFiles();
+			for (File f: files) {
+				f.delete();
+			}
+			dir.toFile().delete();
+		}
+	}
+
+	private static void checkEngine(String what, LittleSearchEngine expected, LittleSearchEngine actual) {
+		TreeSet<String> keywords = new TreeSet<String>(expected.keywords());
+		keywords.addAll(actual.keywords());
+		for (String kw: keywords) {
+			check(what + " " + kw, expected.stored(kw), actual.stored(kw));
+		}
+	}
+
+	private static void check(String what, List<Occurrence> expected, List<Occurrence> actual) {
+		if (!String.valueOf(expected).equals(String.valueOf(actual))) {
+			if (failures < 5) {
+				System.out.println(what + ":\n  expected " + expected + "\n  actual   " + actual);
+			}
+			failures++;
+		}
+	}
+}